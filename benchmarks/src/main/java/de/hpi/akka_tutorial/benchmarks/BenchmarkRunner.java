@@ -0,0 +1,23 @@
+package de.hpi.akka_tutorial.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with JMH's usual command line, but writes the results to {@value #DEFAULT_RESULT_FILE} in JSON
+ * unless the command line specifies a result file or format itself, so that every run can be tracked for regressions.
+ */
+public class BenchmarkRunner {
+
+	public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+	public static void main(String[] args) throws Exception {
+		final List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+		if (!jmhArgs.contains("-rf"))
+			jmhArgs.addAll(0, Arrays.asList("-rf", "json"));
+		if (!jmhArgs.contains("-rff"))
+			jmhArgs.addAll(0, Arrays.asList("-rff", DEFAULT_RESULT_FILE));
+		org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+	}
+}
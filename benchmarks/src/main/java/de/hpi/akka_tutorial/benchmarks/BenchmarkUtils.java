@@ -0,0 +1,52 @@
+package de.hpi.akka_tutorial.benchmarks;
+
+import de.hpi.akka_tutorial.remote.actors.engines.AdaptivePrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.MillerRabinPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.PrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.SegmentedSievePrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.TrialDivisionPrimeEngine;
+
+/**
+ * Utilities for the benchmarks.
+ */
+class BenchmarkUtils {
+
+	private BenchmarkUtils() {
+	}
+
+	/**
+	 * Calculate a power of ten.
+	 *
+	 * @param exponent the decimal exponent, at most 18
+	 * @return 10 to the power of the exponent
+	 */
+	static long powerOfTen(final int exponent) {
+		if (exponent < 0 || exponent > 18)
+			throw new IllegalArgumentException(String.format("Exponent out of range: %d", exponent));
+		long power = 1;
+		for (int i = 0; i < exponent; i++)
+			power *= 10;
+		return power;
+	}
+
+	/**
+	 * Create a {@link PrimeEngine} by the name that the master's {@code --engine} option uses.
+	 *
+	 * @param name trial-division, sieve, miller-rabin, or adaptive
+	 * @return the new {@link PrimeEngine}
+	 */
+	static PrimeEngine createPrimeEngine(final String name) {
+		switch (name) {
+			case "trial-division":
+				return new TrialDivisionPrimeEngine();
+			case "sieve":
+				return new SegmentedSievePrimeEngine();
+			case "miller-rabin":
+				return new MillerRabinPrimeEngine();
+			case "adaptive":
+				return new AdaptivePrimeEngine();
+			default:
+				throw new IllegalArgumentException(String.format("Unknown prime engine: %s", name));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package de.hpi.akka_tutorial.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.hpi.akka_tutorial.remote.actors.Master;
+import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.remote.actors.engines.PrimeEngine;
+
+/**
+ * Measures how many primes per second a worker discovers in a full {@link Worker.ValidationMessage} chunk starting at
+ * a given magnitude, including the {@link Master.PrimesMessage}s that it packs the primes into. Trial division is left
+ * out by default, because a single chunk of large numbers would take hours; it can be added with
+ * {@code -p engine=trial-division} for small magnitudes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ChunkBenchmark {
+
+	/**
+	 * Counts the discovered primes and the checked numbers, which JMH reports as rates next to the chunks per second.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+
+		public long primes, numbers;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.primes = 0;
+			this.numbers = 0;
+		}
+	}
+
+	@Param({"sieve", "miller-rabin", "adaptive"})
+	public String engine;
+
+	// The decimal exponent of the first number in the chunk
+	@Param({"6", "9", "12", "15", "18"})
+	public int magnitude;
+
+	@Param({"1048576"})
+	public long chunkSize;
+
+	private PrimeEngine primeEngine;
+
+	private Worker.ValidationMessage chunk;
+
+	private final long[] primeBuffer = new long[Worker.MAX_PRIMES_PER_MESSAGE];
+
+	private int numBufferedPrimes;
+
+	@Setup
+	public void setUp() {
+		this.primeEngine = BenchmarkUtils.createPrimeEngine(this.engine);
+		final long rangeMin = BenchmarkUtils.powerOfTen(this.magnitude);
+		this.chunk = new Worker.ValidationMessage(0, rangeMin, rangeMin + this.chunkSize - 1);
+	}
+
+	@Benchmark
+	public void validate(final Counters counters, final Blackhole blackhole) {
+		this.numBufferedPrimes = 0;
+		this.primeEngine.discoverPrimes(this.chunk.getRangeMin(), this.chunk.getRangeMax(), prime -> {
+			if (this.numBufferedPrimes == Worker.MAX_PRIMES_PER_MESSAGE)
+				blackhole.consume(this.flush(false));
+			this.primeBuffer[this.numBufferedPrimes++] = prime;
+			counters.primes++;
+		});
+		blackhole.consume(this.flush(true));
+		counters.numbers += this.chunkSize;
+	}
+
+	private Master.PrimesMessage flush(final boolean isComplete) {
+		final Master.PrimesMessage message = new Master.PrimesMessage(this.chunk.getId(),
+				Arrays.copyOf(this.primeBuffer, this.numBufferedPrimes), isComplete);
+		this.numBufferedPrimes = 0;
+		return message;
+	}
+}
@@ -0,0 +1,73 @@
+package de.hpi.akka_tutorial.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.hpi.akka_tutorial.remote.actors.engines.AdaptivePrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.MillerRabinPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.SegmentedSievePrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.TrialDivisionPrimeEngine;
+
+/**
+ * Measures how long each prime engine takes to classify a single number of a given magnitude. The number is the largest
+ * prime below the magnitude, which is the worst case for trial division: Its cost grows with the square root of the
+ * number and reaches seconds at 10^18. The sieves keep their base primes across invocations, as they do in a worker,
+ * which takes about 600 MB at 10^18.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class IsPrimeBenchmark {
+
+	// The decimal exponent of the magnitude
+	@Param({"6", "9", "12", "15", "18"})
+	public int magnitude;
+
+	private long number;
+
+	private final SegmentedSievePrimeEngine sieve = new SegmentedSievePrimeEngine();
+
+	private final AdaptivePrimeEngine adaptive = new AdaptivePrimeEngine();
+
+	@Setup
+	public void setUp() {
+		this.number = BenchmarkUtils.powerOfTen(this.magnitude) - 1;
+		while (!MillerRabinPrimeEngine.isPrime(this.number))
+			this.number--;
+	}
+
+	@Benchmark
+	public boolean trialDivision() {
+		return TrialDivisionPrimeEngine.isPrime(this.number);
+	}
+
+	@Benchmark
+	public boolean millerRabin() {
+		return MillerRabinPrimeEngine.isPrime(this.number);
+	}
+
+	@Benchmark
+	public void sieve(Blackhole blackhole) {
+		this.sieve.discoverPrimes(this.number, this.number, blackhole::consume);
+	}
+
+	@Benchmark
+	public void adaptive(Blackhole blackhole) {
+		this.adaptive.discoverPrimes(this.number, this.number, blackhole::consume);
+	}
+}
@@ -0,0 +1,103 @@
+package de.hpi.akka_tutorial.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.JavaSerializer;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import de.hpi.akka_tutorial.remote.actors.Master;
+import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.remote.actors.engines.SegmentedSievePrimeEngine;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Measures serialization round-trips of the two most frequent messages of a master-slave conversation: a full
+ * {@link Master.PrimesMessage} of large primes and a {@link Worker.ValidationMessage}. The {@code protocol} serializers
+ * are the ones that {@code serialization.conf} binds the messages to, i.e., the delta encoding and Kryo, respectively;
+ * {@code java} is Akka's fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+	@Param({"java", "protocol"})
+	public String serializer;
+
+	private ActorSystem actorSystem;
+
+	private Master.PrimesMessage primesMessage;
+
+	private Worker.ValidationMessage validationMessage;
+
+	private Serializer primesMessageSerializer, validationMessageSerializer;
+
+	@Setup
+	public void setUp() {
+		this.actorSystem = ActorSystem.create("SerializerBenchmark",
+				ConfigFactory.parseResources("akka-tutorial/serialization.conf").withFallback(ConfigFactory.load()));
+
+		// Create the messages of a subquery on large numbers
+		final LongStream.Builder primes = LongStream.builder();
+		new SegmentedSievePrimeEngine().discoverPrimes(1_000_000_000_000L, 1_000_000_099_999L, primes);
+		this.primesMessage = new Master.PrimesMessage(42, primes.build().limit(Worker.MAX_PRIMES_PER_MESSAGE).toArray(), true);
+		this.validationMessage = new Worker.ValidationMessage(42, 1_000_000_000_000L, 1_000_000_099_999L);
+
+		final Serialization serialization = SerializationExtension.get(this.actorSystem);
+		switch (this.serializer) {
+			case "java":
+				this.primesMessageSerializer = new JavaSerializer((ExtendedActorSystem) this.actorSystem);
+				this.validationMessageSerializer = this.primesMessageSerializer;
+				break;
+			case "protocol":
+				this.primesMessageSerializer = serialization.findSerializerFor(this.primesMessage);
+				this.validationMessageSerializer = serialization.findSerializerFor(this.validationMessage);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown serializer: %s", this.serializer));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		this.actorSystem.terminate();
+		Await.ready(this.actorSystem.whenTerminated(), Duration.Inf());
+	}
+
+	@Benchmark
+	public Object primesMessage() {
+		return roundTrip(this.primesMessageSerializer, this.primesMessage);
+	}
+
+	@Benchmark
+	public Object validationMessage() {
+		return roundTrip(this.validationMessageSerializer, this.validationMessage);
+	}
+
+	private static Object roundTrip(final Serializer serializer, final Object message) {
+		return serializer.fromBinary(serializer.toBinary(message), message.getClass());
+	}
+}
@@ -1,16 +1,32 @@
 package de.hpi.akka_tutorial;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
 import de.hpi.akka_tutorial.remote.Calculator;
+import de.hpi.akka_tutorial.remote.actors.LoadGenerator;
+import de.hpi.akka_tutorial.remote.actors.engines.AdaptivePrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.MillerRabinPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.ParallelPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.PrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.SegmentedSievePrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.TrialDivisionPrimeEngine;
 import de.hpi.akka_tutorial.remote.actors.scheduling.ReactiveSchedulingStrategy;
 import de.hpi.akka_tutorial.remote.actors.scheduling.RoundRobinSchedulingStrategy;
 import de.hpi.akka_tutorial.remote.actors.scheduling.SchedulingStrategy;
+import de.hpi.akka_tutorial.remote.actors.scheduling.WorkStealingSchedulingStrategy;
 
 public class Main {
 
@@ -19,9 +35,11 @@ public class Main {
     	// Parse the command-line args.
         MasterCommand masterCommand = new MasterCommand();
         SlaveCommand slaveCommand = new SlaveCommand();
+        LoadgenCommand loadgenCommand = new LoadgenCommand();
         JCommander jCommander = JCommander.newBuilder()
                 .addCommand("master", masterCommand)
                 .addCommand("slave", slaveCommand)
+                .addCommand("loadgen", loadgenCommand)
                 .build();
 
         try {
@@ -39,6 +57,9 @@ public class Main {
                 case "slave":
                     startSlave(slaveCommand);
                     break;
+                case "loadgen":
+                    startLoadGenerator(loadgenCommand);
+                    break;
                 default:
                     throw new AssertionError();
 
@@ -62,18 +83,176 @@ public class Main {
      * @param masterCommand defines the parameters of the master
      */
     private static void startMaster(MasterCommand masterCommand) throws ParameterException {
+        SchedulingStrategy.Factory schedulingStrategyFactory = createSchedulingStrategyFactory(masterCommand);
+        PrimeEngine.Factory primeEngineFactory = createPrimeEngineFactory(masterCommand);
+        if (masterCommand.resume && masterCommand.primeLogDirectory == null) {
+            throw new ParameterException("Resuming requires a prime log.");
+        }
+        Path primeLogDirectory = masterCommand.primeLogDirectory == null ? null : Paths.get(masterCommand.primeLogDirectory);
+        Path latencyFile = masterCommand.latencyFile == null ? null : Paths.get(masterCommand.latencyFile);
+        if (masterCommand.apiPort < 0) {
+            throw new ParameterException("The API port must not be negative.");
+        }
+        if (masterCommand.maxPendingJobs < 1) {
+            throw new ParameterException("The number of pending batch queries must be positive.");
+        }
+
+        if (masterCommand.interactive && masterCommand.jobsFile != null) {
+            throw new ParameterException("A batch cannot be interactive.");
+        }
+
+        // Process a batch if one is given or piped in and enter the interactive loop otherwise.
+        String jobsFile = masterCommand.jobsFile;
+        if (jobsFile == null && !masterCommand.interactive && isStdinPiped()) {
+            System.out.println("Reading the range specs of a batch from stdin (use --interactive for the console).");
+            jobsFile = MasterCommand.STDIN;
+        }
+        if (jobsFile == null && masterCommand.outputFile != null) {
+            throw new ParameterException("The output file requires a batch.");
+        }
+        BufferedReader jobs = null;
+        Writer output = null;
+        try {
+            if (MasterCommand.STDIN.equals(jobsFile)) {
+                jobs = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            } else if (jobsFile != null) {
+                jobs = Files.newBufferedReader(Paths.get(jobsFile), StandardCharsets.UTF_8);
+            }
+            if (masterCommand.outputFile != null) {
+                output = Files.newBufferedWriter(Paths.get(masterCommand.outputFile), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new ParameterException(String.format("Could not open the batch: %s", e));
+        }
+
+        boolean isSuccessful = Calculator.runMaster(masterCommand.host, masterCommand.port, schedulingStrategyFactory, primeEngineFactory,
+                masterCommand.numLocalWorkers, primeLogDirectory, masterCommand.resume, latencyFile, masterCommand.getMetricsFile(), jobs, output,
+                masterCommand.maxPendingJobs, masterCommand.apiPort);
+        if (!isSuccessful) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Tell whether stdin is a pipe or a redirected file rather than a terminal. Only Linux exposes this to the JVM
+     * (via procfs); elsewhere, batches need to be given explicitly.
+     *
+     * @return whether stdin is known to be a pipe or a file
+     */
+    private static boolean isStdinPiped() {
+        try {
+            Path stdin = Files.readSymbolicLink(Paths.get("/proc/self/fd/0"));
+            return stdin.toString().startsWith("pipe:") || Files.isRegularFile(stdin);
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create the scheduling strategy that a master command asks for.
+     *
+     * @param masterCommand defines the parameters of the master
+     * @return the {@link SchedulingStrategy.Factory}
+     */
+    private static SchedulingStrategy.Factory createSchedulingStrategyFactory(MasterCommand masterCommand) throws ParameterException {
         SchedulingStrategy.Factory schedulingStrategyFactory;
         switch (masterCommand.schedulingStrategy) {
             case "round-robin":
                 schedulingStrategyFactory = new RoundRobinSchedulingStrategy.Factory();
                 break;
             case "reactive":
-                schedulingStrategyFactory = new ReactiveSchedulingStrategy.Factory();
+                if (masterCommand.targetSubqueryMillis <= 0) {
+                    throw new ParameterException("The subquery time must be positive.");
+                }
+                if (masterCommand.maxSubqueriesInFlight <= 0) {
+                    throw new ParameterException("The number of subqueries in flight must be positive.");
+                }
+                schedulingStrategyFactory = new ReactiveSchedulingStrategy.Factory(masterCommand.targetSubqueryMillis, masterCommand.maxSubqueriesInFlight);
+                break;
+            case "work-stealing":
+                if (masterCommand.targetSubqueryMillis <= 0) {
+                    throw new ParameterException("The subquery time must be positive.");
+                }
+                schedulingStrategyFactory = new WorkStealingSchedulingStrategy.Factory(masterCommand.targetSubqueryMillis);
                 break;
             default:
                 throw new ParameterException(String.format("Unknown scheduling strategy: %s", masterCommand.schedulingStrategy));
         }
-        Calculator.runMaster(masterCommand.host, masterCommand.port, schedulingStrategyFactory, masterCommand.numLocalWorkers);
+        return schedulingStrategyFactory;
+    }
+
+    /**
+     * Create the prime engine that a master command asks for.
+     *
+     * @param masterCommand defines the parameters of the master
+     * @return the {@link PrimeEngine.Factory}
+     */
+    private static PrimeEngine.Factory createPrimeEngineFactory(MasterCommand masterCommand) throws ParameterException {
+        PrimeEngine.Factory primeEngineFactory;
+        switch (masterCommand.primeEngine) {
+            case "trial-division":
+                primeEngineFactory = new TrialDivisionPrimeEngine.Factory();
+                break;
+            case "sieve":
+                primeEngineFactory = new SegmentedSievePrimeEngine.Factory();
+                break;
+            case "miller-rabin":
+                primeEngineFactory = new MillerRabinPrimeEngine.Factory();
+                break;
+            case "adaptive":
+                primeEngineFactory = new AdaptivePrimeEngine.Factory();
+                break;
+            default:
+                throw new ParameterException(String.format("Unknown prime engine: %s", masterCommand.primeEngine));
+        }
+        if (masterCommand.forkJoin) {
+            primeEngineFactory = new ParallelPrimeEngine.Factory(primeEngineFactory);
+        }
+        return primeEngineFactory;
+    }
+
+    /**
+     * Start a master with in-process slaves and a load generator.
+     *
+     * @param loadgenCommand defines the parameters of the master, its slaves, and the load
+     */
+    private static void startLoadGenerator(LoadgenCommand loadgenCommand) throws ParameterException {
+        SchedulingStrategy.Factory schedulingStrategyFactory = createSchedulingStrategyFactory(loadgenCommand);
+        PrimeEngine.Factory primeEngineFactory = createPrimeEngineFactory(loadgenCommand);
+        if (loadgenCommand.resume) {
+            throw new ParameterException("The load generator cannot resume queries.");
+        }
+        if (loadgenCommand.jobsFile != null || loadgenCommand.outputFile != null) {
+            throw new ParameterException("The load generator does not process batches.");
+        }
+        if (loadgenCommand.apiPort != 0) {
+            throw new ParameterException("The load generator does not serve the query API.");
+        }
+        if (loadgenCommand.numSlaves < 0 || loadgenCommand.numSlaveWorkers < 1) {
+            throw new ParameterException("The number of slaves must not be negative, and each slave needs a worker.");
+        }
+        if (loadgenCommand.numLocalWorkers + loadgenCommand.numSlaves < 1) {
+            throw new ParameterException("The load generator needs local workers or slaves.");
+        }
+        if (loadgenCommand.arrivalRate <= 0 || loadgenCommand.durationSeconds <= 0 || loadgenCommand.reportIntervalSeconds <= 0) {
+            throw new ParameterException("The arrival rate, duration, and report interval must be positive.");
+        }
+        Path primeLogDirectory = loadgenCommand.primeLogDirectory == null ? null : Paths.get(loadgenCommand.primeLogDirectory);
+        Path latencyFile = loadgenCommand.latencyFile == null ? null : Paths.get(loadgenCommand.latencyFile);
+        Path reportFile = loadgenCommand.reportFile == null ? null : Paths.get(loadgenCommand.reportFile);
+        LoadGenerator.Profile profile;
+        try {
+            profile = new LoadGenerator.Profile(loadgenCommand.arrivalRate, loadgenCommand.durationSeconds * 1000, loadgenCommand.maxNumber,
+                    loadgenCommand.maxRangeSize, loadgenCommand.seed, loadgenCommand.reportIntervalSeconds * 1000, reportFile);
+        } catch (IllegalArgumentException e) {
+            throw new ParameterException(e.getMessage());
+        }
+        boolean isSuccessful = Calculator.runLoadGenerator(loadgenCommand.host, loadgenCommand.port, schedulingStrategyFactory, primeEngineFactory,
+                loadgenCommand.numLocalWorkers, primeLogDirectory, latencyFile, loadgenCommand.getMetricsFile(), loadgenCommand.numSlaves,
+                loadgenCommand.slavePort, loadgenCommand.numSlaveWorkers, profile);
+        if (!isSuccessful) {
+            System.exit(2);
+        }
     }
 
     /**
@@ -81,8 +260,13 @@ public class Main {
      *
      * @param slaveCommand defines the parameters of the slave
      */
-    private static void startSlave(SlaveCommand slaveCommand) {
-        Calculator.runSlave(slaveCommand.host, slaveCommand.port, slaveCommand.getMasterHost(), slaveCommand.getMasterPort());
+    private static void startSlave(SlaveCommand slaveCommand) throws ParameterException {
+        if (slaveCommand.numWorkers < 0) {
+            throw new ParameterException("The number of workers must not be negative.");
+        }
+        int numWorkers = slaveCommand.numWorkers == 0 ? Runtime.getRuntime().availableProcessors() : slaveCommand.numWorkers;
+        Calculator.runSlave(slaveCommand.host, slaveCommand.port, slaveCommand.getMasterHost(), slaveCommand.getMasterPort(), numWorkers,
+                slaveCommand.getMetricsFile());
     }
 
     /**
@@ -107,8 +291,83 @@ public class Main {
         /**
          * Defines the scheduling strategy to be used in the master.
          */
-        @Parameter(names = {"-s", "--scheduler"}, description = "a scheduling strategy (round-robin or reactive)")
+        @Parameter(names = {"-s", "--scheduler"}, description = "a scheduling strategy (round-robin, reactive, or work-stealing)")
         String schedulingStrategy = "reactive";
+
+        /**
+         * Defines the wall-clock time that each subquery of the reactive and work-stealing scheduling strategies should take.
+         */
+        @Parameter(names = {"-t", "--subquery-time"}, description = "target duration of each subquery in ms (reactive and work-stealing scheduler only)")
+        long targetSubqueryMillis = ReactiveSchedulingStrategy.DEFAULT_TARGET_SUBQUERY_MILLIS;
+
+        /**
+         * Defines how many subqueries each worker of the reactive scheduling strategy holds at once.
+         */
+        @Parameter(names = {"-i", "--in-flight"}, description = "number of subqueries in flight per worker (reactive scheduler only)")
+        int maxSubqueriesInFlight = ReactiveSchedulingStrategy.DEFAULT_MAX_SUBQUERIES_IN_FLIGHT;
+
+        /**
+         * Defines the prime engine that the workers of the master should use.
+         */
+        @Parameter(names = {"-e", "--engine"}, description = "a prime engine (trial-division, sieve, miller-rabin, or adaptive)")
+        String primeEngine = "adaptive";
+
+        /**
+         * Defines whether each worker should split its subqueries across all cores of its machine.
+         */
+        @Parameter(names = {"-f", "--fork-join"}, description = "let each worker check its subqueries in parallel on all cores of its machine")
+        boolean forkJoin = false;
+
+        /**
+         * Defines the directory to persist the discovered primes to (and to recover them from).
+         */
+        @Parameter(names = {"-l", "--prime-log"}, description = "directory to persist discovered primes and the query journal to and recover them from")
+        String primeLogDirectory = null;
+
+        /**
+         * Defines whether to resume the unfinished queries that are journaled next to the prime log.
+         */
+        @Parameter(names = {"-r", "--resume"}, description = "resume the unfinished queries of the prime log's previous run")
+        boolean resume = false;
+
+        /**
+         * Defines the file to expose the latency histograms of queries and chunks in for local scraping.
+         */
+        @Parameter(names = {"--latency-file"}, description = "file to regularly write the query and chunk latency percentiles to in the Prometheus text format")
+        String latencyFile = null;
+
+        // The name of the jobs file that stands for stdin
+        static final String STDIN = "-";
+
+        /**
+         * Defines the file of range specs to process as a batch instead of reading commands from the console.
+         */
+        @Parameter(names = {"--jobs"}, description = "process the range specs of a file (\"-\" for stdin, which is also used if it is piped in) as a batch, one \"<min>,<max>[,<weight>]\" per line, and exit once all of them have completed")
+        String jobsFile = null;
+
+        /**
+         * Defines the file to write the results of a batch to.
+         */
+        @Parameter(names = {"-o", "--output"}, description = "CSV file to write the results and the summary of a batch to")
+        String outputFile = null;
+
+        /**
+         * Defines how many queries of a batch may be pending at once.
+         */
+        @Parameter(names = {"--max-pending"}, description = "number of queries of a batch that may be pending at once")
+        int maxPendingJobs = 16;
+
+        /**
+         * Defines whether to read commands from the console even if stdin is piped in.
+         */
+        @Parameter(names = {"--interactive"}, description = "read commands from stdin even if it is piped in")
+        boolean interactive = false;
+
+        /**
+         * Defines the local port to serve the HTTP query API at.
+         */
+        @Parameter(names = {"--api-port"}, description = "localhost port to serve the HTTP query API at (submit and stream queries, count, max, and is-prime lookups; 0 to disable)")
+        int apiPort = 0;
     }
 
     /**
@@ -130,6 +389,12 @@ public class Main {
         @Parameter(names = {"-m", "--master"}, description = "host[:port] of the master", required = true)
         String master;
 
+        /**
+         * Defines the number of workers that the master should deploy to this actor system.
+         */
+        @Parameter(names = {"-w", "--workers"}, description = "number of workers to host (default: number of available processors)")
+        int numWorkers = 0;
+
         String getMasterHost() {
             int colonIndex = this.master.lastIndexOf(':');
             if (colonIndex == -1) 
@@ -152,6 +417,73 @@ public class Main {
 
     }
 
+    /**
+     * Command to start a master with in-process slaves and a load generator.
+     */
+    @Parameters(commandDescription = "start a master with in-process slaves and load it with random range queries whose prime counts are verified")
+    static class LoadgenCommand extends MasterCommand {
+
+        /**
+         * Defines the number of slave actor systems to start in this process.
+         */
+        @Parameter(names = {"--slaves"}, description = "number of in-process slaves")
+        int numSlaves = 2;
+
+        /**
+         * Defines the number of workers of each slave.
+         */
+        @Parameter(names = {"--slave-workers"}, description = "number of workers per slave")
+        int numSlaveWorkers = 1;
+
+        /**
+         * Defines the port of the first slave; the other slaves use the subsequent ports.
+         */
+        @Parameter(names = {"--slave-port"}, description = "port of the first slave; the other slaves use the subsequent ports")
+        int slavePort = SlaveCommand.DEFAULT_PORT;
+
+        /**
+         * Defines the mean number of queries per second.
+         */
+        @Parameter(names = {"--rate"}, description = "mean number of query arrivals per second (Poisson arrivals)")
+        double arrivalRate = 1;
+
+        /**
+         * Defines how long queries should arrive.
+         */
+        @Parameter(names = {"--duration"}, description = "duration of the arrivals in seconds")
+        long durationSeconds = 60;
+
+        /**
+         * Defines the largest number that a query may cover.
+         */
+        @Parameter(names = {"--max-number"}, description = "largest number that a query may cover (the reference table ends at 10^10)")
+        long maxNumber = 1_000_000_000L;
+
+        /**
+         * Defines the largest size of a query.
+         */
+        @Parameter(names = {"--max-range"}, description = "largest number of numbers that a query may cover")
+        long maxRangeSize = 100_000_000L;
+
+        /**
+         * Defines the seed of the random arrivals and ranges.
+         */
+        @Parameter(names = {"--seed"}, description = "seed of the random arrivals and ranges")
+        long seed = 42;
+
+        /**
+         * Defines the interval of the progress reports.
+         */
+        @Parameter(names = {"--report-interval"}, description = "interval of the progress reports in seconds")
+        long reportIntervalSeconds = 10;
+
+        /**
+         * Defines the file to append the progress reports to.
+         */
+        @Parameter(names = {"--report-file"}, description = "CSV file to append the progress reports to")
+        String reportFile = null;
+    }
+
     /**
      * This class defines shared parameters across masters and slaves.
      */
@@ -185,5 +517,20 @@ public class Main {
          * @return the default port
          */
         abstract int getDefaultPort();
+
+        /**
+         * Defines the file to regularly dump the metrics of the actors and serializers to.
+         */
+        @Parameter(names = {"--metrics-file"}, description = "file to regularly dump actor and serialization metrics to (they are always available via JMX)")
+        String metricsFile = null;
+
+        /**
+         * Provide the metrics file.
+         *
+         * @return the metrics file or {@code null} if no metrics should be dumped
+         */
+        Path getMetricsFile() {
+            return this.metricsFile == null ? null : Paths.get(this.metricsFile);
+        }
     }
 }
@@ -1,6 +1,13 @@
 package de.hpi.akka_tutorial.remote;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.typesafe.config.Config;
@@ -8,48 +15,107 @@ import com.typesafe.config.Config;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Address;
+import akka.actor.Inbox;
 import akka.actor.PoisonPill;
+import akka.actor.Status;
+import akka.actor.Terminated;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
+import de.hpi.akka_tutorial.remote.actors.BatchClient;
 import de.hpi.akka_tutorial.remote.actors.Listener;
+import de.hpi.akka_tutorial.remote.actors.LoadGenerator;
 import de.hpi.akka_tutorial.remote.actors.Master;
 import de.hpi.akka_tutorial.remote.actors.Reaper;
 import de.hpi.akka_tutorial.remote.actors.Shepherd;
 import de.hpi.akka_tutorial.remote.actors.Slave;
+import de.hpi.akka_tutorial.remote.actors.engines.PrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryJournal;
 import de.hpi.akka_tutorial.remote.actors.scheduling.SchedulingStrategy;
+import de.hpi.akka_tutorial.remote.actors.storage.BitmapPrimeStore;
+import de.hpi.akka_tutorial.remote.api.QueryServer;
+import de.hpi.akka_tutorial.remote.instrumentation.Instrumentation;
 import de.hpi.akka_tutorial.remote.messages.ShutdownMessage;
 import de.hpi.akka_tutorial.util.AkkaUtils;
 import scala.concurrent.Await;
 import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
 public class Calculator {
 
 	private static final String DEFAULT_MASTER_SYSTEM_NAME = "MasterActorSystem";
 	private static final String DEFAULT_SLAVE_SYSTEM_NAME = "SlaveActorSystem";
 
-	public static void runMaster(String host, int port, SchedulingStrategy.Factory schedulingStrategyFactory, int numLocalWorkers) {
+	// The interval in which the metrics of the actors and serializers are dumped to the metrics file
+	private static final long METRICS_DUMP_INTERVAL_MILLIS = 5000;
+
+	// The time beyond the load generator's own deadlines that we wait for its summary
+	private static final long LOAD_SUMMARY_GRACE_MILLIS = 60_000;
+
+	// The interval in which the reader of a batch renews its wait for the batch client, which it watches meanwhile
+	private static final long BATCH_REPLY_POLL_MILLIS = 60_000;
+
+	// The query API serves only the clients on the same machine
+	private static final String API_HOST = "localhost";
+
+	/**
+	 * Run a master that either takes its queries interactively from the console or, if a batch is given, streams
+	 * the range specs of the batch into the master and shuts down once all of them have completed.
+	 *
+	 * @param jobs the range specs of a batch or {@code null} to enter the interactive loop
+	 * @param output the writer for the results of the batch or {@code null} to only log them
+	 * @param maxPendingJobs the number of queries of the batch that may be pending at once
+	 * @param apiPort the local port to serve the query API at or 0 to serve none
+	 * @return whether the batch, if any, was valid and completed
+	 */
+	public static boolean runMaster(String host, int port, SchedulingStrategy.Factory schedulingStrategyFactory, PrimeEngine.Factory primeEngineFactory, int numLocalWorkers, Path primeLogDirectory, boolean resume,
+			Path latencyFile, Path metricsFile, BufferedReader jobs, Writer output, int maxPendingJobs, int apiPort) {
+		
+		// Read the journal of the queries to resume
+		QueryJournal resumeJournal = null;
+		if (resume) {
+			try {
+				resumeJournal = QueryJournal.read(primeLogDirectory);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+			if (resumeJournal == null)
+				System.out.printf("No query journal found in %s; there is nothing to resume.\n", primeLogDirectory);
+		}
 		
 		// Create the ActorSystem
 		final Config config = AkkaUtils.createRemoteAkkaConfig(host, port);
 		final ActorSystem actorSystem = ActorSystem.create(DEFAULT_MASTER_SYSTEM_NAME, config);
+		Calculator.scheduleMetricsDump(actorSystem, metricsFile);
 
 		// Create the Reaper.
 		actorSystem.actorOf(Reaper.props(), Reaper.DEFAULT_NAME);
 
 		// Create the Listener
-		final ActorRef listener = actorSystem.actorOf(Listener.props(), Listener.DEFAULT_NAME);
+		final ActorRef listener = actorSystem.actorOf(Listener.props(new BitmapPrimeStore.Factory(), primeLogDirectory), Listener.DEFAULT_NAME);
 
 		// Create the Master
-		final ActorRef master = actorSystem.actorOf(Master.props(listener, schedulingStrategyFactory, numLocalWorkers), Master.DEFAULT_NAME);
+		final ActorRef master = actorSystem.actorOf(Master.props(listener, schedulingStrategyFactory, primeEngineFactory, numLocalWorkers, primeLogDirectory != null, resumeJournal, latencyFile), Master.DEFAULT_NAME);
 
 		// Create the Shepherd
 		final ActorRef shepherd = actorSystem.actorOf(Shepherd.props(master), Shepherd.DEFAULT_NAME);
 
-		// Enter interactive loop
-		Calculator.enterInteractiveLoop(listener, master, shepherd);
+		// Create the QueryServer
+		if (apiPort > 0)
+			actorSystem.actorOf(QueryServer.props(API_HOST, apiPort, master, listener), QueryServer.DEFAULT_NAME);
+
+		// Enter interactive loop or process the batch
+		boolean isSuccessful = true;
+		if (jobs == null)
+			Calculator.enterInteractiveLoop(listener, master, shepherd);
+		else
+			isSuccessful = Calculator.processBatch(actorSystem, listener, master, shepherd, jobs, output, maxPendingJobs);
 		
 		System.out.println("Stopping...");
 
 		// Await termination: The termination should be issued by the reaper
 		Calculator.awaitTermination(actorSystem);
+		return isSuccessful;
 	}
 	
 	private static void enterInteractiveLoop(final ActorRef listener, final ActorRef master, final ActorRef shepherd) {
@@ -65,9 +131,13 @@ public class Calculator {
 			
 			// Read input
 			System.out.println("> Enter ...\n"
-					+ "  \"<min>,<max>\" to analyze for primes,\n"
+					+ "  \"<min>,<max>[,<weight>]\" to analyze for primes, sharing the workers among pending ranges by weight (default 1),\n"
 					+ "  \"all\" to log all calculated primes,\n"
 					+ "  \"max\" to log the largest calculated prime,\n"
+					+ "  \"stats\" to log count, min, max, and sum of the calculated primes,\n"
+					+ "  \"metrics\" to log the subquery sizes and throughputs of the workers,\n"
+					+ "  \"latency\" to log the latency percentiles of the completed queries and chunks,\n"
+					+ "  \"cancel <query ID>\" to stop a pending query,\n"
 					+ "  \"exit\" for a graceful shutdown,\n"
 					+ "  \"kill\" for a hard shutdown:");
 			String line = scanner.nextLine();
@@ -79,6 +149,15 @@ public class Calculator {
 				case "max": 
 					listener.tell(new Listener.LogMaxMessage(), ActorRef.noSender());
 					break;
+				case "stats":
+					listener.tell(new Listener.LogStatisticsMessage(), ActorRef.noSender());
+					break;
+				case "metrics":
+					master.tell(new Master.LogMetricsMessage(), ActorRef.noSender());
+					break;
+				case "latency":
+					master.tell(new Master.LogLatenciesMessage(), ActorRef.noSender());
+					break;
 				case "exit":
 					Calculator.shutdown(shepherd, master);
 					scanner.close();
@@ -88,11 +167,92 @@ public class Calculator {
 					scanner.close();
 					return;
 				default:
-					Calculator.process(line, master);
+					if (line.startsWith("cancel "))
+						Calculator.cancel(line.substring("cancel ".length()), master);
+					else
+						Calculator.process(line, master);
+			}
+		}
+	}
+	
+	/**
+	 * Stream the range specs of a batch into the master via a {@link BatchClient}, which holds back the reading while
+	 * the maximum number of queries is pending, and shut the master down once all of them have completed. Blank lines
+	 * and lines starting with "#" are skipped.
+	 *
+	 * @return whether every line was a valid range spec and every query completed
+	 */
+	private static boolean processBatch(final ActorSystem actorSystem, final ActorRef listener, final ActorRef master, final ActorRef shepherd,
+			final BufferedReader jobs, final Writer output, final int maxPendingJobs) {
+
+		final ActorRef batchClient = actorSystem.actorOf(BatchClient.props(master, output, maxPendingJobs), BatchClient.DEFAULT_NAME);
+		final Inbox inbox = Inbox.create(actorSystem);
+		inbox.watch(batchClient);
+		try {
+			String line;
+			for (int lineNumber = 1; (line = jobs.readLine()) != null; lineNumber++) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				final Master.RangeMessage range;
+				try {
+					range = Calculator.parseRange(line);
+				} catch (IllegalArgumentException e) {
+					batchClient.tell(new BatchClient.InvalidJobMessage(lineNumber, e.getMessage()), ActorRef.noSender());
+					continue;
+				}
+
+				// The batch client answers only once there is room for the next query or once the master has stopped
+				inbox.send(batchClient, new BatchClient.JobMessage(lineNumber, range));
+				final Object reply = Calculator.awaitReply(inbox);
+				if (reply instanceof Status.Failure) {
+					System.out.printf("Stopped reading the batch at line %d: %s\n", lineNumber, ((Status.Failure) reply).cause().getMessage());
+					break;
+				}
 			}
+			jobs.close();
+
+			inbox.send(batchClient, new BatchClient.AwaitSummaryMessage());
+			final BatchClient.SummaryMessage summary = (BatchClient.SummaryMessage) Calculator.awaitReply(inbox);
+			System.out.println(summary);
+			if (summary.isMasterStopped())
+				Calculator.kill(listener, master, shepherd);
+			else
+				Calculator.shutdown(shepherd, master);
+			return summary.isSuccessful();
+		} catch (Exception e) {
+			
+			// The pending queries may never complete, so do not wait for them
+			e.printStackTrace();
+			Calculator.kill(listener, master, shepherd);
+			return false;
 		}
 	}
 	
+	/**
+	 * Wait for the next reply of the batch client for as long as its queries take. There is no deadline, because the
+	 * batch client watches the master and answers right away once the master has stopped; the inbox watches the batch
+	 * client itself.
+	 */
+	private static Object awaitReply(final Inbox inbox) {
+		while (true) {
+			final Object reply;
+			try {
+				reply = inbox.receive(FiniteDuration.create(BATCH_REPLY_POLL_MILLIS, TimeUnit.MILLISECONDS));
+			} catch (TimeoutException e) {
+				continue;
+			} catch (IllegalStateException e) {
+
+				// The inbox throws the cause of a Status.Failure
+				return new Status.Failure(e);
+			}
+			if (reply instanceof Terminated)
+				throw new IllegalStateException("The batch client has stopped.");
+			return reply;
+		}
+	}
+
 	private static void shutdown(final ActorRef shepherd, final ActorRef master) {
 		
 		// Tell the master that we will not send any further requests and want to shutdown the system after all current jobs finished
@@ -114,25 +274,74 @@ public class Calculator {
 		shepherd.tell(PoisonPill.getInstance(), ActorRef.noSender()); 
 	}
 	
+	private static void cancel(final String queryId, final ActorRef master) {
+		try {
+			master.tell(new Master.CancelQueryMessage(Integer.parseInt(queryId.trim())), ActorRef.noSender());
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid query ID: " + queryId);
+		}
+	}
+	
 	private static void process(final String line, final ActorRef master) {
+		try {
+			// Start the calculation
+			master.tell(Calculator.parseRange(line), ActorRef.noSender());
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Parse a range spec of the form "&lt;min&gt;,&lt;max&gt;[,&lt;weight&gt;]".
+	 *
+	 * @param line the range spec
+	 * @return the {@link Master.RangeMessage} for the range spec
+	 * @throws IllegalArgumentException if the line is no valid range spec
+	 */
+	private static Master.RangeMessage parseRange(final String line) {
 		
 		// Check for correct range message
 		String[] lineSplit = line.split(",");
-		if (lineSplit.length != 2) {
-			System.out.println("Invalid range format: " + line);
-			return;
-		}
+		if (lineSplit.length != 2 && lineSplit.length != 3)
+			throw new IllegalArgumentException("Invalid range format: " + line);
 		
+		// Extract start- and endNumber and the optional weight
+		final long startNumber, endNumber;
+		final int weight;
 		try {
-			// Extract start- and endNumber
-			long startNumber = Long.valueOf(lineSplit[0]);
-			long endNumber = Long.valueOf(lineSplit[1]);
-			
-			// Start the calculation
-			master.tell(new Master.RangeMessage(startNumber, endNumber), ActorRef.noSender());
+			startNumber = Long.valueOf(lineSplit[0].trim());
+			endNumber = Long.valueOf(lineSplit[1].trim());
+			weight = lineSplit.length == 3 ? Integer.valueOf(lineSplit[2].trim()) : Master.RangeMessage.DEFAULT_WEIGHT;
 		} catch (NumberFormatException e) {
-			System.out.println("Invalid number format for range: " + line);
+			throw new IllegalArgumentException("Invalid number format for range: " + line);
 		}
+		if (weight < 1)
+			throw new IllegalArgumentException("The weight must be positive: " + line);
+		return new Master.RangeMessage(startNumber, endNumber, weight);
+	}
+	
+	/**
+	 * Regularly dump the metrics of all instrumented actors and serializers of this JVM to a file while the actor
+	 * system is running. All metrics are also available via JMX.
+	 *
+	 * @param actorSystem the actor system whose scheduler should trigger the dumps
+	 * @param metricsFile the file to dump to or {@code null} to dump nothing
+	 */
+	private static void scheduleMetricsDump(final ActorSystem actorSystem, final Path metricsFile) {
+		if (metricsFile == null)
+			return;
+		actorSystem.scheduler().schedule(
+				Duration.create(METRICS_DUMP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+				Duration.create(METRICS_DUMP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+				() -> {
+					try {
+						Instrumentation.dump(metricsFile);
+					} catch (IOException e) {
+						actorSystem.log().warning("Could not dump the metrics to {}: {}", metricsFile, e);
+					}
+				},
+				actorSystem.dispatcher()
+		);
 	}
 	
 	public static void awaitTermination(final ActorSystem actorSystem) {
@@ -145,7 +354,22 @@ public class Calculator {
 		System.out.println("ActorSystem terminated!");
 	}
 
-	public static void runSlave(String host, int port, String masterHost, int masterPort) {
+	public static void runSlave(String host, int port, String masterHost, int masterPort, int numWorkers, Path metricsFile) {
+
+		// Start the local ActorSystem
+		final ActorSystem actorSystem = Calculator.startSlave(host, port, masterHost, masterPort, numWorkers);
+		Calculator.scheduleMetricsDump(actorSystem, metricsFile);
+		
+		// Await termination: The termination should be issued by the reaper
+		Calculator.awaitTermination(actorSystem);
+	}
+
+	/**
+	 * Start a slave actor system that subscribes to a master.
+	 *
+	 * @return the slave actor system
+	 */
+	private static ActorSystem startSlave(String host, int port, String masterHost, int masterPort, int numWorkers) {
 
 		// Create the local ActorSystem
 		final Config config = AkkaUtils.createRemoteAkkaConfig(host, port);
@@ -155,13 +379,58 @@ public class Calculator {
 		actorSystem.actorOf(Reaper.props(), Reaper.DEFAULT_NAME);
 
 		// Create a Slave
-		final ActorRef slave = actorSystem.actorOf(Slave.props(), Slave.DEFAULT_NAME);
+		final ActorRef slave = actorSystem.actorOf(Slave.props(numWorkers), Slave.DEFAULT_NAME);
 
 		// Tell the Slave to register the local ActorSystem
 		slave.tell(new Slave.AddressMessage(new Address("akka.tcp", DEFAULT_MASTER_SYSTEM_NAME, masterHost, masterPort)), ActorRef.noSender());
-		
-		// Await termination: The termination should be issued by the reaper
+		return actorSystem;
+	}
+
+	/**
+	 * Run a master together with in-process slaves on consecutive ports and load it with the queries of a
+	 * {@link LoadGenerator} until the load has been processed.
+	 *
+	 * @return whether every query completed with the correct number of primes
+	 */
+	public static boolean runLoadGenerator(String host, int port, SchedulingStrategy.Factory schedulingStrategyFactory, PrimeEngine.Factory primeEngineFactory, int numLocalWorkers, Path primeLogDirectory,
+			Path latencyFile, Path metricsFile, int numSlaves, int firstSlavePort, int numSlaveWorkers, LoadGenerator.Profile profile) {
+
+		// Create the master ActorSystem
+		final Config config = AkkaUtils.createRemoteAkkaConfig(host, port);
+		final ActorSystem actorSystem = ActorSystem.create(DEFAULT_MASTER_SYSTEM_NAME, config);
+		Calculator.scheduleMetricsDump(actorSystem, metricsFile);
+		actorSystem.actorOf(Reaper.props(), Reaper.DEFAULT_NAME);
+		final ActorRef listener = actorSystem.actorOf(Listener.props(new BitmapPrimeStore.Factory(), primeLogDirectory), Listener.DEFAULT_NAME);
+		final ActorRef master = actorSystem.actorOf(Master.props(listener, schedulingStrategyFactory, primeEngineFactory, numLocalWorkers, primeLogDirectory != null, null, latencyFile), Master.DEFAULT_NAME);
+		final ActorRef shepherd = actorSystem.actorOf(Shepherd.props(master), Shepherd.DEFAULT_NAME);
+
+		// Start the slaves, which subscribe to the master's shepherd
+		final List<ActorSystem> slaveSystems = new ArrayList<>();
+		for (int i = 0; i < numSlaves; i++)
+			slaveSystems.add(Calculator.startSlave(host, firstSlavePort + i, host, port, numSlaveWorkers));
+
+		// Generate the load and wait for its summary
+		final ActorRef loadGenerator = actorSystem.actorOf(LoadGenerator.props(master, profile), LoadGenerator.DEFAULT_NAME);
+		final FiniteDuration timeout = FiniteDuration.create(
+				profile.getDurationMillis() + LoadGenerator.DRAIN_TIMEOUT_MILLIS + LOAD_SUMMARY_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+		boolean isSuccessful = false;
+		try {
+			final LoadGenerator.SummaryMessage summary = (LoadGenerator.SummaryMessage) Await.result(
+					Patterns.ask(loadGenerator, new LoadGenerator.AwaitSummaryMessage(), Timeout.apply(timeout)), timeout);
+			System.out.println(summary);
+			isSuccessful = summary.isSuccessful();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		System.out.println("Stopping...");
+		Calculator.shutdown(shepherd, master);
+
+		// Await termination: The termination should be issued by the reapers
 		Calculator.awaitTermination(actorSystem);
+		for (ActorSystem slaveSystem : slaveSystems)
+			Calculator.awaitTermination(slaveSystem);
+		return isSuccessful;
 	}
 
 }
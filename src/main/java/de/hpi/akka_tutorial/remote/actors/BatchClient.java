@@ -0,0 +1,410 @@
+package de.hpi.akka_tutorial.remote.actors;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.actor.Terminated;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
+import de.hpi.akka_tutorial.util.LatencyHistogram;
+
+/**
+ * The batch client poses the range queries of a batch job to the {@link Master} of its actor system. It takes the
+ * queries one {@link JobMessage} at a time and acknowledges each of them with a {@link ReadyMessage} only while fewer
+ * than a maximum number of its queries are pending, so that the reader of the batch cannot flood the master. It writes
+ * one CSV row per completed, cancelled, or rejected query to the output of the batch and answers an
+ * {@link AwaitSummaryMessage} once no query is pending anymore. The batch client watches the master: Once the master
+ * has stopped, all pending and further queries fail, and the reader is answered with a {@link Status.Failure}.
+ */
+public class BatchClient extends AbstractLoggingActor {
+
+	public static final String DEFAULT_NAME = "batch-client";
+
+	/**
+	 * Create the {@link Props} necessary to instantiate new {@link BatchClient} actors.
+	 *
+	 * @param master the master to pose the queries to
+	 * @param output the writer to write the results to or {@code null} to only log them
+	 * @param maxPendingQueries the number of queries that may be pending at once
+	 * @return the {@link Props}
+	 */
+	public static Props props(final ActorRef master, final Writer output, final int maxPendingQueries) {
+		return Props.create(BatchClient.class, () -> new BatchClient(master, output, maxPendingQueries));
+	}
+
+	/**
+	 * Asks the {@link BatchClient} to pose a query and to answer with a {@link ReadyMessage} once it can take the
+	 * next one or with a {@link Status.Failure} if the master has stopped.
+	 */
+	public static class JobMessage {
+
+		private final int lineNumber;
+
+		private final Master.RangeMessage range;
+
+		/**
+		 * Construct a new {@link JobMessage} object.
+		 *
+		 * @param lineNumber the line of the batch that specifies the query
+		 * @param range the query
+		 */
+		public JobMessage(final int lineNumber, final Master.RangeMessage range) {
+			this.lineNumber = lineNumber;
+			this.range = range;
+		}
+	}
+
+	/**
+	 * Tells the {@link BatchClient} that a line of the batch does not specify a query.
+	 */
+	public static class InvalidJobMessage {
+
+		private final int lineNumber;
+
+		private final String reason;
+
+		/**
+		 * Construct a new {@link InvalidJobMessage} object.
+		 *
+		 * @param lineNumber the invalid line of the batch
+		 * @param reason why the line is invalid
+		 */
+		public InvalidJobMessage(final int lineNumber, final String reason) {
+			this.lineNumber = lineNumber;
+			this.reason = reason;
+		}
+	}
+
+	/**
+	 * Tells the reader of the batch that the {@link BatchClient} can take the next {@link JobMessage}.
+	 */
+	public static class ReadyMessage {
+	}
+
+	/**
+	 * Tells the {@link BatchClient} that the batch has no more jobs and asks it to answer with a
+	 * {@link SummaryMessage} once all queries have completed.
+	 */
+	public static class AwaitSummaryMessage {
+	}
+
+	/**
+	 * Summarizes the queries of a {@link BatchClient}.
+	 */
+	public static class SummaryMessage {
+
+		private final long numSubmitted, numCompleted, numFailed, numInvalid, numPrimes;
+
+		private final double seconds;
+
+		private final LatencyHistogram latencies;
+
+		private final boolean isOutputComplete, isMasterStopped;
+
+		private SummaryMessage(final long numSubmitted, final long numCompleted, final long numFailed, final long numInvalid,
+				final long numPrimes, final double seconds, final LatencyHistogram latencies, final boolean isOutputComplete,
+				final boolean isMasterStopped) {
+			this.numSubmitted = numSubmitted;
+			this.numCompleted = numCompleted;
+			this.numFailed = numFailed;
+			this.numInvalid = numInvalid;
+			this.numPrimes = numPrimes;
+			this.seconds = seconds;
+			this.latencies = latencies;
+			this.isOutputComplete = isOutputComplete;
+			this.isMasterStopped = isMasterStopped;
+		}
+
+		/**
+		 * @return whether every line of the batch specified a query and every query has completed and been written
+		 */
+		public boolean isSuccessful() {
+			return this.numInvalid == 0 && this.numFailed == 0 && this.numCompleted == this.numSubmitted && this.isOutputComplete;
+		}
+
+		/**
+		 * @return whether the master stopped while queries of the batch were pending or being read
+		 */
+		public boolean isMasterStopped() {
+			return this.isMasterStopped;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%,d of %,d queries completed in %,.1f s with %,d primes, %,d failed, %,d invalid lines%s%s; latency %s",
+					this.numCompleted, this.numSubmitted, this.seconds, this.numPrimes, this.numFailed, this.numInvalid,
+					this.isOutputComplete ? "" : ", incomplete output", this.isMasterStopped ? ", master stopped" : "", this.latencies);
+		}
+	}
+
+	/**
+	 * A query that the batch client has posed.
+	 */
+	private static class Query {
+
+		private final int lineNumber;
+
+		private final Master.RangeMessage range;
+
+		private final long submitNanos;
+
+		private Query(final int lineNumber, final Master.RangeMessage range, final long submitNanos) {
+			this.lineNumber = lineNumber;
+			this.range = range;
+			this.submitNanos = submitNanos;
+		}
+	}
+
+	// The master to pose the queries to
+	private final ActorRef master;
+
+	// The writer to write the results to, if any
+	private final Writer output;
+
+	private final int maxPendingQueries;
+
+	// The queries that the master has not assigned an ID to yet in the order of their submission
+	private final Deque<Query> unscheduledQueries = new ArrayDeque<>();
+
+	// The queries that have not completed yet by their IDs
+	private final Map<Integer, Query> pendingQueries = new HashMap<>();
+
+	// Failed queries were rejected by the master, cancelled, or lost with the master
+	private long numSubmitted = 0, numCompleted = 0, numFailed = 0, numInvalid = 0, numPrimes = 0;
+
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	private long startNanos;
+
+	// Whether all results could be written
+	private boolean isOutputComplete = true;
+
+	// Whether the master has stopped, so that no further query can complete
+	private boolean isMasterStopped = false;
+
+	// The reader that waits for a free slot, if any
+	private ActorRef blockedReader;
+
+	// The actor that awaits the summary, if any
+	private ActorRef summaryAsker;
+
+	/**
+	 * Construct a new {@link BatchClient} object.
+	 *
+	 * @param master the master to pose the queries to
+	 * @param output the writer to write the results to or {@code null} to only log them
+	 * @param maxPendingQueries the number of queries that may be pending at once
+	 */
+	public BatchClient(final ActorRef master, final Writer output, final int maxPendingQueries) {
+		this.master = master;
+		this.output = output;
+		this.maxPendingQueries = maxPendingQueries;
+	}
+
+	@Override
+	public void preStart() throws Exception {
+		super.preStart();
+
+		// Follow the completed and cancelled queries
+		this.getContext().getSystem().eventStream().subscribe(this.getSelf(), QueryReport.class);
+
+		// Notice if the master stops, because the pending queries can never complete then
+		this.getContext().watch(this.master);
+
+		this.startNanos = System.nanoTime();
+		this.write("line,start,end,weight,query_id,primes,latency_millis,status");
+	}
+
+	@Override
+	public void postStop() throws Exception {
+		super.postStop();
+		if (this.output != null)
+			this.output.close();
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(JobMessage.class, this::handle)
+				.match(InvalidJobMessage.class, this::handle)
+				.match(Master.QueryScheduledMessage.class, this::handle)
+				.match(Status.Failure.class, this::handle)
+				.match(QueryReport.class, this::handle)
+				.match(Terminated.class, this::handle)
+				.match(AwaitSummaryMessage.class, this::handle)
+				.matchAny(object -> this.log().info(this.getClass().getName() + " received unknown message: " + object.toString()))
+				.build();
+	}
+
+	private void handle(JobMessage message) {
+		final Query query = new Query(message.lineNumber, message.range, System.nanoTime());
+		this.numSubmitted++;
+
+		// Let the reader stop reading if the queries cannot complete anyway
+		if (this.isMasterStopped) {
+			this.fail(query, "master stopped");
+			this.getSender().tell(new Status.Failure(new IllegalStateException("The master has stopped.")), this.getSelf());
+			return;
+		}
+
+		this.unscheduledQueries.add(query);
+		this.master.tell(message.range, this.getSelf());
+
+		// Let the reader continue only if there is room for another query
+		if (this.countPendingQueries() < this.maxPendingQueries)
+			this.getSender().tell(new ReadyMessage(), this.getSelf());
+		else
+			this.blockedReader = this.getSender();
+	}
+
+	private void handle(InvalidJobMessage message) {
+		this.numInvalid++;
+		this.log().error("Skipping line {} of the batch: {}", message.lineNumber, message.reason);
+	}
+
+	private void handle(Master.QueryScheduledMessage message) {
+
+		// The master schedules the queries in the order of their arrival
+		this.pendingQueries.put(message.getQueryId(), this.unscheduledQueries.poll());
+	}
+
+	private void handle(Status.Failure message) {
+
+		// The master rejects the queries in the order of their arrival, too, e.g., because it is shutting down
+		final Query query = this.unscheduledQueries.poll();
+		if (query == null) {
+			this.log().warning("Received an unexpected failure: {}", message.cause());
+			return;
+		}
+		this.fail(query, message.cause().getMessage());
+		this.releaseBlockedReader();
+		this.checkCompletion();
+	}
+
+	private void handle(QueryReport report) {
+
+		// Ignore the queries of other clients
+		final Query query = this.pendingQueries.remove(report.getQueryId());
+		if (query == null)
+			return;
+
+		// A cancelled query did not check its whole range, so it counts as failed
+		final long nanos = System.nanoTime() - query.submitNanos;
+		if (report.isCancelled()) {
+			this.numFailed++;
+			this.log().error("Query {} from line {} was cancelled.", report.getQueryId(), query.lineNumber);
+		} else {
+			this.latencies.record(nanos);
+			this.numCompleted++;
+			this.numPrimes += report.getNumPrimes();
+			if (this.output == null)
+				this.log().info(String.format("Query %d from line %d found %,d primes in %.3f ms.", report.getQueryId(), query.lineNumber,
+						report.getNumPrimes(), nanos / 1e6));
+		}
+		this.write(String.format("%d,%d,%d,%d,%d,%d,%.3f,%s", query.lineNumber, query.range.getStartNumber(), query.range.getEndNumber(),
+				query.range.getWeight(), report.getQueryId(), report.getNumPrimes(), nanos / 1e6, report.isCancelled() ? "cancelled" : "completed"));
+
+		this.releaseBlockedReader();
+		this.checkCompletion();
+	}
+
+	private void handle(Terminated message) {
+		this.isMasterStopped = true;
+		if (this.countPendingQueries() > 0)
+			this.log().error("The master has stopped with {} pending queries.", this.countPendingQueries());
+
+		// None of the pending queries can complete anymore
+		for (Query query : this.unscheduledQueries)
+			this.fail(query, "master stopped");
+		this.unscheduledQueries.clear();
+		for (Query query : this.pendingQueries.values())
+			this.fail(query, "master stopped");
+		this.pendingQueries.clear();
+
+		// Tell a waiting reader to stop reading
+		if (this.blockedReader != null) {
+			this.blockedReader.tell(new Status.Failure(new IllegalStateException("The master has stopped.")), this.getSelf());
+			this.blockedReader = null;
+		}
+
+		this.checkCompletion();
+	}
+
+	private void handle(AwaitSummaryMessage message) {
+		this.summaryAsker = this.getSender();
+		this.checkCompletion();
+	}
+
+	private int countPendingQueries() {
+		return this.unscheduledQueries.size() + this.pendingQueries.size();
+	}
+
+	/**
+	 * Count a query as failed and write its row.
+	 */
+	private void fail(final Query query, final String reason) {
+		this.numFailed++;
+		this.log().error("Query from line {} failed: {}", query.lineNumber, reason);
+		this.write(String.format("%d,%d,%d,%d,,,%.3f,failed", query.lineNumber, query.range.getStartNumber(), query.range.getEndNumber(),
+				query.range.getWeight(), (System.nanoTime() - query.submitNanos) / 1e6));
+	}
+
+	/**
+	 * Take the next job of a waiting reader if there is room for another query.
+	 */
+	private void releaseBlockedReader() {
+		if (this.blockedReader != null && this.countPendingQueries() < this.maxPendingQueries) {
+			this.blockedReader.tell(new ReadyMessage(), this.getSelf());
+			this.blockedReader = null;
+		}
+	}
+
+	/**
+	 * Summarize the batch once all of its queries have been read and none of them is pending anymore.
+	 */
+	private void checkCompletion() {
+		if (this.summaryAsker == null || this.countPendingQueries() > 0)
+			return;
+
+		if (this.output != null) {
+			try {
+				this.output.flush();
+			} catch (IOException e) {
+				this.isOutputComplete = false;
+				this.log().error("Could not flush the results: {}", e);
+			}
+		}
+		final SummaryMessage summary = new SummaryMessage(this.numSubmitted, this.numCompleted, this.numFailed, this.numInvalid, this.numPrimes,
+				(System.nanoTime() - this.startNanos) / 1e9, this.latencies, this.isOutputComplete, this.isMasterStopped);
+		this.log().info("Summary: {}", summary);
+		this.write("# " + summary);
+		if (this.output != null) {
+			try {
+				this.output.flush();
+			} catch (IOException e) {
+				this.log().error("Could not flush the summary: {}", e);
+			}
+		}
+		this.summaryAsker.tell(summary, this.getSelf());
+		this.summaryAsker = null;
+	}
+
+	private void write(final String line) {
+		if (this.output == null)
+			return;
+		try {
+			this.output.write(line);
+			this.output.write(System.lineSeparator());
+		} catch (IOException e) {
+			this.isOutputComplete = false;
+			this.log().error("Could not write the results: {}", e);
+		}
+	}
+}
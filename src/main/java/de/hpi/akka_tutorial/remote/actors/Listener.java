@@ -1,31 +1,47 @@
 package de.hpi.akka_tutorial.remote.actors;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.Comparator;
-import java.util.HashSet;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
 
-import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.actor.Terminated;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryJournal;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
+import de.hpi.akka_tutorial.remote.actors.storage.PrimeLog;
+import de.hpi.akka_tutorial.remote.actors.storage.PrimeStore;
+import de.hpi.akka_tutorial.remote.instrumentation.InstrumentedActor;
+import de.hpi.akka_tutorial.remote.instrumentation.InstrumentedMailbox;
 import de.hpi.akka_tutorial.remote.messages.ShutdownMessage;
+import scala.concurrent.duration.Duration;
 
 /**
  * The listener collects prime numbers and responds to action requests on these primes.
  */
-public class Listener extends AbstractLoggingActor {
+public class Listener extends InstrumentedActor {
 
 	public static final String DEFAULT_NAME = "listener";
 
 	/**
 	 * Create the {@link Props} necessary to instantiate new {@link Listener} actors.
 	 *
+	 * @param primeStoreFactory defines how the listener stores its primes
+	 * @param primeLogDirectory the directory of the {@link PrimeLog} to persist the primes to or {@code null}
 	 * @return the {@link Props}
 	 */
-	public static Props props() {
-		return Props.create(Listener.class);
+	public static Props props(final PrimeStore.Factory primeStoreFactory, final Path primeLogDirectory) {
+		return Props.create(Listener.class, () -> new Listener(primeStoreFactory, primeLogDirectory)).withMailbox(InstrumentedMailbox.NAME);
 	}
 
 	/**
@@ -35,14 +51,18 @@ public class Listener extends AbstractLoggingActor {
 		
 		private static final long serialVersionUID = -1779142448823490939L;
 		
-		private List<Long> primes;
+		private int queryId;
+
+		private long[] primes;
 		
 		/**
 		 * Construct a new {@link PrimesMessage} object.
 		 * 
-		 * @param primes A list of prime numbers
+		 * @param queryId the ID of the range query that discovered the primes
+		 * @param primes prime numbers in ascending order
 		 */
-		public PrimesMessage(final List<Long> primes) {
+		public PrimesMessage(final int queryId, final long[] primes) {
+			this.queryId = queryId;
 			this.primes = primes;
 		}
 
@@ -52,14 +72,41 @@ public class Listener extends AbstractLoggingActor {
 		@SuppressWarnings("unused")
 		private PrimesMessage() {
 		}
+
+		public int getQueryId() {
+			return this.queryId;
+		}
+
+		public long[] getPrimes() {
+			return this.primes;
+		}
 	}
 	
 	/**
-	 * Asks the {@link Listener} to log all its primes.
+	 * Asks the {@link Listener} to log all its primes. The primes are logged page by page, so that other messages can
+	 * be processed in between.
 	 */
 	public static class LogPrimesMessage implements Serializable {
 		
 		private static final long serialVersionUID = -5646268930296638375L;
+
+		private long from;
+
+		/**
+		 * Log all primes.
+		 */
+		public LogPrimesMessage() {
+			this(0);
+		}
+
+		/**
+		 * Log the primes starting at the given number.
+		 *
+		 * @param from the smallest number to log (inclusive)
+		 */
+		public LogPrimesMessage(final long from) {
+			this.from = from;
+		}
 	}
 
 	/**
@@ -70,8 +117,419 @@ public class Listener extends AbstractLoggingActor {
 		private static final long serialVersionUID = 9210465485942285762L;
 	}
 
+	/**
+	 * Asks the {@link Listener} to log the aggregates over its primes.
+	 */
+	public static class LogStatisticsMessage implements Serializable {
+
+		private static final long serialVersionUID = -2471436530569856826L;
+	}
+
+	/**
+	 * Asks the {@link Listener} to reply with a {@link PrimesPageMessage} that holds its smallest primes starting at
+	 * some number. Clients can page through all primes by asking for the successor of the largest prime of each page.
+	 */
+	public static class RangeQueryMessage implements Serializable {
+
+		private static final long serialVersionUID = 3546624862419003651L;
+
+		private long from;
+
+		private int limit;
+
+		/**
+		 * Construct a new {@link RangeQueryMessage} object.
+		 *
+		 * @param from the smallest number of interest (inclusive)
+		 * @param limit the maximum number of primes to return
+		 */
+		public RangeQueryMessage(final long from, final int limit) {
+			this.from = from;
+			this.limit = limit;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private RangeQueryMessage() {
+		}
+	}
+
+	/**
+	 * The answer of the {@link Listener} to a {@link RangeQueryMessage}.
+	 */
+	public static class PrimesPageMessage implements Serializable {
+
+		private static final long serialVersionUID = -3117417738453498513L;
+
+		private long[] primes;
+
+		private boolean hasMore;
+
+		/**
+		 * Construct a new {@link PrimesPageMessage} object.
+		 *
+		 * @param primes the primes of the page in ascending order
+		 * @param hasMore whether there are further primes after this page
+		 */
+		public PrimesPageMessage(final long[] primes, final boolean hasMore) {
+			this.primes = primes;
+			this.hasMore = hasMore;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private PrimesPageMessage() {
+		}
+
+		public long[] getPrimes() {
+			return this.primes;
+		}
+
+		public boolean hasMore() {
+			return this.hasMore;
+		}
+	}
+
+	/**
+	 * Asks the {@link Listener} to persist a {@link QueryJournal} next to its {@link PrimeLog} once all primes that it
+	 * has received so far are on disk. Hence, the journal never claims progress whose primes could still be lost.
+	 */
+	public static class JournalMessage implements Serializable {
+
+		private static final long serialVersionUID = -6047786385017305212L;
+
+		private QueryJournal journal;
+
+		/**
+		 * Construct a new {@link JournalMessage} object.
+		 *
+		 * @param journal the journal to persist
+		 */
+		public JournalMessage(final QueryJournal journal) {
+			this.journal = journal;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private JournalMessage() {
+		}
+	}
+
+	/**
+	 * Tells the {@link Listener} that a query has completed. The master sends this message after all primes of the
+	 * query, so the listener can count them and publish the completed {@link QueryReport} to the event stream of its
+	 * actor system, where any actor can subscribe to it.
+	 */
+	public static class QueryCompletedMessage implements Serializable {
+
+		private static final long serialVersionUID = 2311709325583780937L;
+
+		private QueryReport report;
+
+		/**
+		 * Construct a new {@link QueryCompletedMessage} object.
+		 *
+		 * @param report the report of the completed query, whose primes are yet to be counted
+		 */
+		public QueryCompletedMessage(final QueryReport report) {
+			this.report = report;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private QueryCompletedMessage() {
+		}
+
+		public QueryReport getReport() {
+			return this.report;
+		}
+	}
+
+	/**
+	 * Asks the {@link Listener} to send the sender all primes of a query as they arrive, i.e., as unordered
+	 * {@link PrimesMessage}s that contain every prime once, even if several workers checked its subquery, followed by
+	 * the {@link QueryReport} or a {@link QueryCancelledMessage} of the query. The master sends this message on behalf of a client before the first
+	 * primes of the query, so that the client misses none of them.
+	 */
+	public static class SubscribeMessage implements Serializable {
+
+		private static final long serialVersionUID = 6330893385318529361L;
+
+		private int queryId;
+
+		/**
+		 * Construct a new {@link SubscribeMessage} object.
+		 *
+		 * @param queryId the ID of the query whose primes should be sent
+		 */
+		public SubscribeMessage(final int queryId) {
+			this.queryId = queryId;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private SubscribeMessage() {
+		}
+	}
+
+	/**
+	 * Tells the {@link Listener} and the subscribers of a query that the query has been cancelled, so it will not
+	 * complete. The listener publishes the report of the cancelled query to the event stream of its actor system, just
+	 * like the report of a completed query.
+	 */
+	public static class QueryCancelledMessage implements Serializable {
+
+		private static final long serialVersionUID = -2398125640474137296L;
+
+		private int queryId;
+
+		private QueryReport report;
+
+		/**
+		 * Construct a new {@link QueryCancelledMessage} object.
+		 *
+		 * @param queryId the ID of the cancelled query
+		 * @param report the report of the cancelled query, whose primes are yet to be counted, or {@code null} if there
+		 *        is none
+		 */
+		public QueryCancelledMessage(final int queryId, final QueryReport report) {
+			this.queryId = queryId;
+			this.report = report;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private QueryCancelledMessage() {
+		}
+
+		public QueryReport getReport() {
+			return this.report;
+		}
+
+		public int getQueryId() {
+			return this.queryId;
+		}
+	}
+
+	/**
+	 * Asks the {@link Listener} to reply with a {@link CountMessage} that holds the number of its primes in a range.
+	 */
+	public static class CountQueryMessage implements Serializable {
+
+		private static final long serialVersionUID = -4467236806224412590L;
+
+		private long from, to;
+
+		/**
+		 * Construct a new {@link CountQueryMessage} object.
+		 *
+		 * @param from the smallest number of interest (inclusive)
+		 * @param to the largest number of interest (inclusive)
+		 */
+		public CountQueryMessage(final long from, final long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private CountQueryMessage() {
+		}
+	}
+
+	/**
+	 * The answer of the {@link Listener} to a {@link CountQueryMessage}.
+	 */
+	public static class CountMessage implements Serializable {
+
+		private static final long serialVersionUID = 1923570084512376085L;
+
+		private long count;
+
+		/**
+		 * Construct a new {@link CountMessage} object.
+		 *
+		 * @param count the number of primes in the range
+		 */
+		public CountMessage(final long count) {
+			this.count = count;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private CountMessage() {
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+	}
+
+	/**
+	 * Asks the {@link Listener} to reply with a {@link MaxMessage} that holds its largest prime.
+	 */
+	public static class MaxQueryMessage implements Serializable {
+
+		private static final long serialVersionUID = -7721648402372785213L;
+	}
+
+	/**
+	 * The answer of the {@link Listener} to a {@link MaxQueryMessage}.
+	 */
+	public static class MaxMessage implements Serializable {
+
+		private static final long serialVersionUID = 3009842474187935024L;
+
+		private long max;
+
+		/**
+		 * Construct a new {@link MaxMessage} object.
+		 *
+		 * @param max the largest prime or 0 if there are no primes
+		 */
+		public MaxMessage(final long max) {
+			this.max = max;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private MaxMessage() {
+		}
+
+		public long getMax() {
+			return this.max;
+		}
+	}
+
+	/**
+	 * Asks the {@link Listener} to reply with a {@link ContainsMessage} that tells whether it has discovered a number
+	 * as prime.
+	 */
+	public static class ContainsQueryMessage implements Serializable {
+
+		private static final long serialVersionUID = 8106377346160294367L;
+
+		private long number;
+
+		/**
+		 * Construct a new {@link ContainsQueryMessage} object.
+		 *
+		 * @param number the number to look up
+		 */
+		public ContainsQueryMessage(final long number) {
+			this.number = number;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private ContainsQueryMessage() {
+		}
+	}
+
+	/**
+	 * The answer of the {@link Listener} to a {@link ContainsQueryMessage}.
+	 */
+	public static class ContainsMessage implements Serializable {
+
+		private static final long serialVersionUID = -1251409873377606630L;
+
+		private boolean contains;
+
+		/**
+		 * Construct a new {@link ContainsMessage} object.
+		 *
+		 * @param contains whether the number has been discovered as prime
+		 */
+		public ContainsMessage(final boolean contains) {
+			this.contains = contains;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private ContainsMessage() {
+		}
+
+		public boolean contains() {
+			return this.contains;
+		}
+	}
+
+	/**
+	 * Asks the {@link Listener} to force its {@link PrimeLog} to disk.
+	 */
+	private static class SyncMessage implements Serializable {
+
+		private static final long serialVersionUID = 5279016212329853406L;
+	}
+
+	// The interval in which the prime log is forced to disk
+	private static final long SYNC_INTERVAL_MILLIS = 1000;
+
+	// The number of primes that are logged in one go
+	private static final int LOG_PAGE_SIZE = 10_000;
+
+	// The maximum number of primes in a single PrimesPageMessage
+	private static final int MAX_PAGE_SIZE = 100_000;
+
+	// Defines how to store primes, both all received ones and those streamed to the subscribers of a query
+	private final PrimeStore.Factory primeStoreFactory;
+
 	// The set of all prime numbers received by this listener actor
-	private final Set<Long> primes = new HashSet<>();
+	private final PrimeStore primes;
+
+	// Aggregates over all distinct primes, maintained upon ingestion; the sum is kept as unsigned 128 bit number
+	private long minPrime = Long.MAX_VALUE, maxPrime = 0, sumLow = 0, sumHigh = 0;
+
+	// The number of new primes that each query contributed
+	private final Map<Integer, Long> queryId2numPrimes = new HashMap<>();
+
+	// The actors that follow the primes of pending queries
+	private final Map<Integer, List<ActorRef>> queryId2subscribers = new HashMap<>();
+
+	// The primes that the subscribers of each pending query have received, so that they receive every prime only once
+	private final Map<Integer, PrimeStore> queryId2streamedPrimes = new HashMap<>();
+
+	// The directory of the log that persists all received primes, if any
+	private final Path primeLogDirectory;
+
+	private PrimeLog primeLog;
+
+	// A scheduling item to regularly force the prime log to disk
+	private Cancellable syncSchedule;
+
+	/**
+	 * Construct a new {@link Listener} object.
+	 *
+	 * @param primeStoreFactory defines how to store the primes
+	 * @param primeLogDirectory the directory of the {@link PrimeLog} to persist the primes to or {@code null}
+	 */
+	public Listener(final PrimeStore.Factory primeStoreFactory, final Path primeLogDirectory) {
+		this.primeStoreFactory = primeStoreFactory;
+		this.primes = primeStoreFactory.create();
+		this.primeLogDirectory = primeLogDirectory;
+	}
 	
 	@Override
 	public void preStart() throws Exception {
@@ -79,6 +537,21 @@ public class Listener extends AbstractLoggingActor {
 		
 		// Register at this actor system's reaper
 		Reaper.watchWithDefaultReaper(this);
+
+		// Recover the primes of previous runs from the prime log and regularly force new primes to disk
+		if (this.primeLogDirectory != null) {
+			this.primeLog = PrimeLog.open(this.primeLogDirectory, this::store);
+			this.log().info("Recovered {} primes from {}.", this.primes.size(), this.primeLogDirectory);
+
+			this.syncSchedule = this.getContext().getSystem().scheduler().schedule(
+					Duration.create(SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+					Duration.create(SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+					this.getSelf(),
+					new SyncMessage(),
+					this.getContext().dispatcher(),
+					this.getSelf()
+			);
+		}
 	}
 
 
@@ -86,6 +559,12 @@ public class Listener extends AbstractLoggingActor {
 	public void postStop() throws Exception {
 		super.postStop();
 		
+		// Make sure that all primes are on disk
+		if (this.syncSchedule != null)
+			this.syncSchedule.cancel();
+		if (this.primeLog != null)
+			this.primeLog.close();
+		
 		// Log the stop event
 		this.log().info("Stopped {}.", this.getSelf());
 	}
@@ -96,33 +575,193 @@ public class Listener extends AbstractLoggingActor {
 				.match(PrimesMessage.class, this::handle)
 				.match(LogPrimesMessage.class, this::handle)
 				.match(LogMaxMessage.class, this::handle)
+				.match(LogStatisticsMessage.class, this::handle)
+				.match(RangeQueryMessage.class, this::handle)
+				.match(SyncMessage.class, this::handle)
+				.match(JournalMessage.class, this::handle)
+				.match(QueryCompletedMessage.class, this::handle)
+				.match(SubscribeMessage.class, this::handle)
+				.match(QueryCancelledMessage.class, this::handle)
+				.match(Terminated.class, this::handle)
+				.match(CountQueryMessage.class, this::handle)
+				.match(MaxQueryMessage.class, this::handle)
+				.match(ContainsQueryMessage.class, this::handle)
 				.match(ShutdownMessage.class, this::handle)
 				.matchAny(object -> this.log().info(this.getClass().getName() + " received unknown message: " + object.toString()))
 				.build();
 	}
 	
-	private void handle(PrimesMessage message) {
-		this.primes.addAll(message.primes);
+	private void handle(PrimesMessage message) throws IOException {
+		
+		// Pass all primes on to the subscribers of the query, which want them regardless of other queries, but only
+		// once, even if speculative or re-executed subqueries report them again
+		List<ActorRef> subscribers = this.queryId2subscribers.get(message.queryId);
+		if (subscribers != null) {
+			PrimeStore streamedPrimes = this.queryId2streamedPrimes.get(message.queryId);
+			long[] unstreamedPrimes = Arrays.stream(message.primes).filter(streamedPrimes::add).toArray();
+			if (unstreamedPrimes.length > 0)
+				for (ActorRef subscriber : subscribers)
+					subscriber.tell(new PrimesMessage(message.queryId, unstreamedPrimes), this.getSelf());
+		}
+		
+		// Drop the primes that we already know, e.g., from subqueries that were re-executed after a resume
+		long[] newPrimes = Arrays.stream(message.primes).filter(prime -> !this.primes.contains(prime)).toArray();
+		if (newPrimes.length == 0)
+			return;
+
+		// Persist the primes before we acknowledge them in any way
+		if (this.primeLog != null)
+			this.primeLog.append(message.queryId, newPrimes);
+		
+		this.store(message.queryId, newPrimes);
+	}
+
+	/**
+	 * Add primes to the prime store and update the aggregates.
+	 *
+	 * @param queryId the ID of the query that discovered the primes
+	 * @param primes the primes to add
+	 */
+	private void store(int queryId, long[] primes) {
+		long numNewPrimes = 0;
+		for (long prime : primes) {
+			
+			// Update the aggregates only for primes that we have not seen before
+			if (this.primes.add(prime)) {
+				this.minPrime = Math.min(this.minPrime, prime);
+				this.maxPrime = Math.max(this.maxPrime, prime);
+				this.sumLow += prime;
+				if (Long.compareUnsigned(this.sumLow, prime) < 0)
+					this.sumHigh++;
+				numNewPrimes++;
+			}
+		}
+		this.queryId2numPrimes.merge(queryId, numNewPrimes, Long::sum);
+	}
+
+	private void handle(SyncMessage message) {
+		this.primeLog.sync();
+	}
+
+	private void handle(JournalMessage message) throws IOException {
+		if (this.primeLog == null)
+			return;
+
+		// The master forwards primes before it marks their subqueries as finished, so all primes covered by the journal are in the log already
+		this.primeLog.sync();
+		message.journal.write(this.primeLogDirectory);
+	}
+	
+	private void handle(QueryCompletedMessage message) {
+
+		// Count the primes of the whole range, including those that other queries or previous runs discovered first
+		QueryReport report = message.report.withNumPrimes(message.report.getStartNumber() > message.report.getEndNumber() ? 0
+				: this.primes.count(message.report.getStartNumber(), message.report.getEndNumber()));
+		this.log().info("Completed {}", report);
+		this.getContext().getSystem().eventStream().publish(report);
+		
+		this.queryId2streamedPrimes.remove(report.getQueryId());
+		List<ActorRef> subscribers = this.queryId2subscribers.remove(report.getQueryId());
+		if (subscribers != null)
+			for (ActorRef subscriber : subscribers)
+				subscriber.tell(report, this.getSelf());
+	}
+
+	private void handle(SubscribeMessage message) {
+		this.queryId2subscribers.computeIfAbsent(message.queryId, queryId -> new ArrayList<>()).add(this.getSender());
+		this.queryId2streamedPrimes.computeIfAbsent(message.queryId, queryId -> this.primeStoreFactory.create());
+		this.getContext().watch(this.getSender());
+	}
+
+	private void handle(QueryCancelledMessage message) {
+
+		// Count the primes that have been discovered in the range so far
+		if (message.report != null) {
+			QueryReport report = message.report.withNumPrimes(message.report.getStartNumber() > message.report.getEndNumber() ? 0
+					: this.primes.count(message.report.getStartNumber(), message.report.getEndNumber()));
+			this.log().info("Cancelled {}", report);
+			this.getContext().getSystem().eventStream().publish(report);
+		}
+
+		this.queryId2streamedPrimes.remove(message.queryId);
+		List<ActorRef> subscribers = this.queryId2subscribers.remove(message.queryId);
+		if (subscribers != null)
+			for (ActorRef subscriber : subscribers)
+				subscriber.tell(message, this.getSelf());
+	}
+
+	private void handle(Terminated message) {
+		
+		// Stop sending primes to subscribers that went away, e.g., because their client disconnected
+		this.queryId2subscribers.values().forEach(subscribers -> subscribers.remove(message.getActor()));
+		this.queryId2subscribers.values().removeIf(List::isEmpty);
+		this.queryId2streamedPrimes.keySet().retainAll(this.queryId2subscribers.keySet());
+	}
+
+	private void handle(CountQueryMessage message) {
+		long count = message.from > message.to ? 0 : this.primes.count(message.from, message.to);
+		this.getSender().tell(new CountMessage(count), this.getSelf());
+	}
+
+	private void handle(MaxQueryMessage message) {
+		this.getSender().tell(new MaxMessage(this.maxPrime), this.getSelf());
+	}
+
+	private void handle(ContainsQueryMessage message) {
+		this.getSender().tell(new ContainsMessage(this.primes.contains(message.number)), this.getSelf());
 	}
 	
 	private void handle(LogPrimesMessage message) {
-		String primeList = this.primes.stream()
-				.mapToLong(Long::longValue)
-				.sorted()
-				.mapToObj(prime -> String.valueOf(prime))
-				.collect(Collectors.joining(";"));
-		this.log().info(String.format("Primes: %s", primeList));		
+		
+		// Log only a single page and ask ourselves for the next one
+		long[] page = this.collectPage(message.from, LOG_PAGE_SIZE + 1);
+		int pageSize = Math.min(page.length, LOG_PAGE_SIZE);
+		StringJoiner primeList = new StringJoiner(";");
+		for (int i = 0; i < pageSize; i++)
+			primeList.add(String.valueOf(page[i]));
+		this.log().info(String.format("Primes: %s", primeList));
+		
+		if (page.length > LOG_PAGE_SIZE)
+			this.getSelf().tell(new LogPrimesMessage(page[LOG_PAGE_SIZE]), this.getSelf());
 	}
 
 	private void handle(LogMaxMessage message) {
-		Long prime = this.primes.stream()
-				.collect(Collectors.maxBy(Comparator.naturalOrder()))
-				.orElseGet(() -> { return 0L; });
-		this.log().info(String.format("Max prime: %d", prime));		
+		this.log().info(String.format("Max prime: %d", this.maxPrime));		
+	}
+
+	private void handle(LogStatisticsMessage message) {
+		BigInteger sum = new BigInteger(Long.toUnsignedString(this.sumHigh)).shiftLeft(Long.SIZE)
+				.add(new BigInteger(Long.toUnsignedString(this.sumLow)));
+		this.log().info(String.format("Primes: count %,d, min %d, max %d, sum %s; primes per query: %s",
+				this.primes.size(), this.primes.size() == 0 ? 0 : this.minPrime, this.maxPrime, sum, this.queryId2numPrimes));
+	}
+
+	private void handle(RangeQueryMessage message) {
+		int limit = Math.max(0, Math.min(message.limit, MAX_PAGE_SIZE));
+		long[] page = this.collectPage(message.from, limit + 1);
+		boolean hasMore = page.length > limit;
+		this.getSender().tell(new PrimesPageMessage(hasMore ? Arrays.copyOf(page, limit) : page, hasMore), this.getSelf());
+	}
+
+	/**
+	 * Collect the smallest primes starting at a given number.
+	 *
+	 * @param from the smallest number to collect (inclusive)
+	 * @param limit the maximum number of primes to collect
+	 * @return the primes in ascending order
+	 */
+	private long[] collectPage(final long from, final int limit) {
+		long[] page = new long[(int) Math.min(limit, this.primes.size())];
+		int[] pageSize = {0};
+		this.primes.forEach(from, prime -> {
+			page[pageSize[0]++] = prime;
+			return pageSize[0] < page.length;
+		});
+		return pageSize[0] == page.length ? page : Arrays.copyOf(page, pageSize[0]);
 	}
 
 	private void handle(ShutdownMessage message) {
-		// We could write all primes to disk here
+		// All primes are already in the prime log (if any), which is closed when this actor stops
 		
 		this.getSelf().tell(PoisonPill.getInstance(), this.getSelf());
 	}
@@ -0,0 +1,454 @@
+package de.hpi.akka_tutorial.remote.actors;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
+import de.hpi.akka_tutorial.util.LatencyHistogram;
+import scala.concurrent.duration.Duration;
+
+/**
+ * The load generator poses range queries to the {@link Master} of its actor system as an open-loop stream of Poisson
+ * arrivals, i.e., regardless of how many queries are still pending. The ranges lie between the points of a reference
+ * table of the prime-counting function pi(x), so that the load generator can verify the number of primes that the
+ * {@link Listener} reports for each completed query. It regularly logs the throughput, the latency percentiles, and the
+ * heap and GC statistics of its JVM, and it answers an {@link AwaitSummaryMessage} once all queries have completed.
+ * The master tells it the ID of each query with a {@link Master.QueryScheduledMessage}, so other clients may pose
+ * queries to the same master.
+ */
+public class LoadGenerator extends AbstractLoggingActor {
+
+	public static final String DEFAULT_NAME = "load-generator";
+
+	// The points x of the reference table and the number of primes up to each of them, pi(x), from published tables
+	private static final long[] TABLE_NUMBERS = {
+			0L, 10L, 20L, 50L, 100L, 200L, 500L, 1_000L, 2_000L, 5_000L, 10_000L, 20_000L, 50_000L, 100_000L, 200_000L,
+			500_000L, 1_000_000L, 2_000_000L, 5_000_000L, 10_000_000L, 20_000_000L, 50_000_000L, 100_000_000L,
+			200_000_000L, 500_000_000L, 1_000_000_000L, 2_000_000_000L, 5_000_000_000L, 10_000_000_000L
+	};
+	private static final long[] TABLE_PRIME_COUNTS = {
+			0L, 4L, 8L, 15L, 25L, 46L, 95L, 168L, 303L, 669L, 1_229L, 2_262L, 5_133L, 9_592L, 17_984L,
+			41_538L, 78_498L, 148_933L, 348_513L, 664_579L, 1_270_607L, 3_001_134L, 5_761_455L,
+			11_078_937L, 26_355_867L, 50_847_534L, 98_222_287L, 234_954_223L, 455_052_511L
+	};
+
+	// The time that the slaves get to subscribe and calibrate their workers before the first query arrives
+	private static final long STARTUP_DELAY_MILLIS = 5000;
+
+	// The time that the pending queries get to complete after the last arrival before they are considered lost
+	public static final long DRAIN_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+	/**
+	 * Describes the load that a {@link LoadGenerator} should generate.
+	 */
+	public static class Profile {
+
+		private final double arrivalRate;
+
+		private final long durationMillis, maxNumber, maxRangeSize, seed, reportIntervalMillis;
+
+		private final Path reportFile;
+
+		// The pairs of indices into the reference table whose ranges the queries may cover
+		private final List<int[]> tableRanges = new ArrayList<>();
+
+		/**
+		 * Construct a new {@link Profile} object.
+		 *
+		 * @param arrivalRate the mean number of queries per second
+		 * @param durationMillis how long queries should arrive
+		 * @param maxNumber the largest number that a query may cover
+		 * @param maxRangeSize the largest number of numbers that a query may cover
+		 * @param seed the seed of the random arrivals and ranges
+		 * @param reportIntervalMillis the interval of the progress reports
+		 * @param reportFile the CSV file to append the progress reports to or {@code null}
+		 * @throws IllegalArgumentException if no range of the reference table fits the bounds
+		 */
+		public Profile(final double arrivalRate, final long durationMillis, final long maxNumber, final long maxRangeSize,
+				final long seed, final long reportIntervalMillis, final Path reportFile) {
+			this.arrivalRate = arrivalRate;
+			this.durationMillis = durationMillis;
+			this.maxNumber = maxNumber;
+			this.maxRangeSize = maxRangeSize;
+			this.seed = seed;
+			this.reportIntervalMillis = reportIntervalMillis;
+			this.reportFile = reportFile;
+
+			for (int end = 1; end < TABLE_NUMBERS.length && TABLE_NUMBERS[end] <= maxNumber; end++)
+				for (int start = 0; start < end; start++)
+					if (TABLE_NUMBERS[end] - TABLE_NUMBERS[start] <= maxRangeSize)
+						this.tableRanges.add(new int[] {start, end});
+			if (this.tableRanges.isEmpty())
+				throw new IllegalArgumentException(String.format("No reference range is at most %,d numbers large and ends at or below %,d.",
+						maxRangeSize, maxNumber));
+		}
+
+		public long getDurationMillis() {
+			return this.durationMillis;
+		}
+	}
+
+	/**
+	 * Create the {@link Props} necessary to instantiate new {@link LoadGenerator} actors.
+	 *
+	 * @param master the master to pose the queries to
+	 * @param profile the load to generate
+	 * @return the {@link Props}
+	 */
+	public static Props props(final ActorRef master, final Profile profile) {
+		return Props.create(LoadGenerator.class, () -> new LoadGenerator(master, profile));
+	}
+
+	/**
+	 * Asks the {@link LoadGenerator} to answer with a {@link SummaryMessage} once all queries have completed.
+	 */
+	public static class AwaitSummaryMessage {
+	}
+
+	/**
+	 * Summarizes the queries of a {@link LoadGenerator}.
+	 */
+	public static class SummaryMessage {
+
+		private final long numSubmitted, numCompleted, numCancelled, numMismatches, numNumbers;
+
+		private final double seconds;
+
+		private final LatencyHistogram latencies;
+
+		private SummaryMessage(final long numSubmitted, final long numCompleted, final long numCancelled, final long numMismatches,
+				final long numNumbers, final double seconds, final LatencyHistogram latencies) {
+			this.numSubmitted = numSubmitted;
+			this.numCompleted = numCompleted;
+			this.numCancelled = numCancelled;
+			this.numMismatches = numMismatches;
+			this.numNumbers = numNumbers;
+			this.seconds = seconds;
+			this.latencies = latencies;
+		}
+
+		/**
+		 * @return whether every query has completed with the correct number of primes
+		 */
+		public boolean isSuccessful() {
+			return this.numCompleted == this.numSubmitted && this.numMismatches == 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%,d of %,d queries completed in %,.1f s (%,.2f queries/s, %,.0f numbers/s), %,d cancelled, %,d wrong prime counts; latency %s",
+					this.numCompleted, this.numSubmitted, this.seconds, this.numCompleted / this.seconds, this.numNumbers / this.seconds,
+					this.numCancelled, this.numMismatches, this.latencies);
+		}
+	}
+
+	/**
+	 * Asks the {@link LoadGenerator} to send all queries whose arrival time has come.
+	 */
+	private static class ArrivalMessage {
+	}
+
+	/**
+	 * Asks the {@link LoadGenerator} to report its progress.
+	 */
+	private static class ReportMessage {
+	}
+
+	/**
+	 * Asks the {@link LoadGenerator} to give up on the pending queries.
+	 */
+	private static class DrainTimeoutMessage {
+	}
+
+	/**
+	 * A query that the load generator has sent.
+	 */
+	private static class Query {
+
+		private final long startNumber, endNumber, expectedNumPrimes, submitNanos;
+
+		private Query(final long startNumber, final long endNumber, final long expectedNumPrimes, final long submitNanos) {
+			this.startNumber = startNumber;
+			this.endNumber = endNumber;
+			this.expectedNumPrimes = expectedNumPrimes;
+			this.submitNanos = submitNanos;
+		}
+	}
+
+	// The master to pose the queries to
+	private final ActorRef master;
+
+	private final Profile profile;
+
+	private final Random random;
+
+	// The queries that the master has not assigned an ID to yet in the order of their submission
+	private final Deque<Query> unscheduledQueries = new ArrayDeque<>();
+
+	// The queries that have not completed yet by their IDs
+	private final Map<Integer, Query> pendingQueries = new HashMap<>();
+
+	private long numSubmitted = 0;
+
+	private long startNanos, endOfArrivalsNanos, nextArrivalNanos;
+
+	private boolean isArriving = true;
+
+	private long numCompleted = 0, numCancelled = 0, numMismatches = 0, numNumbers = 0;
+
+	// The end-to-end latencies of all queries and of the queries since the last report
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	private LatencyHistogram reportLatencies = new LatencyHistogram();
+
+	private long lastReportNanos, lastReportNumCompleted = 0, lastReportNumNumbers = 0, lastGcCount = 0, lastGcMillis = 0;
+
+	// The actor that awaits the summary, if any
+	private ActorRef summaryAsker;
+
+	private SummaryMessage summary;
+
+	// A scheduling item to regularly report the progress
+	private Cancellable reportSchedule;
+
+	/**
+	 * Construct a new {@link LoadGenerator} object.
+	 *
+	 * @param master the master to pose the queries to
+	 * @param profile the load to generate
+	 */
+	public LoadGenerator(final ActorRef master, final Profile profile) {
+		this.master = master;
+		this.profile = profile;
+		this.random = new Random(profile.seed);
+
+	}
+
+	@Override
+	public void preStart() throws Exception {
+		super.preStart();
+
+		// Follow the completed queries
+		this.getContext().getSystem().eventStream().subscribe(this.getSelf(), QueryReport.class);
+
+		// Schedule the first arrival and the progress reports
+		this.startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STARTUP_DELAY_MILLIS);
+		this.endOfArrivalsNanos = this.startNanos + TimeUnit.MILLISECONDS.toNanos(this.profile.durationMillis);
+		this.nextArrivalNanos = this.startNanos;
+		this.lastReportNanos = this.startNanos;
+		this.scheduleArrival();
+		this.reportSchedule = this.getContext().getSystem().scheduler().schedule(
+				Duration.create(STARTUP_DELAY_MILLIS + this.profile.reportIntervalMillis, TimeUnit.MILLISECONDS),
+				Duration.create(this.profile.reportIntervalMillis, TimeUnit.MILLISECONDS),
+				this.getSelf(),
+				new ReportMessage(),
+				this.getContext().dispatcher(),
+				this.getSelf()
+		);
+
+		if (this.profile.reportFile != null)
+			this.appendToReportFile("seconds,submitted,completed,pending,queries_per_second,numbers_per_second,"
+					+ "p50_millis,p99_millis,max_millis,heap_used_mb,heap_committed_mb,gc_count,gc_millis,wrong_prime_counts");
+		this.log().info("Generating {} queries per second for {} ms over {} reference ranges.", this.profile.arrivalRate,
+				this.profile.durationMillis, this.profile.tableRanges.size());
+	}
+
+	@Override
+	public void postStop() throws Exception {
+		super.postStop();
+		if (this.reportSchedule != null)
+			this.reportSchedule.cancel();
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(ArrivalMessage.class, this::handle)
+				.match(Master.QueryScheduledMessage.class, this::handle)
+				.match(QueryReport.class, this::handle)
+				.match(ReportMessage.class, this::handle)
+				.match(DrainTimeoutMessage.class, this::handle)
+				.match(AwaitSummaryMessage.class, this::handle)
+				.matchAny(object -> this.log().info(this.getClass().getName() + " received unknown message: " + object.toString()))
+				.build();
+	}
+
+	private void handle(ArrivalMessage message) {
+
+		// Send all queries whose arrival time has come, because the scheduler may fire late
+		final long now = System.nanoTime();
+		while (this.nextArrivalNanos <= now && this.nextArrivalNanos < this.endOfArrivalsNanos) {
+			this.submit();
+
+			// The gaps between Poisson arrivals are exponentially distributed
+			final double gapSeconds = -Math.log(1 - this.random.nextDouble()) / this.profile.arrivalRate;
+			this.nextArrivalNanos += (long) (gapSeconds * 1e9);
+		}
+
+		if (this.nextArrivalNanos < this.endOfArrivalsNanos) {
+			this.scheduleArrival();
+		} else {
+			this.isArriving = false;
+			this.log().info("Sent the last of {} queries.", this.numSubmitted);
+			this.getContext().getSystem().scheduler().scheduleOnce(
+					Duration.create(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), this.getSelf(), new DrainTimeoutMessage(),
+					this.getContext().dispatcher(), this.getSelf());
+			this.checkCompletion();
+		}
+	}
+
+	private void handle(Master.QueryScheduledMessage message) {
+
+		// The master schedules the queries in the order of their arrival
+		this.pendingQueries.put(message.getQueryId(), this.unscheduledQueries.poll());
+	}
+
+	private void handle(QueryReport report) {
+
+		// Ignore the stragglers of a load that has been summarized already
+		if (this.summary != null)
+			return;
+
+		// Ignore the queries of other clients
+		final Query query = this.pendingQueries.remove(report.getQueryId());
+		if (query == null)
+			return;
+
+		// A cancelled query did not check its whole range, so neither its latency nor its primes are comparable
+		if (report.isCancelled()) {
+			this.numCancelled++;
+			this.log().warning("Query {} was cancelled.", report.getQueryId());
+			this.checkCompletion();
+			return;
+		}
+
+		final long nanos = System.nanoTime() - query.submitNanos;
+		this.latencies.record(nanos);
+		this.reportLatencies.record(nanos);
+		this.numCompleted++;
+		this.numNumbers += query.endNumber - query.startNumber + 1;
+
+		if (report.getStartNumber() != query.startNumber || report.getEndNumber() != query.endNumber) {
+			this.numMismatches++;
+			this.log().error(String.format("Query %d covered %d..%d instead of %d..%d.", report.getQueryId(), report.getStartNumber(),
+					report.getEndNumber(), query.startNumber, query.endNumber));
+		} else if (report.getNumPrimes() != query.expectedNumPrimes) {
+			this.numMismatches++;
+			this.log().error(String.format("Query %d found %,d primes in %d..%d instead of %,d.", report.getQueryId(), report.getNumPrimes(),
+					query.startNumber, query.endNumber, query.expectedNumPrimes));
+		}
+
+		this.checkCompletion();
+	}
+
+	private void handle(ReportMessage message) {
+		final long now = System.nanoTime();
+		final double seconds = (now - this.lastReportNanos) / 1e9;
+		final double queriesPerSecond = (this.numCompleted - this.lastReportNumCompleted) / seconds;
+		final double numbersPerSecond = (this.numNumbers - this.lastReportNumNumbers) / seconds;
+
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		long gcCount = 0, gcMillis = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0, collector.getCollectionCount());
+			gcMillis += Math.max(0, collector.getCollectionTime());
+		}
+
+		this.log().info(String.format("Load: %,d submitted, %,d completed, %,d pending; %.2f queries/s, %,.0f numbers/s; latency %s; heap %,d/%,d MB; %d GCs in %d ms; %d wrong prime counts",
+				this.numSubmitted, this.numCompleted, this.countPendingQueries(), queriesPerSecond, numbersPerSecond, this.reportLatencies,
+				heap.getUsed() >> 20, heap.getCommitted() >> 20, gcCount - this.lastGcCount, gcMillis - this.lastGcMillis, this.numMismatches));
+		if (this.profile.reportFile != null)
+			this.appendToReportFile(String.format("%.1f,%d,%d,%d,%.3f,%.0f,%.3f,%.3f,%.3f,%d,%d,%d,%d,%d",
+					(now - this.startNanos) / 1e9, this.numSubmitted, this.numCompleted, this.countPendingQueries(),
+					queriesPerSecond, numbersPerSecond, this.reportLatencies.percentile(0.5) / 1e6,
+					this.reportLatencies.percentile(0.99) / 1e6, this.reportLatencies.max() / 1e6, heap.getUsed() >> 20,
+					heap.getCommitted() >> 20, gcCount - this.lastGcCount, gcMillis - this.lastGcMillis, this.numMismatches));
+
+		this.lastReportNanos = now;
+		this.lastReportNumCompleted = this.numCompleted;
+		this.lastReportNumNumbers = this.numNumbers;
+		this.lastGcCount = gcCount;
+		this.lastGcMillis = gcMillis;
+		this.reportLatencies = new LatencyHistogram();
+	}
+
+	private void handle(DrainTimeoutMessage message) {
+		if (this.summary != null)
+			return;
+		this.log().error("Giving up on {} pending queries: {}", this.countPendingQueries(), this.pendingQueries.keySet());
+		this.finish();
+	}
+
+	private void handle(AwaitSummaryMessage message) {
+		this.summaryAsker = this.getSender();
+		if (this.summary != null)
+			this.summaryAsker.tell(this.summary, this.getSelf());
+	}
+
+	/**
+	 * Send a random reference range to the master.
+	 */
+	private void submit() {
+		final int[] tableRange = this.profile.tableRanges.get(this.random.nextInt(this.profile.tableRanges.size()));
+		final long startNumber = TABLE_NUMBERS[tableRange[0]] + 1, endNumber = TABLE_NUMBERS[tableRange[1]];
+		final long expectedNumPrimes = TABLE_PRIME_COUNTS[tableRange[1]] - TABLE_PRIME_COUNTS[tableRange[0]];
+		this.unscheduledQueries.add(new Query(startNumber, endNumber, expectedNumPrimes, System.nanoTime()));
+		this.numSubmitted++;
+		this.master.tell(new Master.RangeMessage(startNumber, endNumber), this.getSelf());
+	}
+
+	private void scheduleArrival() {
+		final long delayNanos = Math.max(0, this.nextArrivalNanos - System.nanoTime());
+		this.getContext().getSystem().scheduler().scheduleOnce(
+				Duration.create(delayNanos, TimeUnit.NANOSECONDS), this.getSelf(), new ArrivalMessage(),
+				this.getContext().dispatcher(), this.getSelf());
+	}
+
+	/**
+	 * Summarize the load once all queries have arrived and completed.
+	 */
+	private void checkCompletion() {
+		if (!this.isArriving && this.countPendingQueries() == 0 && this.summary == null)
+			this.finish();
+	}
+
+	private int countPendingQueries() {
+		return this.unscheduledQueries.size() + this.pendingQueries.size();
+	}
+
+	private void finish() {
+		this.summary = new SummaryMessage(this.numSubmitted, this.numCompleted, this.numCancelled, this.numMismatches, this.numNumbers,
+				(System.nanoTime() - this.startNanos) / 1e9, this.latencies);
+		this.log().info("Summary: {}", this.summary);
+		if (this.summaryAsker != null)
+			this.summaryAsker.tell(this.summary, this.getSelf());
+	}
+
+	private void appendToReportFile(final String line) {
+		try {
+			Files.write(this.profile.reportFile, Collections.singletonList(line), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			this.log().warning("Could not write the report file {}: {}", this.profile.reportFile, e);
+		}
+	}
+}
@@ -3,30 +3,45 @@ package de.hpi.akka_tutorial.remote.actors;
 import static akka.actor.SupervisorStrategy.escalate;
 import static akka.actor.SupervisorStrategy.stop;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
-import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Address;
+import akka.actor.Cancellable;
 import akka.actor.Deploy;
 import akka.actor.OneForOneStrategy;
 import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.actor.Status;
 import akka.actor.SupervisorStrategy;
 import akka.actor.Terminated;
 import akka.japi.pf.DeciderBuilder;
 import akka.remote.RemoteScope;
+import de.hpi.akka_tutorial.remote.actors.engines.CostModel;
+import de.hpi.akka_tutorial.remote.actors.engines.PrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryCheckpoint;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryJournal;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryMonitor;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
 import de.hpi.akka_tutorial.remote.actors.scheduling.SchedulingStrategy;
+import de.hpi.akka_tutorial.remote.actors.scheduling.WorkerMetrics;
+import de.hpi.akka_tutorial.remote.instrumentation.InstrumentedActor;
+import de.hpi.akka_tutorial.remote.instrumentation.InstrumentedMailbox;
 import de.hpi.akka_tutorial.remote.messages.ShutdownMessage;
 import scala.concurrent.duration.Duration;
 
 /**
  * The master receives ranges of numbers that it should find all primes in. This is done by delegation to slaves.
  */
-public class Master extends AbstractLoggingActor {
+public class Master extends InstrumentedActor {
 
 	public static final String DEFAULT_NAME = "master";
 
@@ -35,8 +50,10 @@ public class Master extends AbstractLoggingActor {
 	 *
 	 * @return the {@link Props}
 	 */
-	public static Props props(final ActorRef listener, SchedulingStrategy.Factory schedulingStrategyFactory, final int numLocalWorkers) {
-		return Props.create(Master.class, () -> new Master(listener, schedulingStrategyFactory, numLocalWorkers));
+	public static Props props(final ActorRef listener, SchedulingStrategy.Factory schedulingStrategyFactory, PrimeEngine.Factory primeEngineFactory, final int numLocalWorkers,
+			final boolean isJournaling, final QueryJournal resumeJournal, final Path latencyFile) {
+		return Props.create(Master.class, () -> new Master(listener, schedulingStrategyFactory, primeEngineFactory, numLocalWorkers, isJournaling, resumeJournal,
+				latencyFile)).withMailbox(InstrumentedMailbox.NAME);
 	}
 
 	/**
@@ -46,17 +63,50 @@ public class Master extends AbstractLoggingActor {
 
 		private static final long serialVersionUID = 1538940836039448197L;
 
+		// The default weight of a query
+		public static final int DEFAULT_WEIGHT = 1;
+
 		private long startNumber, endNumber;
 
+		private int weight;
+
+		private boolean isStreaming;
+
 		/**
-		 * Construct a new {@link RangeMessage} object.
+		 * Construct a new {@link RangeMessage} object with the default weight.
 		 * 
 		 * @param startNumber first number in the range to be checked as prime (inclusive)
 		 * @param endNumber last number in the range to be checked as prime (inclusive)
 		 */
 		public RangeMessage(final long startNumber, final long endNumber) {
+			this(startNumber, endNumber, DEFAULT_WEIGHT);
+		}
+
+		/**
+		 * Construct a new {@link RangeMessage} object.
+		 *
+		 * @param startNumber first number in the range to be checked as prime (inclusive)
+		 * @param endNumber last number in the range to be checked as prime (inclusive)
+		 * @param weight the share of the workers that the query should get relative to the other pending queries
+		 */
+		public RangeMessage(final long startNumber, final long endNumber, final int weight) {
+			this(startNumber, endNumber, weight, false);
+		}
+
+		/**
+		 * Construct a new {@link RangeMessage} object.
+		 *
+		 * @param startNumber first number in the range to be checked as prime (inclusive)
+		 * @param endNumber last number in the range to be checked as prime (inclusive)
+		 * @param weight the share of the workers that the query should get relative to the other pending queries
+		 * @param isStreaming whether the {@link Listener} should send the sender the primes of the query as they arrive
+		 *                    (see {@link Listener.SubscribeMessage})
+		 */
+		public RangeMessage(final long startNumber, final long endNumber, final int weight, final boolean isStreaming) {
 			this.startNumber = startNumber;
 			this.endNumber = endNumber;
+			this.weight = weight;
+			this.isStreaming = isStreaming;
 		}
 
 		/**
@@ -66,9 +116,56 @@ public class Master extends AbstractLoggingActor {
 		private RangeMessage() {
 		}
 
+		public long getStartNumber() {
+			return this.startNumber;
+		}
+
+		public long getEndNumber() {
+			return this.endNumber;
+		}
+
+		public int getWeight() {
+			return this.weight;
+		}
+
+		public boolean isStreaming() {
+			return this.isStreaming;
+		}
+
 		@Override
 		public String toString() {
-			return String.format("%s[%,d..%,d]", this.getClass().getSimpleName(), this.startNumber, this.endNumber);
+			return String.format("%s[%,d..%,d, weight %d]", this.getClass().getSimpleName(), this.startNumber, this.endNumber, this.weight);
+		}
+	}
+
+	/**
+	 * Tells the sender of a {@link RangeMessage} which ID the {@link Master} assigned to its query. The ID identifies
+	 * the query in all later messages and reports, e.g., in {@link QueryReport}s.
+	 */
+	public static class QueryScheduledMessage implements Serializable {
+
+		private static final long serialVersionUID = -5019334585360417243L;
+
+		private int queryId;
+
+		/**
+		 * Construct a new {@link QueryScheduledMessage} object.
+		 *
+		 * @param queryId the ID of the scheduled query
+		 */
+		public QueryScheduledMessage(final int queryId) {
+			this.queryId = queryId;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private QueryScheduledMessage() {
+		}
+
+		public int getQueryId() {
+			return this.queryId;
 		}
 	}
 
@@ -81,7 +178,7 @@ public class Master extends AbstractLoggingActor {
 
 		private int requestId;
 
-		private List<Long> primes;
+		private long[] primes;
 
 		private boolean isComplete;
 
@@ -89,10 +186,10 @@ public class Master extends AbstractLoggingActor {
 		 * Create a new instance.
 		 *
 		 * @param requestId  the ID of the query that is being served
-		 * @param primes     some discovered primes
+		 * @param primes     some discovered primes in ascending order
 		 * @param isComplete whether all primes of the current subquery have been discovered
 		 */
-		public PrimesMessage(final int requestId, final List<Long> primes, final boolean isComplete) {
+		public PrimesMessage(final int requestId, final long[] primes, final boolean isComplete) {
 			this.requestId = requestId;
 			this.primes = primes;
 			this.isComplete = isComplete;
@@ -105,6 +202,18 @@ public class Master extends AbstractLoggingActor {
 		private PrimesMessage() {
 		}
 
+		public int getRequestId() {
+			return this.requestId;
+		}
+
+		public long[] getPrimes() {
+			return this.primes;
+		}
+
+		public boolean isComplete() {
+			return this.isComplete;
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -113,12 +222,12 @@ public class Master extends AbstractLoggingActor {
 			final PrimesMessage that = (PrimesMessage) o;
 			return this.requestId == that.requestId &&
 					this.isComplete == that.isComplete &&
-					Objects.equals(this.primes, that.primes);
+					Arrays.equals(this.primes, that.primes);
 		}
 
 		@Override
 		public int hashCode() {
-			return Objects.hash(this.requestId, this.primes, this.isComplete);
+			return 31 * (31 * this.requestId + Arrays.hashCode(this.primes)) + Boolean.hashCode(this.isComplete);
 		}
 	}
 
@@ -131,8 +240,17 @@ public class Master extends AbstractLoggingActor {
 
 		private Address remoteAddress;
 
-		public RemoteSystemMessage(final Address remoteAddress) {
+		private int numWorkers;
+
+		/**
+		 * Construct a new {@link RemoteSystemMessage} object.
+		 *
+		 * @param remoteAddress the address of the new remote actor system
+		 * @param numWorkers the number of workers to deploy to the remote actor system
+		 */
+		public RemoteSystemMessage(final Address remoteAddress, final int numWorkers) {
 			this.remoteAddress = remoteAddress;
+			this.numWorkers = numWorkers;
 		}
 		
 		/**
@@ -143,6 +261,191 @@ public class Master extends AbstractLoggingActor {
 		}
 	}
 
+	/**
+	 * Tells the {@link Master} the calibrated {@link CostModel} of a {@link Worker}.
+	 */
+	public static class CalibrationMessage implements Serializable {
+
+		private static final long serialVersionUID = -3947795062519585093L;
+
+		private CostModel costModel;
+
+		/**
+		 * Construct a new {@link CalibrationMessage} object.
+		 *
+		 * @param costModel the cost model of the sending worker
+		 */
+		public CalibrationMessage(final CostModel costModel) {
+			this.costModel = costModel;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private CalibrationMessage() {
+		}
+	}
+
+	/**
+	 * Asks the {@link Master} to cancel a pending query, i.e., to stop all of its subqueries. The master answers with
+	 * a {@link CancellationMessage}.
+	 */
+	public static class CancelQueryMessage implements Serializable {
+
+		private static final long serialVersionUID = 3318126305712396402L;
+
+		private int queryId;
+
+		/**
+		 * Construct a new {@link CancelQueryMessage} object.
+		 *
+		 * @param queryId the ID of the query to cancel
+		 */
+		public CancelQueryMessage(final int queryId) {
+			this.queryId = queryId;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private CancelQueryMessage() {
+		}
+	}
+
+	/**
+	 * The answer of the {@link Master} to a {@link CancelQueryMessage}.
+	 */
+	public static class CancellationMessage implements Serializable {
+
+		private static final long serialVersionUID = -1180426633713270398L;
+
+		private int queryId;
+
+		private boolean isKnown, isCancelled;
+
+		/**
+		 * Construct a new {@link CancellationMessage} object.
+		 *
+		 * @param queryId the ID of the query to cancel
+		 * @param isKnown whether the master has ever assigned the ID to a query
+		 * @param isCancelled whether the query was pending and has been cancelled
+		 */
+		public CancellationMessage(final int queryId, final boolean isKnown, final boolean isCancelled) {
+			this.queryId = queryId;
+			this.isKnown = isKnown;
+			this.isCancelled = isCancelled;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private CancellationMessage() {
+		}
+
+		public int getQueryId() {
+			return this.queryId;
+		}
+
+		public boolean isKnown() {
+			return this.isKnown;
+		}
+
+		public boolean isCancelled() {
+			return this.isCancelled;
+		}
+	}
+
+	/**
+	 * Tells the {@link Master} that a {@link Worker} stopped a subquery upon a {@link Worker.CancelMessage}.
+	 */
+	public static class CancelledMessage implements Serializable {
+
+		private static final long serialVersionUID = -1705873641268271329L;
+
+		private Worker.ValidationMessage subquery;
+
+		private long lastCheckedNumber;
+
+		/**
+		 * Construct a new {@link CancelledMessage} object.
+		 *
+		 * @param subquery the stopped subquery
+		 * @param lastCheckedNumber the last number of the subquery that was checked and whose primes were sent; the
+		 *                          number before the subquery if it was not started
+		 */
+		public CancelledMessage(final Worker.ValidationMessage subquery, final long lastCheckedNumber) {
+			this.subquery = subquery;
+			this.lastCheckedNumber = lastCheckedNumber;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private CancelledMessage() {
+		}
+
+		public Worker.ValidationMessage getSubquery() {
+			return this.subquery;
+		}
+
+		public long getLastCheckedNumber() {
+			return this.lastCheckedNumber;
+		}
+	}
+
+	/**
+	 * Asks the {@link Master} to log the metrics of its scheduling strategy.
+	 */
+	public static class LogMetricsMessage implements Serializable {
+
+		private static final long serialVersionUID = 7153302958716421049L;
+	}
+
+	/**
+	 * Asks the {@link Master} to log the latency percentiles of its completed queries and chunks.
+	 */
+	public static class LogLatenciesMessage implements Serializable {
+
+		private static final long serialVersionUID = -5208946316043372154L;
+	}
+
+	/**
+	 * Asks the {@link Master} to write its latency histograms to the latency file.
+	 */
+	private static class WriteLatenciesMessage implements Serializable {
+
+		private static final long serialVersionUID = 1786457325963245316L;
+	}
+
+	/**
+	 * Asks the {@link Master} to take a checkpoint of its pending queries.
+	 */
+	private static class CheckpointMessage implements Serializable {
+
+		private static final long serialVersionUID = -8386542286129508374L;
+	}
+
+	/**
+	 * Asks the {@link Master} to let its scheduling strategy look for straggling subqueries.
+	 */
+	private static class StragglerCheckMessage implements Serializable {
+
+		private static final long serialVersionUID = 2470187920343263531L;
+	}
+
+	// The interval in which the pending queries are checkpointed
+	private static final long CHECKPOINT_INTERVAL_MILLIS = 5000;
+
+	// The interval in which the running subqueries are checked for stragglers
+	private static final long STRAGGLER_CHECK_INTERVAL_MILLIS = 250;
+
+	// The interval in which the latency histograms are written to the latency file
+	private static final long LATENCY_FILE_INTERVAL_MILLIS = 1000;
+
 	// The supervisor strategy for the worker actors created by this master actor
 	private static SupervisorStrategy strategy =
 			new OneForOneStrategy(0, Duration.create(1, TimeUnit.SECONDS), DeciderBuilder
@@ -156,32 +459,69 @@ public class Master extends AbstractLoggingActor {
 	// The scheduling strategy that splits range messages into smaller tasks and distributes these to the workers
 	private final SchedulingStrategy schedulingStrategy;
 
+	// Follows the pending queries through their subqueries and measures the latencies of queries and subqueries
+	private final QueryMonitor queryMonitor = new QueryMonitor();
+
+	// The file to regularly write the latency histograms to in the Prometheus text format, if any
+	private final Path latencyFile;
+
+	// The prime engine that all workers of this master should use
+	private final PrimeEngine.Factory primeEngineFactory;
+
 	// A helper variable to assign unique IDs to each range query
 	private int nextQueryId = 0;
 
 	// A flag indicating whether this actor is still accepting new range messages
 	private boolean isAcceptingRequests = true;
 
+	// A flag indicating whether the listener should journal the progress of the pending queries
+	private final boolean isJournaling;
+
+	// The journal of a previous run whose queries should be resumed, if any
+	private final QueryJournal resumeJournal;
+
+	// A scheduling item to regularly checkpoint the pending queries
+	private Cancellable checkpointSchedule;
+
+	// A scheduling item to regularly check for straggling subqueries
+	private Cancellable stragglerCheckSchedule;
+
+	// A scheduling item to regularly write the latency file
+	private Cancellable latencyFileSchedule;
+
 	/**
 	 * Construct a new {@link Master} object.
 	 * 
 	 * @param listener a reference to an {@link Listener} actor to send results to
 	 * @param schedulingStrategyFactory defines which {@link SchedulingStrategy} to use
+	 * @param primeEngineFactory defines which {@link PrimeEngine} the workers should use
 	 * @param numLocalWorkers number of workers that this master should start locally
+	 * @param isJournaling whether the listener should regularly journal the progress of the pending queries
+	 * @param resumeJournal the journal of a previous run whose queries should be resumed or {@code null}
+	 * @param latencyFile the file to regularly write the latency histograms to or {@code null}
 	 */
-	public Master(final ActorRef listener, SchedulingStrategy.Factory schedulingStrategyFactory, int numLocalWorkers) {
+	public Master(final ActorRef listener, SchedulingStrategy.Factory schedulingStrategyFactory, PrimeEngine.Factory primeEngineFactory, int numLocalWorkers,
+			boolean isJournaling, QueryJournal resumeJournal, Path latencyFile) {
 		
 		// Save the reference to the Listener actor
 		this.listener = listener;
+		this.latencyFile = latencyFile;
+
+		// Save the journaling configuration
+		this.isJournaling = isJournaling;
+		this.resumeJournal = resumeJournal;
+
+		// Save the prime engine for local and remote workers
+		this.primeEngineFactory = primeEngineFactory;
 
 		// Create a scheduling strategy.
-		this.schedulingStrategy = schedulingStrategyFactory.create(this.getSelf());
+		this.schedulingStrategy = schedulingStrategyFactory.create(this.getSelf(), this.queryMonitor);
 		
 		// Start the specified number of local workers
 		for (int i = 0; i < numLocalWorkers; i++) {
 			
 			// Create a new worker
-			ActorRef worker = this.getContext().actorOf(Worker.props());
+			ActorRef worker = this.getContext().actorOf(Worker.props(this.primeEngineFactory));
 			this.schedulingStrategy.addWorker(worker);
 
 			// Add the worker to the watch list and our router
@@ -195,12 +535,67 @@ public class Master extends AbstractLoggingActor {
 		
 		// Register at this actor system's reaper
 		Reaper.watchWithDefaultReaper(this);
+
+		// Resume the unfinished queries of a previous run
+		if (this.resumeJournal != null) {
+			this.nextQueryId = this.resumeJournal.getNextQueryId();
+			for (QueryCheckpoint checkpoint : this.resumeJournal.getQueries()) {
+				this.log().info("Resuming {} with {} unfinished numbers.", checkpoint, checkpoint.countUnfinishedNumbers());
+				this.queryMonitor.resumed(checkpoint);
+				this.schedulingStrategy.resume(checkpoint);
+			}
+			this.reportCompletedQueries();
+		}
+
+		// Regularly checkpoint the pending queries
+		if (this.isJournaling) {
+			this.checkpointSchedule = this.getContext().getSystem().scheduler().schedule(
+					Duration.create(CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+					Duration.create(CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+					this.getSelf(),
+					new CheckpointMessage(),
+					this.getContext().dispatcher(),
+					this.getSelf()
+			);
+		}
+
+		// Regularly check for straggling subqueries
+		this.stragglerCheckSchedule = this.getContext().getSystem().scheduler().schedule(
+				Duration.create(STRAGGLER_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+				Duration.create(STRAGGLER_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+				this.getSelf(),
+				new StragglerCheckMessage(),
+				this.getContext().dispatcher(),
+				this.getSelf()
+		);
+
+		// Regularly expose the latency histograms for scraping
+		if (this.latencyFile != null) {
+			this.latencyFileSchedule = this.getContext().getSystem().scheduler().schedule(
+					Duration.create(LATENCY_FILE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+					Duration.create(LATENCY_FILE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+					this.getSelf(),
+					new WriteLatenciesMessage(),
+					this.getContext().dispatcher(),
+					this.getSelf()
+			);
+		}
 	}
 
 	@Override
 	public void postStop() throws Exception {
 		super.postStop();
 		
+		// Stop checkpointing, checking for stragglers, and writing the latency file; the latter gets its final state
+		if (this.checkpointSchedule != null)
+			this.checkpointSchedule.cancel();
+		if (this.stragglerCheckSchedule != null)
+			this.stragglerCheckSchedule.cancel();
+		if (this.latencyFileSchedule != null) {
+			this.latencyFileSchedule.cancel();
+			this.handle(new WriteLatenciesMessage());
+		}
+		
 		// If the master has stopped, it can also stop the listener
 		this.listener.tell(PoisonPill.getInstance(), this.getSelf());
 		
@@ -220,6 +615,14 @@ public class Master extends AbstractLoggingActor {
 				.match(RangeMessage.class, this::handle)
 				.match(PrimesMessage.class, this::handle)
 				.match(ShutdownMessage.class, this::handle)
+				.match(CheckpointMessage.class, this::handle)
+				.match(StragglerCheckMessage.class, message -> this.schedulingStrategy.detectStragglers())
+				.match(LogMetricsMessage.class, this::handle)
+				.match(LogLatenciesMessage.class, this::handle)
+				.match(WriteLatenciesMessage.class, this::handle)
+				.match(CalibrationMessage.class, this::handle)
+				.match(CancelQueryMessage.class, this::handle)
+				.match(CancelledMessage.class, this::handle)
 				.match(Terminated.class, this::handle)
 				.matchAny(object -> this.log().info(this.getClass().getName() + " received unknown message: " + object.toString()))
 				.build();
@@ -227,16 +630,18 @@ public class Master extends AbstractLoggingActor {
 
 	private void handle(RemoteSystemMessage message) {
 
-		// Create a new worker with the given URI
-		ActorRef worker = this.getContext().actorOf(Worker.props().withDeploy(new Deploy(new RemoteScope(message.remoteAddress))));
-		
-		// Add worker to the scheduler
-		this.schedulingStrategy.addWorker(worker);
+		// Create a pool of new workers with the given URI
+		for (int i = 0; i < message.numWorkers; i++) {
+			ActorRef worker = this.getContext().actorOf(Worker.props(this.primeEngineFactory).withDeploy(new Deploy(new RemoteScope(message.remoteAddress))));
+
+			// Add worker to the scheduler
+			this.schedulingStrategy.addWorker(worker);
 
-		// Add the worker to the watch list
-		this.getContext().watch(worker);
+			// Add the worker to the watch list
+			this.getContext().watch(worker);
 
-		this.log().info("New worker: " + worker);
+			this.log().info("New worker: " + worker);
+		}
 	}
 
 	private void handle(RangeMessage message) {
@@ -244,12 +649,23 @@ public class Master extends AbstractLoggingActor {
 		// Check if we are still accepting requests
 		if (!this.isAcceptingRequests) {
 			this.log().warning("Discarding request {}.", message);
+			this.getSender().tell(new Status.Failure(new IllegalStateException("The master is shutting down.")), this.getSelf());
 			return;
 		}
 
 		// Schedule the request
-		this.schedulingStrategy.schedule(this.nextQueryId, message.startNumber, message.endNumber);
+		this.log().info("Scheduling query {} for {}.", this.nextQueryId, message);
+
+		// Subscribe a streaming client before the first primes of its query, which we forward to the listener only later
+		if (message.isStreaming)
+			this.listener.tell(new Listener.SubscribeMessage(this.nextQueryId), this.getSender());
+		this.queryMonitor.submitted(this.nextQueryId, message.startNumber, message.endNumber, message.weight);
+		this.schedulingStrategy.schedule(this.nextQueryId, message.startNumber, message.endNumber, message.weight);
+		this.getSender().tell(new QueryScheduledMessage(this.nextQueryId), this.getSelf());
 		this.nextQueryId++;
+
+		// Empty ranges are complete right away
+		this.reportCompletedQueries();
 	}
 
 	private void handle(ShutdownMessage message) {
@@ -266,14 +682,17 @@ public class Master extends AbstractLoggingActor {
 	private void handle(PrimesMessage message) {
 		
 		// Forward the calculated primes to the listener
-		this.listener.tell(new Listener.PrimesMessage(message.primes), this.getSelf());
+		this.listener.tell(new Listener.PrimesMessage(message.requestId, message.primes), this.getSelf());
+		this.queryMonitor.reported(this.getSender(), message.requestId, message.primes.length);
 
 		// If the worker only returned an intermediate result, no further action is required
 		if (!message.isComplete) 
 			return;
 		
 		// Notify the scheduler that the worker has finished its task
+		this.queryMonitor.completed(this.getSender(), message.requestId);
 		this.schedulingStrategy.finished(message.requestId, this.getSender());
+		this.reportCompletedQueries();
 		
 		// Check if work is complete and stop the actor hierarchy if true
 		if (this.hasFinished()) {
@@ -287,16 +706,105 @@ public class Master extends AbstractLoggingActor {
 		final ActorRef sender = this.getSender();
 		
 		// Remove the sender from the scheduler
+		this.queryMonitor.removed(sender);
 		this.schedulingStrategy.removeWorker(sender);
 		
 		this.log().warning("{} has terminated.", sender);
+		this.reportCompletedQueries();
+		
+		// Check if work is complete and stop the actor hierarchy if true
+		if (this.hasFinished()) {
+			this.stopSelfAndListener();
+		}
+	}
+
+	private void handle(CheckpointMessage message) {
 		
+		// Let the listener write the checkpoint, so that it is only persisted after the primes that it covers
+		QueryJournal journal = new QueryJournal(this.nextQueryId, this.schedulingStrategy.checkpoint());
+		this.listener.tell(new Listener.JournalMessage(journal), this.getSelf());
+	}
+
+	private void handle(CancelQueryMessage message) {
+
+		// Let the scheduler stop the query; the workers reclaim their capacity as soon as they acknowledge
+		boolean isKnown = message.queryId >= 0 && message.queryId < this.nextQueryId;
+		boolean isCancelled = isKnown && this.schedulingStrategy.cancel(message.queryId);
+		if (isCancelled) {
+			QueryReport report = this.queryMonitor.cancel(message.queryId);
+			this.listener.tell(new Listener.QueryCancelledMessage(message.queryId, report), this.getSelf());
+			this.log().info("Cancelled query {}.", message.queryId);
+		} else if (isKnown)
+			this.log().warning("Cannot cancel query {}, because it is not pending.", message.queryId);
+		else
+			this.log().warning("Cannot cancel query {}, because it does not exist.", message.queryId);
+
+		// Answer the API and batch clients; the console cancels without a sender and needs no answer
+		if (!this.getSender().equals(this.getContext().getSystem().deadLetters()))
+			this.getSender().tell(new CancellationMessage(message.queryId, isKnown, isCancelled), this.getSelf());
+
+		// Check if work is complete and stop the actor hierarchy if true
+		if (this.hasFinished()) {
+			this.stopSelfAndListener();
+		}
+	}
+
+	private void handle(CancelledMessage message) {
+
+		// Notify the scheduler that the worker has stopped the subquery and is ready for other work
+		this.queryMonitor.cancelled(this.getSender(), message.subquery);
+		this.schedulingStrategy.cancelled(message.subquery, message.lastCheckedNumber, this.getSender());
+		this.reportCompletedQueries();
+
 		// Check if work is complete and stop the actor hierarchy if true
 		if (this.hasFinished()) {
 			this.stopSelfAndListener();
 		}
 	}
 
+	private void handle(CalibrationMessage message) {
+		this.log().info("{} calibrated {}.", this.getSender(), message.costModel);
+		this.schedulingStrategy.calibrated(this.getSender(), message.costModel);
+	}
+
+	private void handle(LogMetricsMessage message) {
+		List<WorkerMetrics> metrics = this.schedulingStrategy.workerMetrics();
+		this.log().info("Scheduling metrics of {} workers:", metrics.size());
+		for (WorkerMetrics workerMetrics : metrics)
+			this.log().info("  {}", workerMetrics);
+	}
+
+	private void handle(LogLatenciesMessage message) {
+		this.log().info("Query latencies: {}", this.queryMonitor.getQueryLatencies());
+		this.log().info("Chunk latencies: {}", this.queryMonitor.getChunkLatencies());
+		this.log().info("Cancelled query latencies: {}", this.queryMonitor.getCancelledQueryLatencies());
+	}
+
+	private void handle(WriteLatenciesMessage message) {
+
+		// Replace the file atomically, so that scrapers never read a partial file
+		try {
+			Path temporaryFile = this.latencyFile.resolveSibling(this.latencyFile.getFileName() + ".tmp");
+			Files.write(temporaryFile, this.queryMonitor.toPrometheus().getBytes(StandardCharsets.UTF_8));
+			Files.move(temporaryFile, this.latencyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			this.log().warning("Could not write the latency file {}: {}", this.latencyFile, e);
+		}
+	}
+
+	/**
+	 * Tell the listener about every followed query that the scheduler no longer considers pending. The listener
+	 * receives the report after all primes of the query, counts them, and publishes the report to the event stream.
+	 */
+	private void reportCompletedQueries() {
+		for (int queryId : this.queryMonitor.pendingQueryIds()) {
+			if (this.schedulingStrategy.isPending(queryId))
+				continue;
+			QueryReport report = this.queryMonitor.finish(queryId);
+			this.listener.tell(new Listener.QueryCompletedMessage(report), this.getSelf());
+		}
+	}
+
 	private boolean hasFinished() {
 		
 		// The master has finished if (1) there will be no further requests and (2) either all requests have been processed or there are no more workers to process these requests
@@ -305,6 +813,10 @@ public class Master extends AbstractLoggingActor {
 
 	private void stopSelfAndListener() {
 		
+		// Record the final state of the queries
+		if (this.isJournaling)
+			this.handle(new CheckpointMessage());
+		
 		// Tell the listener to stop
 		this.listener.tell(new ShutdownMessage(), this.getSelf());
 		
@@ -34,6 +34,24 @@ public class Shepherd extends AbstractLoggingActor {
 	public static class SubscriptionMessage implements Serializable {
 		
 		private static final long serialVersionUID = 6122957437037004535L;
+
+		private int numWorkers;
+
+		/**
+		 * Construct a new {@link SubscriptionMessage} object.
+		 *
+		 * @param numWorkers the number of workers that the subscribing actor system can host, usually its number of cores
+		 */
+		public SubscriptionMessage(final int numWorkers) {
+			this.numWorkers = numWorkers;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private SubscriptionMessage() {
+		}
 	}
 	
 	// A reference to the master actor that spawns new workers upon the connection of new actor systems
@@ -89,7 +107,7 @@ public class Shepherd extends AbstractLoggingActor {
 		// Keep track of all subscribed slaves but avoid double subscription.
 		if (!this.slaves.add(slave)) 
 			return;
-		this.log().info("New subscription: " + slave);
+		this.log().info("New subscription with {} workers: {}", message.numWorkers, slave);
 
 		// Acknowledge the subscription.
 		slave.tell(new Slave.AcknowledgementMessage(), this.getSelf());
@@ -101,7 +119,7 @@ public class Shepherd extends AbstractLoggingActor {
 		Address remoteAddress = this.getSender().path().address();
 
 		// Inform the master about the new remote system.
-		this.master.tell(new Master.RemoteSystemMessage(remoteAddress), this.getSelf());
+		this.master.tell(new Master.RemoteSystemMessage(remoteAddress, message.numWorkers), this.getSelf());
 	}
 	
 	private void handle(ShutdownMessage message) {
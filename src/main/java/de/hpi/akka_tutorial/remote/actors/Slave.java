@@ -25,10 +25,11 @@ public class Slave extends AbstractLoggingActor {
 	/**
 	 * Create the {@link Props} necessary to instantiate new {@link Slave} actors.
 	 *
+	 * @param numWorkers the number of workers that the master should deploy to this actor system
 	 * @return the {@link Props}
 	 */
-	public static Props props() {
-		return Props.create(Slave.class);
+	public static Props props(final int numWorkers) {
+		return Props.create(Slave.class, () -> new Slave(numWorkers));
 	}
 
 	/**
@@ -61,8 +62,20 @@ public class Slave extends AbstractLoggingActor {
 
 	}
 
+	// The number of workers that this actor system offers to the master
+	private final int numWorkers;
+
 	// A scheduling item to keep on trying to reconnect as regularly
 	private Cancellable connectSchedule;
+
+	/**
+	 * Construct a new {@link Slave} object.
+	 *
+	 * @param numWorkers the number of workers that the master should deploy to this actor system
+	 */
+	public Slave(final int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
 	
 	@Override
 	public void preStart() throws Exception {
@@ -120,7 +133,7 @@ public class Slave extends AbstractLoggingActor {
 		this.connectSchedule = scheduler.schedule(
 				Duration.Zero(),
 				Duration.create(5, TimeUnit.SECONDS),
-				() -> selection.tell(new Shepherd.SubscriptionMessage(), this.getSelf()),
+				() -> selection.tell(new Shepherd.SubscriptionMessage(this.numWorkers), this.getSelf()),
 				dispatcher
 		);
 	}
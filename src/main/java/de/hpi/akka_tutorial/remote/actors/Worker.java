@@ -1,26 +1,48 @@
 package de.hpi.akka_tutorial.remote.actors;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 
-import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
 import akka.actor.Props;
+import de.hpi.akka_tutorial.remote.actors.engines.CostModel;
+import de.hpi.akka_tutorial.remote.actors.engines.PrimeEngine;
+import de.hpi.akka_tutorial.remote.instrumentation.InstrumentedActor;
 
 /**
- * The worker waits tests ranges of numbers for prime numbers.
+ * The worker waits tests ranges of numbers for prime numbers. It processes each range in slices of a few milliseconds
+ * and continues with the next slice via a message to itself, so that it can react to a {@link CancelMessage} between
+ * any two slices.
  */
-public class Worker extends AbstractLoggingActor {
+public class Worker extends InstrumentedActor {
 
-	private static final int MAX_PRIMES_PER_MESSAGE = 1000;
+	// The bounded dispatcher that runs the CPU-bound prime checks apart from the control-plane actors (see dispatchers.conf)
+	public static final String DISPATCHER_NAME = "compute-dispatcher";
+
+	// The maximum number of primes per {@link Master.PrimesMessage}, which keeps the messages small
+	public static final int MAX_PRIMES_PER_MESSAGE = 1000;
+
+	// The targeted duration of a slice, which bounds how long a cancellation takes
+	private static final long TARGET_SLICE_NANOS = 10_000_000;
+
+	private static final long MIN_SLICE_SIZE = 1 << 12, MAX_SLICE_SIZE = 1L << 30;
+
+	// The approximate time that the calibration of the cost model may take
+	private static final long CALIBRATION_BUDGET_NANOS = 300_000_000;
 
 	/**
-	 * Create the {@link Props} necessary to instantiate new {@link Worker} actors.
+	 * Create the {@link Props} necessary to instantiate new {@link Worker} actors. The workers run on a dedicated
+	 * dispatcher with one thread per core, so that they keep all cores of their actor system busy but never block the
+	 * default dispatcher of the control-plane actors.
 	 *
+	 * @param primeEngineFactory defines which {@link PrimeEngine} the worker should use
 	 * @return the {@link Props}
 	 */
-	public static Props props() {
-		return Props.create(Worker.class);
+	public static Props props(final PrimeEngine.Factory primeEngineFactory) {
+		return Props.create(Worker.class, primeEngineFactory).withDispatcher(DISPATCHER_NAME);
 	}
 
 	/**
@@ -53,14 +75,135 @@ public class Worker extends AbstractLoggingActor {
 		@SuppressWarnings("unused")
 		private ValidationMessage() {
 		}
+
+		public int getId() {
+			return this.id;
+		}
+
+		public long getRangeMin() {
+			return this.rangeMin;
+		}
+
+		public long getRangeMax() {
+			return this.rangeMax;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass())
+				return false;
+			final ValidationMessage that = (ValidationMessage) o;
+			return this.id == that.id && this.rangeMin == that.rangeMin && this.rangeMax == that.rangeMax;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * this.id + Long.hashCode(this.rangeMin)) + Long.hashCode(this.rangeMax);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s[%d: %,d..%,d]", this.getClass().getSimpleName(), this.id, this.rangeMin, this.rangeMax);
+		}
+	}
+
+	/**
+	 * Asks the {@link Worker} to stop all subqueries of a query within a given range, be they running or queued. The
+	 * worker answers each stopped subquery with a {@link Master.CancelledMessage}.
+	 */
+	public static class CancelMessage implements Serializable {
+
+		private static final long serialVersionUID = 5384711269418802651L;
+
+		private int id;
+
+		private long rangeMin, rangeMax;
+
+		/**
+		 * Construct a new {@link CancelMessage} object that stops all subqueries of a query.
+		 *
+		 * @param id the id of the query whose subqueries should be stopped
+		 */
+		public CancelMessage(int id) {
+			this(id, Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+
+		/**
+		 * Construct a new {@link CancelMessage} object.
+		 *
+		 * @param id the id of the query whose subqueries should be stopped
+		 * @param rangeMin only subqueries that start at or after this number are stopped
+		 * @param rangeMax only subqueries that end at or before this number are stopped
+		 */
+		public CancelMessage(int id, long rangeMin, long rangeMax) {
+			this.id = id;
+			this.rangeMin = rangeMin;
+			this.rangeMax = rangeMax;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private CancelMessage() {
+		}
+
+		private boolean matches(ValidationMessage subquery) {
+			return subquery.id == this.id && subquery.rangeMin >= this.rangeMin && subquery.rangeMax <= this.rangeMax;
+		}
+	}
+
+	/**
+	 * Asks the {@link Worker} to process the next slice of its current subquery.
+	 */
+	private static class ContinueMessage implements Serializable {
+
+		private static final long serialVersionUID = -2969437195380813764L;
 	}
 	
+	// The engine that discovers the primes in the ranges of the validation messages
+	private final PrimeEngine primeEngine;
+
+	// The subqueries that this worker holds in the order of their arrival; the first one is in progress
+	private final Deque<ValidationMessage> subqueries = new ArrayDeque<>();
+
+	// The actor that posed the subqueries
+	private ActorRef master;
+
+	// The next number of the current subquery that has yet to be checked
+	private long nextNumber;
+
+	// Whether a ContinueMessage is on its way to this worker; there must never be more than one
+	private boolean isContinuePending = false;
+
+	// The number of numbers in the next slice; adapted to the measured duration of the slices
+	private long sliceSize = MIN_SLICE_SIZE;
+
+	// The discovered primes that have not been sent yet
+	private final long[] primeBuffer = new long[MAX_PRIMES_PER_MESSAGE];
+
+	private int numBufferedPrimes = 0;
+
+	/**
+	 * Construct a new {@link Worker} object.
+	 *
+	 * @param primeEngineFactory defines which {@link PrimeEngine} to use
+	 */
+	public Worker(final PrimeEngine.Factory primeEngineFactory) {
+		this.primeEngine = primeEngineFactory.create();
+	}
+
 	@Override
 	public void preStart() throws Exception {
 		super.preStart();
 		
 		// Register at this actor system's reaper
 		Reaper.watchWithDefaultReaper(this);
+
+		// Measure the prime engine on this machine, so that the master can partition ranges by their cost
+		CostModel costModel = CostModel.calibrate(this.primeEngine, CALIBRATION_BUDGET_NANOS);
+		this.getContext().getParent().tell(new Master.CalibrationMessage(costModel), this.getSelf());
 	}
 
 	@Override
@@ -75,69 +218,121 @@ public class Worker extends AbstractLoggingActor {
 	public Receive createReceive() {
 		return receiveBuilder()
 				.match(ValidationMessage.class, this::handle)
+				.match(ContinueMessage.class, this::handle)
+				.match(CancelMessage.class, this::handle)
 				.matchAny(object -> this.log().info(this.getClass().getName() + " received unknown message: " + object.toString()))
 				.build();
 	}
 
 	private void handle(ValidationMessage message) {
-		
-		// Log that we started processing the current task
-		this.log().info("Started discovering primes in [{},{}] ...", message.rangeMin, message.rangeMax);
-
-		// Iterate over the range of numbers and compute the primes
-		List<Long> primeBuffer = new ArrayList<>(MAX_PRIMES_PER_MESSAGE);
-		for (long i = message.rangeMin; i <= message.rangeMax; i++) {
-			if (isPrime(i)) {
-				
-				// Check the buffer size: We must not send too large messages, hence, also reply with intermediate results as necessary
-				if (primeBuffer.size() >= MAX_PRIMES_PER_MESSAGE) {
-					
-					// Create a copy of the elements in the buffer before sending them; never send mutable objects in a message!!!
-					ArrayList<Long> primeBufferCopy = new ArrayList<>(primeBuffer);
-					
-					// Send the intermediate results to the master actor
-					this.getSender().tell(new Master.PrimesMessage(message.id, primeBufferCopy, false), this.getSelf());
-					
-					// Clear the buffer
-					primeBuffer.clear();
-				}
-				
-				// Add the computed prime to the buffer
-				primeBuffer.add(i);
+
+		// Queue the subquery and start it right away if we are idle
+		this.master = this.getSender();
+		this.subqueries.add(message);
+		if (this.subqueries.size() == 1)
+			this.start();
+	}
+
+	private void handle(ContinueMessage message) {
+		this.isContinuePending = false;
+		final ValidationMessage subquery = this.subqueries.peek();
+		if (subquery == null)
+			return;
+
+		// Let the prime engine discover the primes in the next slice of the range
+		final long sliceMax = subquery.rangeMax - this.nextNumber < this.sliceSize ? subquery.rangeMax : this.nextNumber + this.sliceSize - 1;
+		final long startNanos = System.nanoTime();
+		this.primeEngine.discoverPrimes(this.nextNumber, sliceMax, prime -> {
+
+			// Check the buffer size: We must not send too large messages, hence, also reply with intermediate results as necessary
+			if (this.numBufferedPrimes >= MAX_PRIMES_PER_MESSAGE)
+				this.flush(subquery, false);
+
+			// Add the computed prime to the buffer
+			this.primeBuffer[this.numBufferedPrimes++] = prime;
+		});
+		this.adaptSliceSize(sliceMax - this.nextNumber + 1, System.nanoTime() - startNanos);
+
+		// Send the remaining primes to the master actor once the subquery is complete, otherwise continue with the next slice
+		if (sliceMax == subquery.rangeMax) {
+			this.flush(subquery, true);
+			this.subqueries.poll();
+			this.start();
+		} else {
+			this.nextNumber = sliceMax + 1;
+			this.proceed();
+		}
+	}
+
+	private void handle(CancelMessage message) {
+		final ValidationMessage runningSubquery = this.subqueries.peek();
+		final Iterator<ValidationMessage> subqueryIterator = this.subqueries.iterator();
+		while (subqueryIterator.hasNext()) {
+			final ValidationMessage subquery = subqueryIterator.next();
+			if (message.matches(subquery)) {
+				subqueryIterator.remove();
+
+				// Report the primes of the running subquery that we found so far, so that the progress is not lost
+				final boolean isRunning = subquery == runningSubquery;
+				final long lastCheckedNumber = isRunning ? this.nextNumber - 1 : subquery.rangeMin - 1;
+				if (isRunning)
+					this.flush(subquery, false);
+				this.master.tell(new Master.CancelledMessage(subquery, lastCheckedNumber), this.getSelf());
+				this.log().info("Stopped {} after checking up to {}.", subquery, lastCheckedNumber);
 			}
 		}
 
-		// Send the primes to the master actor
-		this.getSender().tell(new Master.PrimesMessage(message.id, primeBuffer, true), this.getSelf());
-
-		// Asynchronous version: Consider using a dedicated executor service.
-//		ActorRef sender = this.getSender();
-//		ActorRef self = this.getSelf();
-//		getContext().getSystem().dispatcher().execute(() -> {
-//			final List<Object> result = new ArrayList<>();
-//			for (Long number : message.getNumbers())
-//				if (this.isPrime(number.longValue()))
-//					result.add(number);
-//
-//			sender.tell(new Master.ObjectMessage(message.getId(), result), self);
-//		});
+		// Proceed with the first surviving subquery on the chain of the cancelled one; the queued subqueries behind the
+		// running one may have been cancelled as well, so only the final head counts
+		if (this.subqueries.peek() != runningSubquery)
+			this.start();
 	}
 
-	private static boolean isPrime(long n) {
-		
-		// Check for the most basic primes
-		if (n == 1 || n == 2 || n == 3)
-			return true;
+	/**
+	 * Start the first subquery, if any. If a {@link ContinueMessage} is still pending, e.g., because the running
+	 * subquery was cancelled, that message proceeds with the new subquery.
+	 */
+	private void start() {
+		final ValidationMessage subquery = this.subqueries.peek();
+		if (subquery == null)
+			return;
 
-		// Check if n is an even number
-		if (n % 2 == 0)
-			return false;
+		// Log that we started processing the current task
+		this.log().info("Started discovering primes in [{},{}] ...", subquery.rangeMin, subquery.rangeMax);
 
-		// Check the odds
-		for (long i = 3; i * i <= n; i += 2)
-			if (n % i == 0)
-				return false;
-		
-		return true;
+		this.nextNumber = subquery.rangeMin;
+		this.proceed();
+	}
+
+	/**
+	 * Process the next slice after the messages that have arrived in the meantime, unless that is already arranged.
+	 */
+	private void proceed() {
+		if (this.isContinuePending)
+			return;
+		this.isContinuePending = true;
+		this.getSelf().tell(new ContinueMessage(), this.getSelf());
+	}
+
+	/**
+	 * Send the buffered primes to the master actor and clear the buffer.
+	 */
+	private void flush(final ValidationMessage subquery, final boolean isComplete) {
+		if (this.numBufferedPrimes == 0 && !isComplete)
+			return;
+
+		// Send a copy of the buffer to the master actor; never send mutable objects in a message!!!
+		this.master.tell(new Master.PrimesMessage(subquery.id, Arrays.copyOf(this.primeBuffer, this.numBufferedPrimes), isComplete), this.getSelf());
+		this.numBufferedPrimes = 0;
+	}
+
+	/**
+	 * Size the next slice, so that it takes about the targeted time.
+	 */
+	private void adaptSliceSize(final long size, final long nanos) {
+		if (size < this.sliceSize)
+			return;
+		final double scale = (double) TARGET_SLICE_NANOS / Math.max(1, nanos);
+		this.sliceSize = (long) Math.max(MIN_SLICE_SIZE, Math.min(MAX_SLICE_SIZE, size * Math.max(0.5, Math.min(2, scale))));
 	}
-}
\ No newline at end of file
+}
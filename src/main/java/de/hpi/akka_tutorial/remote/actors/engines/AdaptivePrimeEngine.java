@@ -0,0 +1,66 @@
+package de.hpi.akka_tutorial.remote.actors.engines;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link PrimeEngine} that picks the {@link SegmentedSievePrimeEngine} or the {@link MillerRabinPrimeEngine} for
+ * each range depending on the magnitude of its numbers and its density. The sieve has to walk all base primes up to
+ * the square root of the range's end for every segment, which pays off only if the range is wide enough; narrow
+ * ranges of large numbers are better served by testing each number individually.
+ */
+public class AdaptivePrimeEngine implements PrimeEngine {
+
+	/**
+	 * {@link PrimeEngine.Factory} implementation for the {@link AdaptivePrimeEngine}.
+	 */
+	public static class Factory implements PrimeEngine.Factory {
+
+		private static final long serialVersionUID = 3389135519640893711L;
+
+		@Override
+		public AdaptivePrimeEngine create() {
+			return new AdaptivePrimeEngine();
+		}
+	}
+
+	// Never sieve beyond this number, so that the cached base primes stay below 2^26 (about 4M primes, 32 MiB)
+	static final long MAX_SIEVE_NUMBER = 1L << 52;
+
+	// Estimated costs in nanoseconds for each base prime per sieve segment, each sieved number, and each tested number
+	private static final double SIEVE_BASE_PRIME_COST = 15, SIEVE_NUMBER_COST = 10, MILLER_RABIN_NUMBER_COST = 230;
+
+	private final SegmentedSievePrimeEngine sieveEngine = new SegmentedSievePrimeEngine();
+
+	private final MillerRabinPrimeEngine millerRabinEngine = new MillerRabinPrimeEngine();
+
+	@Override
+	public void discoverPrimes(final long rangeMin, final long rangeMax, final LongConsumer primeConsumer) {
+		if (isSieveCheaper(rangeMin, rangeMax))
+			this.sieveEngine.discoverPrimes(rangeMin, rangeMax, primeConsumer);
+		else
+			this.millerRabinEngine.discoverPrimes(rangeMin, rangeMax, primeConsumer);
+	}
+
+	/**
+	 * Decide whether sieving the given range is expected to be cheaper than testing each of its numbers.
+	 *
+	 * @param rangeMin first number in the range (inclusive)
+	 * @param rangeMax last number in the range (inclusive)
+	 * @return {@code true} if the sieve should be used
+	 */
+	static boolean isSieveCheaper(final long rangeMin, final long rangeMax) {
+		if (rangeMax > MAX_SIEVE_NUMBER)
+			return false;
+		if (rangeMax < rangeMin)
+			return true;
+
+		final double rangeSize = (double) rangeMax - rangeMin + 1;
+		final double numSegments = Math.ceil(rangeSize / 2 / SegmentedSievePrimeEngine.SEGMENT_BITS);
+		final double sqrt = Math.sqrt((double) rangeMax);
+		final double numBasePrimes = sqrt / Math.max(1, Math.log(sqrt));
+
+		final double sieveCost = numSegments * numBasePrimes * SIEVE_BASE_PRIME_COST + rangeSize * SIEVE_NUMBER_COST;
+		final double millerRabinCost = rangeSize * MILLER_RABIN_NUMBER_COST;
+		return sieveCost <= millerRabinCost;
+	}
+}
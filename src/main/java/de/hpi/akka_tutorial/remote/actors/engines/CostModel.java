@@ -0,0 +1,243 @@
+package de.hpi.akka_tutorial.remote.actors.engines;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Estimates how long a {@link PrimeEngine} takes to check ranges of numbers on a particular machine. The model is a
+ * piecewise power law of the cost per number: It is calibrated by measuring the cost per number at a few sample
+ * numbers of growing magnitude, interpolates between these samples as {@code c(n) = c_i * (n / n_i)^k_i}, and keeps
+ * growing with the last exponent beyond the largest sample. Hence, the cost of a range is the integral of {@code c(n)},
+ * which has a closed form.
+ */
+public class CostModel implements Serializable {
+
+	private static final long serialVersionUID = -6109815390926457719L;
+
+	// Sample every 2^4th number, starting at 2^10
+	private static final int FIRST_SAMPLE_BITS = 10, SAMPLE_BITS_STEP = 4;
+
+	// Each sample checks at least this many numbers and takes at least this long, if possible
+	private static final int MIN_SAMPLE_SIZE = 1 << 10, MAX_SAMPLE_SIZE = 1 << 22;
+
+	private static final long MIN_SAMPLE_NANOS = 2_000_000;
+
+	// A sample grows until doubling its size did not lower the cost per number below this fraction for a few times
+	private static final double AMORTIZATION_THRESHOLD = 0.8;
+
+	private static final int MIN_SETTLED_SAMPLES = 2;
+
+	// The exponent with which the cost per number is assumed to grow beyond a single sample, as with trial division
+	private static final double DEFAULT_EXPONENT = 0.5;
+
+	// The largest exponent with which the cost per number keeps growing beyond the largest sample
+	private static final double MAX_EXTRAPOLATION_EXPONENT = 1;
+
+	// The numbers at which the cost was sampled in ascending order
+	private long[] sampleNumbers;
+
+	// The measured cost per number at each sample number
+	private double[] sampleNanosPerNumber;
+
+	/**
+	 * Construct a new {@link CostModel} object.
+	 *
+	 * @param sampleNumbers the numbers at which the cost was sampled in ascending order
+	 * @param sampleNanosPerNumber the measured cost per number at each sample number
+	 */
+	public CostModel(final long[] sampleNumbers, final double[] sampleNanosPerNumber) {
+		if (sampleNumbers.length == 0 || sampleNumbers.length != sampleNanosPerNumber.length)
+			throw new IllegalArgumentException("A cost model needs the same positive number of sample numbers and costs.");
+		this.sampleNumbers = sampleNumbers;
+		this.sampleNanosPerNumber = sampleNanosPerNumber;
+	}
+
+	/**
+	 * For serialization/deserialization only.
+	 */
+	@SuppressWarnings("unused")
+	private CostModel() {
+	}
+
+	/**
+	 * Calibrate a cost model for the given engine on this machine by a micro-benchmark. The benchmark samples numbers of
+	 * growing magnitude up to the engine's {@link PrimeEngine#getCalibrationCeiling() calibration ceiling} and stops as
+	 * soon as the next sample is predicted to exceed the time budget. Only the smallest measurement of the first sample
+	 * may overrun the budget, because the model needs at least one sample.
+	 *
+	 * @param primeEngine the engine to measure
+	 * @param budgetNanos the approximate time that the calibration may take
+	 * @return the calibrated model
+	 */
+	public static CostModel calibrate(final PrimeEngine primeEngine, final long budgetNanos) {
+		final long deadline = System.nanoTime() + budgetNanos;
+		final long ceiling = primeEngine.getCalibrationCeiling();
+		final long[] sampleNumbers = new long[(Long.SIZE - 1 - FIRST_SAMPLE_BITS) / SAMPLE_BITS_STEP + 1];
+		final double[] sampleNanosPerNumber = new double[sampleNumbers.length];
+
+		// The time of the smallest measurement at each sample number, which includes the setup cost of its range
+		final double[] sampleSetupNanos = new double[sampleNumbers.length];
+
+		// Warm up the engine, so that the first sample is not distorted by the JIT compiler
+		sample(primeEngine, 1L << FIRST_SAMPLE_BITS, deadline, false);
+
+		int numSamples = 0;
+		for (int bits = FIRST_SAMPLE_BITS; bits < Long.SIZE - 1; bits += SAMPLE_BITS_STEP) {
+			final long number = 1L << bits;
+
+			if (numSamples > 0) {
+
+				// Do not sample numbers that the engine is not used for
+				if (number > ceiling - MAX_SAMPLE_SIZE + 1)
+					break;
+
+				// Predict the smallest measurement at this number from the trend so far, setup cost included, and stop if
+				// it does not fit into the budget
+				final double exponent = numSamples > 1 ? exponent(sampleNumbers[numSamples - 2], sampleSetupNanos[numSamples - 2],
+						sampleNumbers[numSamples - 1], sampleSetupNanos[numSamples - 1]) : DEFAULT_EXPONENT;
+				final double predictedNanos = sampleSetupNanos[numSamples - 1]
+						* Math.pow((double) number / sampleNumbers[numSamples - 1], Math.max(0, exponent));
+				if (System.nanoTime() + predictedNanos > deadline)
+					break;
+			}
+
+			// Discard samples that were cut short by the deadline, as they are dominated by setup costs; the model needs
+			// at least one sample, though
+			final Sample sample = sample(primeEngine, number, deadline, numSamples == 0);
+			if (sample == null)
+				break;
+			sampleNumbers[numSamples] = number;
+			sampleNanosPerNumber[numSamples] = sample.nanosPerNumber;
+			sampleSetupNanos[numSamples] = sample.setupNanos;
+			numSamples++;
+		}
+		return new CostModel(Arrays.copyOf(sampleNumbers, numSamples), Arrays.copyOf(sampleNanosPerNumber, numSamples));
+	}
+
+	/**
+	 * The outcome of measuring the cost at a sample number.
+	 */
+	private static class Sample {
+
+		// The lowest cost per number of all measurements
+		private final double nanosPerNumber;
+
+		// The time of the smallest measurement
+		private final double setupNanos;
+
+		private Sample(final double nanosPerNumber, final double setupNanos) {
+			this.nanosPerNumber = nanosPerNumber;
+			this.setupNanos = setupNanos;
+		}
+	}
+
+	/**
+	 * Measure the cost per number at the given number. The sample size doubles as long as the cost per number keeps
+	 * dropping noticeably, because engines such as the sieve amortize a setup cost over the range and the workers check
+	 * large ranges, or as long as the sample is too short to be measured reliably. The deadline is checked before each
+	 * measurement.
+	 *
+	 * @param isRequired whether to take at least the smallest measurement and to keep the measurements so far if the
+	 *        deadline passes
+	 * @return the sample or {@code null} if it did not finish before the deadline
+	 */
+	private static Sample sample(final PrimeEngine primeEngine, final long number, final long deadline, final boolean isRequired) {
+		double minNanosPerNumber = Double.POSITIVE_INFINITY;
+		long setupNanos = 0;
+		int numSettledSamples = 0;
+		for (int sampleSize = MIN_SAMPLE_SIZE; sampleSize <= MAX_SAMPLE_SIZE; sampleSize *= 2) {
+			if (System.nanoTime() > deadline && !(isRequired && sampleSize == MIN_SAMPLE_SIZE))
+				return isRequired ? new Sample(minNanosPerNumber, setupNanos) : null;
+			final long nanos = measure(primeEngine, number, sampleSize);
+			if (sampleSize == MIN_SAMPLE_SIZE)
+				setupNanos = nanos;
+			final double nanosPerNumber = (double) nanos / sampleSize;
+			numSettledSamples = nanosPerNumber < AMORTIZATION_THRESHOLD * minNanosPerNumber ? 0 : numSettledSamples + 1;
+			minNanosPerNumber = Math.min(minNanosPerNumber, nanosPerNumber);
+			if (numSettledSamples >= MIN_SETTLED_SAMPLES && nanos >= MIN_SAMPLE_NANOS)
+				break;
+		}
+		return new Sample(minNanosPerNumber, setupNanos);
+	}
+
+	private static long measure(final PrimeEngine primeEngine, final long number, final int sampleSize) {
+		final long[] numPrimes = {0};
+		final long startNanos = System.nanoTime();
+		primeEngine.discoverPrimes(number, number + sampleSize - 1, prime -> numPrimes[0]++);
+		return Math.max(1, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Estimate how long the engine takes to check the given range.
+	 *
+	 * @param startNumber first number of the range (inclusive)
+	 * @param endNumber last number of the range (inclusive)
+	 * @return the estimated time in nanoseconds
+	 */
+	public double estimateNanos(final long startNumber, final long endNumber) {
+		if (startNumber > endNumber)
+			return 0;
+
+		// Integrate the cost per number over [startNumber, endNumber + 1) piece by piece
+		final double from = Math.max(1, startNumber), to = (double) endNumber + 1;
+		double nanos = Math.max(0, Math.min(to, this.sampleNumbers[0]) - from) * this.sampleNanosPerNumber[0];
+		for (int i = 0; i < this.sampleNumbers.length; i++) {
+			final double pieceStart = Math.max(from, this.sampleNumbers[i]);
+			final double pieceEnd = i + 1 < this.sampleNumbers.length ? Math.min(to, this.sampleNumbers[i + 1]) : to;
+			if (pieceStart < pieceEnd)
+				nanos += this.integrate(i, pieceStart, pieceEnd);
+		}
+		return nanos;
+	}
+
+	/**
+	 * Estimate the cost per number at the given number.
+	 *
+	 * @param number the number
+	 * @return the estimated cost in nanoseconds
+	 */
+	public double estimateNanosPerNumber(final long number) {
+		int i = Arrays.binarySearch(this.sampleNumbers, number);
+		if (i < 0)
+			i = -i - 2;
+		if (i < 0)
+			return this.sampleNanosPerNumber[0];
+		return this.sampleNanosPerNumber[i] * Math.pow((double) number / this.sampleNumbers[i], this.exponent(i));
+	}
+
+	/**
+	 * Integrate {@code c(n) = c_i * (n / n_i)^k_i} over {@code [from, to)}.
+	 */
+	private double integrate(final int i, final double from, final double to) {
+		final double k = this.exponent(i), n = this.sampleNumbers[i], c = this.sampleNanosPerNumber[i];
+		if (Math.abs(k + 1) < 1e-9)
+			return c * n * Math.log(to / from);
+		return c * n / (k + 1) * (Math.pow(to / n, k + 1) - Math.pow(from / n, k + 1));
+	}
+
+	/**
+	 * The exponent of the piece that starts at the i-th sample.
+	 */
+	private double exponent(final int i) {
+		if (this.sampleNumbers.length == 1)
+			return DEFAULT_EXPONENT;
+		if (i + 1 < this.sampleNumbers.length)
+			return exponent(this.sampleNumbers[i], this.sampleNanosPerNumber[i], this.sampleNumbers[i + 1], this.sampleNanosPerNumber[i + 1]);
+		return Math.min(MAX_EXTRAPOLATION_EXPONENT, Math.max(0, this.exponent(i - 1)));
+	}
+
+	private static double exponent(final long number1, final double nanos1, final long number2, final double nanos2) {
+		return Math.log(nanos2 / nanos1) / Math.log((double) number2 / number1);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder description = new StringBuilder(this.getClass().getSimpleName()).append('[');
+		for (int i = 0; i < this.sampleNumbers.length; i++) {
+			if (i > 0)
+				description.append(", ");
+			description.append(String.format("%d: %.1f ns", this.sampleNumbers[i], this.sampleNanosPerNumber[i]));
+		}
+		return description.append(']').toString();
+	}
+}
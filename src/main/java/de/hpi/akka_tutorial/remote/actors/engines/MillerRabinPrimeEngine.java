@@ -0,0 +1,171 @@
+package de.hpi.akka_tutorial.remote.actors.engines;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link PrimeEngine} that tests each number of a range individually with a deterministic Miller-Rabin test. The
+ * fixed witness set is known to classify all 64 bit numbers correctly. Modular multiplications are carried out in
+ * Montgomery form, so that they cannot overflow. Unlike the sieve, this engine needs no memory that grows with the
+ * magnitude of the numbers, which makes it the method of choice for narrow ranges of very large numbers.
+ */
+public class MillerRabinPrimeEngine implements PrimeEngine {
+
+	/**
+	 * {@link PrimeEngine.Factory} implementation for the {@link MillerRabinPrimeEngine}.
+	 */
+	public static class Factory implements PrimeEngine.Factory {
+
+		private static final long serialVersionUID = -6182304567409925744L;
+
+		@Override
+		public MillerRabinPrimeEngine create() {
+			return new MillerRabinPrimeEngine();
+		}
+	}
+
+	// Witnesses that make the Miller-Rabin test deterministic for all n < 2^64 (due to Jim Sinclair)
+	private static final long[] WITNESSES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+	// Small primes to filter out most composites before running the actual test
+	private static final long[] SMALL_PRIMES = {3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47};
+
+	@Override
+	public void discoverPrimes(final long rangeMin, final long rangeMax, final LongConsumer primeConsumer) {
+
+		// There are no primes below 2
+		final long low = Math.max(rangeMin, 2);
+		if (low > rangeMax)
+			return;
+
+		// The only even prime is not considered by the loop over the odd numbers
+		if (low == 2)
+			primeConsumer.accept(2);
+
+		// Test the odd numbers; stop before the loop variable overflows
+		for (long n = low | 1; n <= rangeMax && n > 0; n += 2)
+			if (isPrime(n))
+				primeConsumer.accept(n);
+	}
+
+	/**
+	 * Test whether a number is prime.
+	 *
+	 * @param n the number to test
+	 * @return whether {@code n} is prime
+	 */
+	public static boolean isPrime(final long n) {
+
+		// Check for the even numbers and the numbers below 2
+		if (n < 2)
+			return false;
+		if ((n & 1) == 0)
+			return n == 2;
+
+		// Check for divisibility by small primes
+		for (long prime : SMALL_PRIMES) {
+			if (n == prime)
+				return true;
+			if (n % prime == 0)
+				return false;
+		}
+		if (n < 53 * 53)
+			return true;
+
+		// Decompose n - 1 = d * 2^s with an odd d
+		final long nMinusOne = n - 1;
+		final int s = Long.numberOfTrailingZeros(nMinusOne);
+		final long d = nMinusOne >>> s;
+
+		// Prepare the Montgomery arithmetic modulo n with R = 2^64
+		final long negatedInverse = -inverse(n);
+		final long one = Long.remainderUnsigned(-1L, n) + 1; // 2^64 mod n, as n does not divide 2^64
+		final long minusOne = n - one;
+		long rSquared = one;
+		for (int i = 0; i < Long.SIZE; i++)
+			rSquared = addMod(rSquared, rSquared, n);
+
+		// Run the test for each witness
+		for (long witness : WITNESSES) {
+			final long a = witness % n;
+			if (a == 0)
+				continue;
+
+			long x = pow(multiply(a, rSquared, n, negatedInverse), d, one, n, negatedInverse);
+			if (x == one || x == minusOne)
+				continue;
+
+			boolean isWitnessOfCompositeness = true;
+			for (int r = 1; r < s; r++) {
+				x = multiply(x, x, n, negatedInverse);
+				if (x == minusOne) {
+					isWitnessOfCompositeness = false;
+					break;
+				}
+			}
+			if (isWitnessOfCompositeness)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Calculate the inverse of an odd number modulo 2^64 via Newton's method.
+	 */
+	private static long inverse(final long n) {
+		long inverse = n; // correct to 3 bits, each iteration doubles the number of correct bits
+		for (int i = 0; i < 5; i++)
+			inverse *= 2 - n * inverse;
+		return inverse;
+	}
+
+	/**
+	 * Calculate {@code (a + b) mod n} for {@code a, b < n < 2^63} without overflow.
+	 */
+	private static long addMod(final long a, final long b, final long n) {
+		final long sum = a + b;
+		return Long.compareUnsigned(sum, n) >= 0 ? sum - n : sum;
+	}
+
+	/**
+	 * Calculate the Montgomery product {@code a * b / 2^64 mod n} for {@code a, b < n < 2^63}.
+	 */
+	private static long multiply(final long a, final long b, final long n, final long negatedInverse) {
+		final long high = multiplyHigh(a, b);
+		final long low = a * b;
+
+		// Add a multiple of n that clears the lower 64 bits and keep the upper 64 bits
+		final long m = low * negatedInverse;
+		final long mnHigh = multiplyHigh(m, n) + ((m >> 63) & n);
+		final long result = high + mnHigh + (low != 0 ? 1 : 0);
+		return Long.compareUnsigned(result, n) >= 0 ? result - n : result;
+	}
+
+	/**
+	 * Calculate {@code base^exponent} in Montgomery form.
+	 */
+	private static long pow(long base, long exponent, final long one, final long n, final long negatedInverse) {
+		long result = one;
+		while (exponent > 0) {
+			if ((exponent & 1) != 0)
+				result = multiply(result, base, n, negatedInverse);
+			base = multiply(base, base, n, negatedInverse);
+			exponent >>>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Calculate the upper 64 bits of the signed 128 bit product of two numbers (as {@code Math.multiplyHigh} in
+	 * Java 9+).
+	 */
+	private static long multiplyHigh(final long x, final long y) {
+		final long x1 = x >> 32, x2 = x & 0xFFFFFFFFL;
+		final long y1 = y >> 32, y2 = y & 0xFFFFFFFFL;
+		final long z2 = x2 * y2;
+		final long t = x1 * y2 + (z2 >>> 32);
+		long z1 = t & 0xFFFFFFFFL;
+		final long z0 = t >> 32;
+		z1 += x2 * y1;
+		return x1 * y1 + z0 + (z1 >> 32);
+	}
+}
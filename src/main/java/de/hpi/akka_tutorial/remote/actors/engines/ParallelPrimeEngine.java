@@ -0,0 +1,146 @@
+package de.hpi.akka_tutorial.remote.actors.engines;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link PrimeEngine} that splits each range into slices and checks them in parallel on a {@link ForkJoinPool} with
+ * one thread per core. Every pool thread runs its own instance of a sequential engine, because engines cache state,
+ * such as the base primes of the sieve. The primes of the slices are handed to the consumer slice by slice in
+ * ascending order as soon as all preceding slices are complete, so that a {@link de.hpi.akka_tutorial.remote.actors.Worker}
+ * keeps on streaming its results; only a bounded number of slices is in flight at once to limit the buffered primes.
+ * The slices are sized by the cost per number that the engine measured in the previous range, because that cost spans
+ * orders of magnitude between the sequential engines and the magnitudes of the numbers.
+ */
+public class ParallelPrimeEngine implements PrimeEngine {
+
+	/**
+	 * {@link PrimeEngine.Factory} implementation for the {@link ParallelPrimeEngine}.
+	 */
+	public static class Factory implements PrimeEngine.Factory {
+
+		private static final long serialVersionUID = -2034391466618712598L;
+
+		private PrimeEngine.Factory sequentialPrimeEngineFactory;
+
+		/**
+		 * Construct a new {@link Factory} object.
+		 *
+		 * @param sequentialPrimeEngineFactory creates the engines that check the individual slices
+		 */
+		public Factory(final PrimeEngine.Factory sequentialPrimeEngineFactory) {
+			this.sequentialPrimeEngineFactory = sequentialPrimeEngineFactory;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private Factory() {
+		}
+
+		@Override
+		public ParallelPrimeEngine create() {
+			return new ParallelPrimeEngine(this.sequentialPrimeEngineFactory);
+		}
+	}
+
+	// Slices must take long enough to amortize their scheduling and the setup of the sequential engines, e.g., walking
+	// the sieve's base primes
+	private static final long MIN_SLICE_NANOS = 1_000_000;
+
+	private static final long MIN_SLICE_SIZE = 1 << 10;
+
+	// The number of slices per pool thread that a range is split into and that may be in flight at once
+	private static final int SLICES_PER_THREAD = 4, SLICES_IN_FLIGHT_PER_THREAD = 2;
+
+	// The pool is shared by all workers of this actor system, so that they do not use more threads than there are cores
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	// The sequential engine of each pool thread (and of the calling thread for small ranges)
+	private final ThreadLocal<PrimeEngine> sequentialPrimeEngine;
+
+	// The time that a thread took per number in the previous range, or 0 before the first range, which is not split
+	private double nanosPerNumber = 0;
+
+	/**
+	 * Construct a new {@link ParallelPrimeEngine} object.
+	 *
+	 * @param sequentialPrimeEngineFactory creates the engines that check the individual slices
+	 */
+	public ParallelPrimeEngine(final PrimeEngine.Factory sequentialPrimeEngineFactory) {
+		this.sequentialPrimeEngine = ThreadLocal.withInitial(sequentialPrimeEngineFactory::create);
+	}
+
+	@Override
+	public void discoverPrimes(final long rangeMin, final long rangeMax, final LongConsumer primeConsumer) {
+		final int numThreads = POOL.getParallelism();
+		final double rangeSize = (double) rangeMax - rangeMin + 1;
+		final double minSliceSize = this.nanosPerNumber == 0 ? Double.POSITIVE_INFINITY : Math.max(MIN_SLICE_SIZE, MIN_SLICE_NANOS / this.nanosPerNumber);
+		final int numSlices = (int) Math.min(numThreads * SLICES_PER_THREAD, Math.floor(rangeSize / minSliceSize));
+
+		// Cheap ranges are not worth the overhead
+		if (numSlices <= 1) {
+			final long startNanos = System.nanoTime();
+			this.sequentialPrimeEngine.get().discoverPrimes(rangeMin, rangeMax, primeConsumer);
+			this.nanosPerNumber = (System.nanoTime() - startNanos) / rangeSize;
+			return;
+		}
+
+		// Keep a window of slices in flight and emit the oldest one as soon as it is complete
+		final LongAdder busyNanos = new LongAdder();
+		final Deque<ForkJoinTask<long[]>> slicesInFlight = new ArrayDeque<>();
+		int nextSlice = 0;
+		while (nextSlice < numSlices || !slicesInFlight.isEmpty()) {
+			while (nextSlice < numSlices && slicesInFlight.size() < numThreads * SLICES_IN_FLIGHT_PER_THREAD) {
+				final long sliceMin = rangeMin + (long) (rangeSize * nextSlice / numSlices);
+				final long sliceMax = nextSlice + 1 == numSlices ? rangeMax : rangeMin + (long) (rangeSize * (nextSlice + 1) / numSlices) - 1;
+				slicesInFlight.addLast(POOL.submit(() -> this.discoverSlice(sliceMin, sliceMax, busyNanos)));
+				nextSlice++;
+			}
+
+			final long[] primes = join(slicesInFlight.removeFirst());
+			for (long prime : primes)
+				primeConsumer.accept(prime);
+		}
+		this.nanosPerNumber = busyNanos.sum() / rangeSize;
+	}
+
+	@Override
+	public long getCalibrationCeiling() {
+		return this.sequentialPrimeEngine.get().getCalibrationCeiling();
+	}
+
+	/**
+	 * Collect the primes of a slice with the sequential engine of the current thread and add the time it took.
+	 */
+	private long[] discoverSlice(final long sliceMin, final long sliceMax, final LongAdder busyNanos) {
+		final long startNanos = System.nanoTime();
+		final long[][] primes = {new long[1024]};
+		final int[] numPrimes = {0};
+		this.sequentialPrimeEngine.get().discoverPrimes(sliceMin, sliceMax, prime -> {
+			if (numPrimes[0] == primes[0].length)
+				primes[0] = Arrays.copyOf(primes[0], 2 * primes[0].length);
+			primes[0][numPrimes[0]++] = prime;
+		});
+		busyNanos.add(System.nanoTime() - startNanos);
+		return Arrays.copyOf(primes[0], numPrimes[0]);
+	}
+
+	private static long[] join(final ForkJoinTask<long[]> slice) {
+		try {
+			return slice.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a slice.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Could not check a slice.", e.getCause());
+		}
+	}
+}
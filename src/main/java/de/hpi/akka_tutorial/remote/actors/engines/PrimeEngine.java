@@ -0,0 +1,47 @@
+package de.hpi.akka_tutorial.remote.actors.engines;
+
+import java.io.Serializable;
+import java.util.function.LongConsumer;
+
+import de.hpi.akka_tutorial.remote.actors.Worker;
+
+/**
+ * A prime engine discovers the primes in a range of numbers on behalf of a {@link Worker}.
+ */
+public interface PrimeEngine {
+
+	/**
+	 * A factory for a {@link PrimeEngine}. Factories are shipped to remote actor systems as part of the
+	 * {@link Worker}'s props, hence, they must be serializable.
+	 */
+	interface Factory extends Serializable {
+
+		/**
+		 * Create a new {@link PrimeEngine}.
+		 *
+		 * @return the new {@link PrimeEngine}
+		 */
+		PrimeEngine create();
+
+	}
+
+	/**
+	 * Discover all primes in the given range and hand them to the given consumer in ascending order.
+	 *
+	 * @param rangeMin first number in the range to be checked as prime (inclusive)
+	 * @param rangeMax last number in the range to be checked as prime (inclusive)
+	 * @param primeConsumer receives the discovered primes
+	 */
+	void discoverPrimes(final long rangeMin, final long rangeMax, final LongConsumer primeConsumer);
+
+	/**
+	 * The largest number that a {@link CostModel} should sample when it calibrates this engine. Engines whose cached
+	 * state grows with the magnitude of the numbers should not be calibrated beyond the numbers they are used for; the
+	 * model extrapolates beyond its largest sample anyway.
+	 *
+	 * @return the largest number to be sampled
+	 */
+	default long getCalibrationCeiling() {
+		return Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,172 @@
+package de.hpi.akka_tutorial.remote.actors.engines;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link PrimeEngine} that runs a segmented Sieve of Eratosthenes over the requested range. The engine caches the
+ * base primes up to the square root of the largest number seen so far and sieves the range in segments whose bitmap
+ * fits into the L1 cache. Only odd numbers are represented in the bitmap.
+ */
+public class SegmentedSievePrimeEngine implements PrimeEngine {
+
+	/**
+	 * {@link PrimeEngine.Factory} implementation for the {@link SegmentedSievePrimeEngine}.
+	 */
+	public static class Factory implements PrimeEngine.Factory {
+
+		private static final long serialVersionUID = 6009561720961935213L;
+
+		@Override
+		public SegmentedSievePrimeEngine create() {
+			return new SegmentedSievePrimeEngine();
+		}
+	}
+
+	// The size of the segment bitmap in 64 bit words, i.e., 32 KiB
+	private static final int SEGMENT_WORDS = 4096;
+
+	// The number of odd numbers that are covered by one segment
+	static final int SEGMENT_BITS = SEGMENT_WORDS * Long.SIZE;
+
+	// The square root of Long.MAX_VALUE, rounded down
+	private static final long MAX_SQRT = 3_037_000_499L;
+
+	// The odd base primes in ascending order; only the first numBasePrimes entries are valid
+	private long[] basePrimes = new long[0];
+
+	private int numBasePrimes = 0;
+
+	// All primes up to this number are contained in the base primes
+	private long basePrimeLimit = 0;
+
+	// The reusable bitmap of the current segment; a set bit marks a composite number
+	private final long[] segment = new long[SEGMENT_WORDS];
+
+	@Override
+	public void discoverPrimes(final long rangeMin, final long rangeMax, final LongConsumer primeConsumer) {
+
+		// There are no primes below 2
+		final long low = Math.max(rangeMin, 2);
+		if (low > rangeMax)
+			return;
+
+		// Make sure that we know all base primes that are needed to sieve the range
+		this.ensureBasePrimes(sqrtFloor(rangeMax));
+
+		// The only even prime is not represented in the segments
+		if (low == 2)
+			primeConsumer.accept(2);
+
+		// Sieve the range segment by segment, starting at the first odd number
+		long segmentLow = low | 1;
+		while (segmentLow <= rangeMax && segmentLow > 0) {
+			final long remainingOdds = (rangeMax - segmentLow) / 2 + 1;
+			final int segmentBits = (int) Math.min(SEGMENT_BITS, remainingOdds);
+			final long segmentHigh = segmentLow + 2L * (segmentBits - 1);
+
+			this.sieveSegment(segmentLow, segmentHigh, segmentBits);
+			this.emitSegment(segmentLow, segmentBits, primeConsumer);
+
+			segmentLow = segmentHigh + 2;
+		}
+	}
+
+	@Override
+	public long getCalibrationCeiling() {
+
+		// Calibrating at larger numbers would cache base primes that the adaptive engine never needs
+		return AdaptivePrimeEngine.MAX_SIEVE_NUMBER;
+	}
+
+	/**
+	 * Mark all odd composite numbers in {@code [segmentLow, segmentHigh]} in the segment bitmap.
+	 */
+	private void sieveSegment(final long segmentLow, final long segmentHigh, final int segmentBits) {
+		Arrays.fill(this.segment, 0, (segmentBits + Long.SIZE - 1) / Long.SIZE, 0L);
+
+		for (int i = 0; i < this.numBasePrimes; i++) {
+			final long prime = this.basePrimes[i];
+			final long square = prime * prime;
+			if (square > segmentHigh)
+				break;
+
+			// Find the first odd multiple of the prime within the segment that is not smaller than its square
+			long firstMultiple;
+			if (square >= segmentLow) {
+				firstMultiple = square;
+			} else {
+				final long remainder = segmentLow % prime;
+				long offset = remainder == 0 ? 0 : prime - remainder;
+				if (((segmentLow + offset) & 1) == 0)
+					offset += prime;
+				if (offset > segmentHigh - segmentLow)
+					continue;
+				firstMultiple = segmentLow + offset;
+			}
+
+			// Odd multiples are 2 * prime apart, i.e., prime bits in the bitmap
+			for (long bit = (firstMultiple - segmentLow) >>> 1; bit < segmentBits; bit += prime)
+				this.segment[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Hand all numbers of the segment that were not marked as composite to the consumer.
+	 */
+	private void emitSegment(final long segmentLow, final int segmentBits, final LongConsumer primeConsumer) {
+		for (int word = 0; word * Long.SIZE < segmentBits; word++) {
+			long candidates = ~this.segment[word];
+			final int wordBits = Math.min(Long.SIZE, segmentBits - word * Long.SIZE);
+			if (wordBits < Long.SIZE)
+				candidates &= (1L << wordBits) - 1;
+
+			while (candidates != 0) {
+				final int bit = Long.numberOfTrailingZeros(candidates);
+				primeConsumer.accept(segmentLow + 2L * (word * Long.SIZE + bit));
+				candidates &= candidates - 1;
+			}
+		}
+	}
+
+	/**
+	 * Make sure that the base primes contain all odd primes up to the given limit.
+	 */
+	private void ensureBasePrimes(final long limit) {
+		if (limit <= this.basePrimeLimit)
+			return;
+
+		// Grow the cache geometrically, so that ascending subqueries do not rebuild it each time
+		final long target = Math.min(MAX_SQRT, Math.max(limit, 2 * this.basePrimeLimit));
+
+		// Run a plain sieve over the odd numbers up to the target
+		final int numOdds = (int) ((target - 1) / 2);
+		final long[] composites = new long[(numOdds + Long.SIZE) / Long.SIZE];
+		final long[] primes = new long[Math.max(16, (int) (1.3 * target / Math.max(1, Math.log(target))))];
+		int count = 0;
+		for (int i = 1; i <= numOdds; i++) {
+			if ((composites[i >>> 6] & (1L << i)) != 0)
+				continue;
+			final long prime = 2L * i + 1;
+			primes[count++] = prime;
+			for (long j = (prime * prime - 1) / 2; j <= numOdds; j += prime)
+				composites[(int) (j >>> 6)] |= 1L << j;
+		}
+
+		this.basePrimes = primes;
+		this.numBasePrimes = count;
+		this.basePrimeLimit = target;
+	}
+
+	/**
+	 * Calculate the floor of the square root of a non-negative number.
+	 */
+	static long sqrtFloor(final long n) {
+		long root = Math.min((long) Math.sqrt((double) n), MAX_SQRT);
+		while (root * root > n)
+			root--;
+		while (root < MAX_SQRT && (root + 1) * (root + 1) <= n)
+			root++;
+		return root;
+	}
+}
@@ -0,0 +1,56 @@
+package de.hpi.akka_tutorial.remote.actors.engines;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link PrimeEngine} that tests each number of a range individually by trial division.
+ */
+public class TrialDivisionPrimeEngine implements PrimeEngine {
+
+	/**
+	 * {@link PrimeEngine.Factory} implementation for the {@link TrialDivisionPrimeEngine}.
+	 */
+	public static class Factory implements PrimeEngine.Factory {
+
+		private static final long serialVersionUID = -2357096416342364786L;
+
+		@Override
+		public TrialDivisionPrimeEngine create() {
+			return new TrialDivisionPrimeEngine();
+		}
+	}
+
+	@Override
+	public void discoverPrimes(final long rangeMin, final long rangeMax, final LongConsumer primeConsumer) {
+		for (long i = rangeMin; i <= rangeMax; i++) {
+			if (isPrime(i))
+				primeConsumer.accept(i);
+
+			// Avoid an overflow of the loop variable at the end of the number space
+			if (i == Long.MAX_VALUE)
+				break;
+		}
+	}
+
+	public static boolean isPrime(long n) {
+		
+		// Check for the numbers below 2, which are no primes by definition
+		if (n < 2)
+			return false;
+
+		// Check for the most basic primes
+		if (n == 2 || n == 3)
+			return true;
+
+		// Check if n is an even number
+		if (n % 2 == 0)
+			return false;
+
+		// Check the odds
+		for (long i = 3; i * i <= n; i += 2)
+			if (n % i == 0)
+				return false;
+		
+		return true;
+	}
+}
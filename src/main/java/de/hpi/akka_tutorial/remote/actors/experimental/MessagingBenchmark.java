@@ -0,0 +1,344 @@
+package de.hpi.akka_tutorial.remote.actors.experimental;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.AbstractActor;
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
+import de.hpi.akka_tutorial.util.AkkaUtils;
+import de.hpi.akka_tutorial.util.LatencyHistogram;
+import scala.concurrent.Await;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Measures the latency and throughput of actor messaging in three scenarios:
+ * <ul>
+ * <li><b>ping-pong</b>: a driver sends payloads to an echo actor, which returns them;</li>
+ * <li><b>chain</b>: a payload travels along a chain of {@link Forewarder}s and back to the driver;</li>
+ * <li><b>fan-out</b>: the driver sends each payload to several echo actors at once.</li>
+ * </ul>
+ * Each scenario runs either within a single actor system or across two actor systems in this JVM that talk via the
+ * loopback interface. In the latter case, the echo actors live in the peer system and the links of the chain alternate
+ * between both systems, so that all hops but at most the first go through the remoting.
+ * <p>
+ * The driver keeps a fixed number of operations in flight and records the round-trip time of every reply in a
+ * {@link LatencyHistogram}. To that end, the first 8 bytes of each payload carry its send time. After a warmup, it
+ * measures a fixed number of operations. The dispatcher and its throughput setting are configurable; any other setting,
+ * e.g., of the remoting, can be overridden with a {@code -D} system property.
+ */
+public class MessagingBenchmark {
+
+	/**
+	 * The command line options of the benchmark.
+	 */
+	static class Options {
+
+		@Parameter(names = {"-h", "--host"}, description = "the host to bind the actor systems to")
+		String host = "127.0.0.1";
+
+		@Parameter(names = {"-p", "--port"}, description = "the port of the first actor system; the peer system uses the next port")
+		int port = 7887;
+
+		@Parameter(names = {"--transports"}, description = "the transports to measure (local, remote)")
+		List<String> transports = Arrays.asList("local", "remote");
+
+		@Parameter(names = {"--scenarios"}, description = "the scenarios to measure (ping-pong, chain, fan-out)")
+		List<String> scenarios = Arrays.asList("ping-pong", "chain", "fan-out");
+
+		@Parameter(names = {"--payloads"}, description = "the payload sizes in bytes, at least 8; remote runs skip payloads that exceed the maximum frame size of the remoting")
+		List<Integer> payloadSizes = Arrays.asList(16, 1024, 16384);
+
+		@Parameter(names = {"--dispatcher"}, description = "the dispatcher of the benchmark actors, e.g., compute-dispatcher")
+		String dispatcher = "akka.actor.default-dispatcher";
+
+		@Parameter(names = {"--throughput"}, description = "the number of messages that an actor may process before the dispatcher moves on (default: as configured)")
+		int throughput = 0;
+
+		@Parameter(names = {"--chain-length"}, description = "the number of links in the chain")
+		int chainLength = 10;
+
+		@Parameter(names = {"--fan-out"}, description = "the number of echo actors in the fan-out")
+		int fanOut = 8;
+
+		@Parameter(names = {"--in-flight"}, description = "the number of operations that the driver keeps in flight")
+		int numInFlight = 1;
+
+		@Parameter(names = {"--warmup"}, description = "the number of operations before the measurement")
+		long numWarmupOperations = 20_000;
+
+		@Parameter(names = {"--operations"}, description = "the number of measured operations")
+		long numOperations = 100_000;
+	}
+
+	/**
+	 * Returns every payload to its sender.
+	 */
+	public static class Echo extends AbstractActor {
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.match(byte[].class, payload -> this.getSender().tell(payload, this.getSelf()))
+					.build();
+		}
+	}
+
+	/**
+	 * Asks the {@link Driver} to run its operations and to answer with a {@link ResultMessage}.
+	 */
+	private static class StartMessage {
+	}
+
+	/**
+	 * The measurements of a {@link Driver}.
+	 */
+	private static class ResultMessage {
+
+		private final LatencyHistogram latencies;
+
+		private final long nanos;
+
+		private ResultMessage(final LatencyHistogram latencies, final long nanos) {
+			this.latencies = latencies;
+			this.nanos = nanos;
+		}
+	}
+
+	/**
+	 * Sends each operation's payload to its targets and waits for a number of replies per operation, keeping a fixed
+	 * number of operations in flight.
+	 */
+	private static class Driver extends AbstractLoggingActor {
+
+		private final List<ActorRef> targets;
+
+		private final int repliesPerOperation, payloadSize, numInFlight;
+
+		private final long numWarmupOperations, numOperations;
+
+		private final LatencyHistogram latencies = new LatencyHistogram();
+
+		// The actor that started the driver and awaits its results
+		private ActorRef starter;
+
+		private long numSentOperations = 0, numReplies = 0, startNanos;
+
+		private Driver(final List<ActorRef> targets, final int repliesPerOperation, final Options options, final int payloadSize) {
+			this.targets = targets;
+			this.repliesPerOperation = repliesPerOperation;
+			this.payloadSize = payloadSize;
+			this.numInFlight = options.numInFlight;
+			this.numWarmupOperations = options.numWarmupOperations;
+			this.numOperations = options.numOperations;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.match(StartMessage.class, this::handle)
+					.match(byte[].class, this::handle)
+					.matchAny(object -> this.log().info(this.getClass().getName() + " received unknown message: " + object.toString()))
+					.build();
+		}
+
+		private void handle(StartMessage message) {
+			this.starter = this.getSender();
+			this.startNanos = System.nanoTime();
+			for (int i = 0; i < this.numInFlight; i++)
+				this.send();
+		}
+
+		private void handle(byte[] payload) {
+			final long nanos = System.nanoTime();
+			final long numWarmupReplies = this.numWarmupOperations * this.repliesPerOperation;
+			this.numReplies++;
+			if (this.numReplies > numWarmupReplies)
+				this.latencies.record(nanos - ByteBuffer.wrap(payload).getLong(0));
+			else if (this.numReplies == numWarmupReplies)
+				this.startNanos = nanos;
+
+			// Replace each completed operation with a new one
+			if (this.numReplies % this.repliesPerOperation == 0)
+				this.send();
+			if (this.numReplies == (this.numWarmupOperations + this.numOperations) * this.repliesPerOperation)
+				this.starter.tell(new ResultMessage(this.latencies, nanos - this.startNanos), this.getSelf());
+		}
+
+		private void send() {
+			if (this.numSentOperations == this.numWarmupOperations + this.numOperations)
+				return;
+			this.numSentOperations++;
+
+			// Local receivers share the payload, so it must not be modified after sending it
+			final byte[] payload = new byte[this.payloadSize];
+			ByteBuffer.wrap(payload).putLong(0, System.nanoTime());
+			for (ActorRef target : this.targets)
+				target.tell(payload, this.getSelf());
+		}
+	}
+
+	private static final FiniteDuration TIMEOUT = FiniteDuration.create(10, TimeUnit.MINUTES);
+
+	private static final String MAX_FRAME_SIZE_PATH = "akka.remote.netty.tcp.maximum-frame-size";
+
+	// A generous estimate of the bytes that the remoting adds to a payload, e.g., for the actor paths
+	private static final int FRAME_OVERHEAD = 1024;
+
+	public static void main(String[] args) throws Exception {
+		final Options options = new Options();
+		final JCommander jCommander = JCommander.newBuilder().addObject(options).build();
+		try {
+			jCommander.parse(args);
+			for (int payloadSize : options.payloadSizes)
+				if (payloadSize < Long.BYTES)
+					throw new ParameterException(String.format("Payloads must have at least %d bytes.", Long.BYTES));
+			if (options.chainLength <= 0 || options.fanOut <= 0 || options.numInFlight <= 0 || options.numOperations <= 0)
+				throw new ParameterException("The chain length, fan-out, operations in flight, and operations must be positive.");
+		} catch (ParameterException e) {
+			System.out.printf("Could not parse args: %s\n", e.getMessage());
+			jCommander.usage();
+			System.exit(1);
+		}
+
+		System.out.printf("%-9s %-10s %8s %12s %14s %10s %10s %10s %10s %10s%n", "transport", "scenario", "payload",
+				"operations", "messages/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+		for (String transport : options.transports) {
+			final boolean isRemote;
+			switch (transport) {
+				case "local":
+					isRemote = false;
+					break;
+				case "remote":
+					isRemote = true;
+					break;
+				default:
+					throw new IllegalArgumentException(String.format("Unknown transport: %s", transport));
+			}
+
+			final ActorSystem home = ActorSystem.create("MessagingBenchmark", createConfig(options, options.port, isRemote));
+			final ActorSystem peer = isRemote ? ActorSystem.create("MessagingBenchmarkPeer", createConfig(options, options.port + 1, true)) : home;
+			try {
+				for (String scenario : options.scenarios) {
+					for (int payloadSize : options.payloadSizes) {
+
+						// The remoting drops oversized messages, so the driver would wait for their replies in vain
+						if (isRemote && payloadSize + FRAME_OVERHEAD > home.settings().config().getBytes(MAX_FRAME_SIZE_PATH)) {
+							System.out.printf("%-9s %-10s %8d skipped: exceeds %s%n", transport, scenario, payloadSize, MAX_FRAME_SIZE_PATH);
+							continue;
+						}
+						run(home, peer, transport, scenario, payloadSize, options);
+					}
+				}
+			} finally {
+				home.terminate();
+				peer.terminate();
+				Await.ready(home.whenTerminated(), TIMEOUT);
+				Await.ready(peer.whenTerminated(), TIMEOUT);
+			}
+		}
+	}
+
+	/**
+	 * Set up a scenario, run its driver, and print its measurements.
+	 */
+	private static void run(ActorSystem home, ActorSystem peer, String transport, String scenario, int payloadSize,
+							Options options) throws Exception {
+		final List<ActorRef> actors = new ArrayList<>();
+		final List<ActorRef> targets;
+		final int repliesPerOperation, messagesPerOperation;
+		ActorRef driver;
+		switch (scenario) {
+			case "ping-pong":
+				actors.add(spawn(home, peer, Props.create(Echo.class).withDispatcher(options.dispatcher)));
+				targets = actors;
+				repliesPerOperation = 1;
+				messagesPerOperation = 2;
+				driver = spawn(home, home, driverProps(targets, repliesPerOperation, options, payloadSize));
+				break;
+			case "fan-out":
+				for (int i = 0; i < options.fanOut; i++)
+					actors.add(spawn(home, peer, Props.create(Echo.class).withDispatcher(options.dispatcher)));
+				targets = actors;
+				repliesPerOperation = options.fanOut;
+				messagesPerOperation = 2 * options.fanOut;
+				driver = spawn(home, home, driverProps(targets, repliesPerOperation, options, payloadSize));
+				break;
+			case "chain":
+				for (int i = 0; i < options.chainLength; i++)
+					actors.add(spawn(home, (options.chainLength - i) % 2 == 1 ? peer : home, Forewarder.props(options.dispatcher)));
+				targets = actors.subList(0, 1);
+				repliesPerOperation = 1;
+				messagesPerOperation = options.chainLength + 1;
+				driver = spawn(home, home, driverProps(targets, repliesPerOperation, options, payloadSize));
+
+				// Link the chain and wait for the acknowledgements, so that no payload overtakes a link
+				for (int i = 0; i < actors.size(); i++) {
+					final ActorRef next = i + 1 < actors.size() ? actors.get(i + 1) : driver;
+					Await.result(Patterns.ask(actors.get(i), next, Timeout.apply(TIMEOUT)), TIMEOUT);
+				}
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown scenario: %s", scenario));
+		}
+
+		try {
+			final ResultMessage result = (ResultMessage) Await.result(
+					Patterns.ask(driver, new StartMessage(), Timeout.apply(TIMEOUT)), TIMEOUT);
+			final LatencyHistogram latencies = result.latencies;
+			System.out.printf("%-9s %-10s %8d %,12d %,14.0f %,10.1f %,10.1f %,10.1f %,10.1f %,10.1f%n", transport, scenario,
+					payloadSize, options.numOperations, options.numOperations * messagesPerOperation / (result.nanos / 1e9),
+					latencies.percentile(0.5) / 1e3, latencies.percentile(0.9) / 1e3, latencies.percentile(0.99) / 1e3,
+					latencies.percentile(0.999) / 1e3, latencies.max() / 1e3);
+		} finally {
+			driver.tell(PoisonPill.getInstance(), ActorRef.noSender());
+			for (ActorRef actor : actors)
+				actor.tell(PoisonPill.getInstance(), ActorRef.noSender());
+		}
+	}
+
+	private static Props driverProps(List<ActorRef> targets, int repliesPerOperation, Options options, int payloadSize) {
+		return Props.create(Driver.class, () -> new Driver(targets, repliesPerOperation, options, payloadSize))
+				.withDispatcher(options.dispatcher);
+	}
+
+	/**
+	 * Create an actor in an actor system and reference it from the home actor system. If the two systems differ, the
+	 * reference is resolved via the remoting, so that all messages from the home system take the remote path.
+	 */
+	private static ActorRef spawn(ActorSystem home, ActorSystem system, Props props) throws Exception {
+		final ActorRef actor = system.actorOf(props);
+		if (system == home)
+			return actor;
+		final String address = ((ExtendedActorSystem) system).provider().getDefaultAddress().toString();
+		return Await.result(home.actorSelection(address + actor.path().toStringWithoutAddress()).resolveOne(TIMEOUT), TIMEOUT);
+	}
+
+	/**
+	 * Create the config of a benchmark actor system. Local actor systems skip the remoting altogether.
+	 */
+	private static Config createConfig(Options options, int port, boolean isRemote) {
+		Config config = AkkaUtils.createRemoteAkkaConfig(options.host, port);
+		if (!isRemote)
+			config = ConfigFactory.parseString("akka.actor.provider = local").withFallback(config);
+		if (options.throughput > 0)
+			config = ConfigFactory.parseString(String.format("%s.throughput = %d", options.dispatcher, options.throughput))
+					.withFallback(config);
+		return ConfigFactory.systemProperties().withFallback(config);
+	}
+}
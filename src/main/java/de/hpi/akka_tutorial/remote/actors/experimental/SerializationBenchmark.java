@@ -0,0 +1,151 @@
+package de.hpi.akka_tutorial.remote.actors.experimental;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.util.Timeout;
+import de.hpi.akka_tutorial.remote.actors.Listener;
+import de.hpi.akka_tutorial.remote.actors.Master;
+import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.remote.actors.engines.SegmentedSievePrimeEngine;
+import de.hpi.akka_tutorial.remote.serialization.ProtocolKryoSerializer;
+import de.hpi.akka_tutorial.util.AkkaUtils;
+import scala.concurrent.Await;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Compares Java serialization against our protocol serializers on a master-slave loopback: For each message type, it
+ * reports the serialized size and how many messages per second a sender actor system can push to a sink actor in a
+ * second actor system on the same host.
+ */
+public class SerializationBenchmark {
+
+	/**
+	 * Counts the received messages and tells the asker once the expected total has arrived.
+	 */
+	public static class Sink extends AbstractActor {
+
+		private long numReceived = 0, numExpected = Long.MAX_VALUE;
+
+		private ActorRef asker;
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.match(Long.class, expected -> {
+						this.numExpected = expected;
+						this.asker = this.getSender();
+						this.checkCompletion();
+					})
+					.matchAny(message -> {
+						this.numReceived++;
+						this.checkCompletion();
+					})
+					.build();
+		}
+
+		private void checkCompletion() {
+			if (this.asker != null && this.numReceived >= this.numExpected) {
+				this.asker.tell(this.numReceived, this.getSelf());
+				this.asker = null;
+			}
+		}
+	}
+
+	private static final FiniteDuration TIMEOUT = FiniteDuration.create(5, TimeUnit.MINUTES);
+
+	// Wait for the sink after this many messages, so that the remoting buffers do not overflow
+	private static final int WINDOW_SIZE = 1000;
+
+	public static void main(String[] args) throws Exception {
+		final String host = args.length > 0 ? args[0] : "127.0.0.1";
+		final int port = args.length > 1 ? Integer.parseInt(args[1]) : 7887;
+		final int numMessages = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+		// Create representative messages of a master-slave conversation
+		final List<Long> primes = new ArrayList<>();
+		new SegmentedSievePrimeEngine().discoverPrimes(1_000_000_000_000L, 1_000_000_099_999L, primes::add);
+		final Object[] messages = {
+				new Master.RangeMessage(1, 1_000_000_000_000L),
+				new Worker.ValidationMessage(42, 1_000_000_000_000L, 1_000_000_099_999L),
+				new Master.PrimesMessage(42, primes.stream().mapToLong(Long::longValue).toArray(), true)
+		};
+
+		for (boolean useJavaSerialization : new boolean[] {true, false}) {
+			final String mode = useJavaSerialization ? "java" : "protocol";
+			final ActorSystem master = ActorSystem.create("BenchmarkMaster", createConfig(host, port, useJavaSerialization));
+			final ActorSystem slave = ActorSystem.create("BenchmarkSlave", createConfig(host, port + 2, useJavaSerialization));
+			try {
+				slave.actorOf(Props.create(Sink.class), "sink");
+				final ActorRef sink = Await.result(master
+						.actorSelection(new Address("akka.tcp", "BenchmarkSlave", host, port + 2) + "/user/sink")
+						.resolveOne(TIMEOUT), TIMEOUT);
+
+				final Serialization serialization = SerializationExtension.get(master);
+				long numSent = 0;
+				for (Object message : messages) {
+					final int numBytes = serialization.serialize(message).get().length;
+
+					// Warm up, then measure
+					numSent = send(sink, message, numMessages / 10, numSent);
+					final long startTime = System.nanoTime();
+					numSent = send(sink, message, numMessages, numSent);
+					final double seconds = (System.nanoTime() - startTime) / 1e9;
+
+					System.out.printf("%-8s %-18s %,8d bytes/message %,12.0f messages/s%n",
+							mode, message.getClass().getSimpleName(), numBytes, numMessages / seconds);
+				}
+			} finally {
+				master.terminate();
+				slave.terminate();
+				Await.ready(master.whenTerminated(), TIMEOUT);
+				Await.ready(slave.whenTerminated(), TIMEOUT);
+			}
+		}
+	}
+
+	/**
+	 * Send a number of copies of a message to the sink and wait until all of them have arrived.
+	 *
+	 * @return the total number of messages sent to the sink so far
+	 */
+	private static long send(ActorRef sink, Object message, int numMessages, long numSent) throws Exception {
+		for (int i = 0; i < numMessages; i++) {
+			sink.tell(message, ActorRef.noSender());
+			numSent++;
+			if (numSent % WINDOW_SIZE == 0 || i == numMessages - 1)
+				Await.result(Patterns.ask(sink, numSent, Timeout.apply(TIMEOUT)), TIMEOUT);
+		}
+		return numSent;
+	}
+
+	/**
+	 * Create the remote config of a benchmark actor system, optionally falling back to Java serialization for all
+	 * protocol messages.
+	 */
+	private static Config createConfig(String host, int port, boolean useJavaSerialization) {
+		final Config config = AkkaUtils.createRemoteAkkaConfig(host, port);
+		if (!useJavaSerialization)
+			return config;
+
+		final List<Class<?>> protocolClasses = new ArrayList<>(ProtocolKryoSerializer.PROTOCOL_CLASSES);
+		protocolClasses.add(Master.PrimesMessage.class);
+		protocolClasses.add(Listener.PrimesMessage.class);
+		final StringBuilder bindings = new StringBuilder();
+		for (Class<?> protocolClass : protocolClasses)
+			bindings.append(String.format("akka.actor.serialization-bindings.\"%s\" = java%n", protocolClass.getName()));
+		return ConfigFactory.parseString(bindings.toString()).withFallback(config);
+	}
+}
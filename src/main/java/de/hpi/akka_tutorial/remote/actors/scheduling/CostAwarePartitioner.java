@@ -0,0 +1,123 @@
+package de.hpi.akka_tutorial.remote.actors.scheduling;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import akka.actor.ActorRef;
+import de.hpi.akka_tutorial.remote.actors.engines.CostModel;
+
+/**
+ * Partitions ranges of numbers by their estimated cost rather than by their size. Each worker calibrates a
+ * {@link CostModel} of its prime engine on its machine; ranges that are not meant for a specific worker are estimated
+ * with the average of all models. As long as no worker has reported a model, all numbers are assumed to cost the same,
+ * i.e., ranges are split by size.
+ */
+public class CostAwarePartitioner {
+
+	// The cost models of the workers
+	private final Map<ActorRef, CostModel> worker2costModel = new HashMap<>();
+
+	/**
+	 * Register the cost model of a worker.
+	 *
+	 * @param worker the worker that calibrated the model
+	 * @param costModel the model
+	 */
+	public void calibrated(final ActorRef worker, final CostModel costModel) {
+		this.worker2costModel.put(worker, costModel);
+	}
+
+	/**
+	 * Forget the cost model of a worker that has been removed.
+	 *
+	 * @param worker the removed worker
+	 */
+	public void removed(final ActorRef worker) {
+		this.worker2costModel.remove(worker);
+	}
+
+	/**
+	 * Check whether a worker has reported its cost model.
+	 *
+	 * @param worker the worker
+	 * @return whether the worker's cost can be estimated
+	 */
+	public boolean isCalibrated(final ActorRef worker) {
+		return this.worker2costModel.containsKey(worker);
+	}
+
+	/**
+	 * Estimate how long a worker takes to check a range. If the worker has no cost model yet, the average of all models
+	 * is used.
+	 *
+	 * @param worker the worker or {@code null} for the average of all workers
+	 * @param startNumber first number of the range (inclusive)
+	 * @param endNumber last number of the range (inclusive)
+	 * @return the estimated time in nanoseconds or {@link Double#NaN} if no worker has reported a model yet
+	 */
+	public double estimateNanos(final ActorRef worker, final long startNumber, final long endNumber) {
+		final CostModel costModel = worker == null ? null : this.worker2costModel.get(worker);
+		if (costModel != null)
+			return costModel.estimateNanos(startNumber, endNumber);
+		if (this.worker2costModel.isEmpty())
+			return Double.NaN;
+
+		double nanos = 0;
+		for (CostModel workerCostModel : this.worker2costModel.values())
+			nanos += workerCostModel.estimateNanos(startNumber, endNumber);
+		return nanos / this.worker2costModel.size();
+	}
+
+	/**
+	 * Find the largest end number of a range with the given start, so that the worker is estimated to check the range
+	 * within the given time.
+	 *
+	 * @param worker the worker or {@code null} for the average of all workers
+	 * @param startNumber first number of the range (inclusive)
+	 * @param maxEndNumber the largest admissible end number
+	 * @param nanos the time budget
+	 * @return the end number (at least {@code startNumber}) or {@code -1} if no worker has reported a model yet
+	 */
+	public long findEndNumber(final ActorRef worker, final long startNumber, final long maxEndNumber, final double nanos) {
+		if (this.worker2costModel.isEmpty())
+			return -1;
+
+		// Binary search, as the cost grows monotonically with the end number
+		long low = startNumber, high = maxEndNumber;
+		while (low < high) {
+			final long middle = low + (high - low + 1) / 2;
+			if (this.estimateNanos(worker, startNumber, middle) <= nanos)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Split a range into parts of equal estimated cost for the average worker.
+	 *
+	 * @param startNumber first number of the range (inclusive)
+	 * @param endNumber last number of the range (inclusive)
+	 * @param numParts the number of parts
+	 * @return the last number of each part (inclusive) in ascending order; parts may be empty if the range is small
+	 */
+	public long[] split(final long startNumber, final long endNumber, final int numParts) {
+		final long[] endNumbers = new long[numParts];
+		final double totalNanos = this.estimateNanos(null, startNumber, endNumber);
+		long partStartNumber = startNumber;
+		for (int i = 0; i < numParts - 1; i++) {
+			if (Double.isNaN(totalNanos)) {
+				// Without cost models, split by size
+				endNumbers[i] = startNumber + (long) ((double) (endNumber - startNumber + 1) * (i + 1) / numParts) - 1;
+			} else {
+				// Search for the cumulative cost, so that estimation errors do not add up
+				endNumbers[i] = this.findEndNumber(null, startNumber, endNumber, totalNanos * (i + 1) / numParts);
+			}
+			endNumbers[i] = Math.max(endNumbers[i], partStartNumber - 1);
+			partStartNumber = endNumbers[i] + 1;
+		}
+		endNumbers[numParts - 1] = endNumber;
+		return endNumbers;
+	}
+}
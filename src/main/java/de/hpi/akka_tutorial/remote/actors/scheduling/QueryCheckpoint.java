@@ -0,0 +1,82 @@
+package de.hpi.akka_tutorial.remote.actors.scheduling;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.hpi.akka_tutorial.remote.actors.Worker;
+
+/**
+ * The progress of a single range query as captured by a {@link SchedulingStrategy}. All numbers of the query below the
+ * remaining range (the watermark) have been completed except for the open subqueries, i.e., subqueries that had been
+ * scheduled but not yet finished.
+ */
+public class QueryCheckpoint implements Serializable {
+
+	private static final long serialVersionUID = -2405873651436780117L;
+
+	private final int queryId;
+
+	private final List<Worker.ValidationMessage> openSubqueries;
+
+	private final long remainingStartNumber, remainingEndNumber;
+
+	private final int weight;
+
+	/**
+	 * Construct a new {@link QueryCheckpoint} object.
+	 *
+	 * @param queryId the ID of the query
+	 * @param openSubqueries the subqueries that were scheduled but not finished
+	 * @param remainingStartNumber first number of the range that was not yet scheduled (inclusive)
+	 * @param remainingEndNumber last number of the range that was not yet scheduled (inclusive)
+	 * @param weight the weight of the query
+	 */
+	public QueryCheckpoint(final int queryId, final List<Worker.ValidationMessage> openSubqueries, final long remainingStartNumber, final long remainingEndNumber,
+			final int weight) {
+		this.queryId = queryId;
+		this.openSubqueries = Collections.unmodifiableList(new ArrayList<>(openSubqueries));
+		this.remainingStartNumber = remainingStartNumber;
+		this.remainingEndNumber = remainingEndNumber;
+		this.weight = weight;
+	}
+
+	public int getQueryId() {
+		return this.queryId;
+	}
+
+	public int getWeight() {
+		return this.weight;
+	}
+
+	public List<Worker.ValidationMessage> getOpenSubqueries() {
+		return this.openSubqueries;
+	}
+
+	public long getRemainingStartNumber() {
+		return this.remainingStartNumber;
+	}
+
+	public long getRemainingEndNumber() {
+		return this.remainingEndNumber;
+	}
+
+	/**
+	 * Count the numbers that still have to be checked for this query.
+	 *
+	 * @return the number of unfinished numbers
+	 */
+	public long countUnfinishedNumbers() {
+		long count = Math.max(0, this.remainingEndNumber - this.remainingStartNumber + 1);
+		for (Worker.ValidationMessage subquery : this.openSubqueries)
+			count += subquery.getRangeMax() - subquery.getRangeMin() + 1;
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[query %d, weight %d, %d open subqueries, remaining %,d..%,d]", this.getClass().getSimpleName(),
+				this.queryId, this.weight, this.openSubqueries.size(), this.remainingStartNumber, this.remainingEndNumber);
+	}
+}
@@ -0,0 +1,125 @@
+package de.hpi.akka_tutorial.remote.actors.scheduling;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.hpi.akka_tutorial.remote.actors.Master;
+import de.hpi.akka_tutorial.remote.actors.Worker;
+
+/**
+ * A snapshot of all pending range queries of a master, so that it can resume them after a restart. The journal is a
+ * single file that is replaced atomically by each new snapshot.
+ * <p>
+ * File layout: {@code MAGIC, VERSION, nextQueryId, numQueries, query*} with
+ * {@code query = queryId, weight, remainingStartNumber, remainingEndNumber, numOpenSubqueries, (rangeMin, rangeMax)*}.
+ * Journals of version 1 lack the weight; their queries get the default weight.
+ */
+public class QueryJournal implements Serializable {
+
+	private static final long serialVersionUID = 6370284593829413851L;
+
+	public static final String FILE_NAME = "queries.journal";
+
+	private static final int MAGIC = 0x51524A4C; // "QRJL"
+
+	private static final int VERSION = 2;
+
+	private final int nextQueryId;
+
+	private final List<QueryCheckpoint> queries;
+
+	/**
+	 * Construct a new {@link QueryJournal} object.
+	 *
+	 * @param nextQueryId the ID that the master will assign to its next query
+	 * @param queries the checkpoints of all pending queries
+	 */
+	public QueryJournal(final int nextQueryId, final List<QueryCheckpoint> queries) {
+		this.nextQueryId = nextQueryId;
+		this.queries = Collections.unmodifiableList(new ArrayList<>(queries));
+	}
+
+	public int getNextQueryId() {
+		return this.nextQueryId;
+	}
+
+	public List<QueryCheckpoint> getQueries() {
+		return this.queries;
+	}
+
+	/**
+	 * Durably replace the journal in the given directory with this snapshot.
+	 *
+	 * @param directory the directory of the journal
+	 * @throws IOException if the journal cannot be written
+	 */
+	public void write(final Path directory) throws IOException {
+		final Path tempFile = directory.resolve(FILE_NAME + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.nextQueryId);
+			out.writeInt(this.queries.size());
+			for (QueryCheckpoint query : this.queries) {
+				out.writeInt(query.getQueryId());
+				out.writeInt(query.getWeight());
+				out.writeLong(query.getRemainingStartNumber());
+				out.writeLong(query.getRemainingEndNumber());
+				out.writeInt(query.getOpenSubqueries().size());
+				for (Worker.ValidationMessage subquery : query.getOpenSubqueries()) {
+					out.writeLong(subquery.getRangeMin());
+					out.writeLong(subquery.getRangeMax());
+				}
+			}
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(tempFile, directory.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read the journal from the given directory.
+	 *
+	 * @param directory the directory of the journal
+	 * @return the journal or {@code null} if the directory does not contain a journal
+	 * @throws IOException if the journal cannot be read
+	 */
+	public static QueryJournal read(final Path directory) throws IOException {
+		final Path file = directory.resolve(FILE_NAME);
+		if (!Files.exists(file))
+			return null;
+
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			final int version;
+			if (in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION)
+				throw new IOException(String.format("%s is not a query journal.", file));
+			final int nextQueryId = in.readInt();
+			final int numQueries = in.readInt();
+			final List<QueryCheckpoint> queries = new ArrayList<>(numQueries);
+			for (int i = 0; i < numQueries; i++) {
+				final int queryId = in.readInt();
+				final int weight = version >= 2 ? in.readInt() : Master.RangeMessage.DEFAULT_WEIGHT;
+				final long remainingStartNumber = in.readLong();
+				final long remainingEndNumber = in.readLong();
+				final int numOpenSubqueries = in.readInt();
+				final List<Worker.ValidationMessage> openSubqueries = new ArrayList<>(numOpenSubqueries);
+				for (int j = 0; j < numOpenSubqueries; j++)
+					openSubqueries.add(new Worker.ValidationMessage(queryId, in.readLong(), in.readLong()));
+				queries.add(new QueryCheckpoint(queryId, openSubqueries, remainingStartNumber, remainingEndNumber, weight));
+			}
+			return new QueryJournal(nextQueryId, queries);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package de.hpi.akka_tutorial.remote.actors.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import akka.actor.ActorRef;
+import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.util.LatencyHistogram;
+
+/**
+ * Follows the pending queries of a {@link de.hpi.akka_tutorial.remote.actors.Master} through their chunks, i.e., the
+ * subqueries that the {@link SchedulingStrategy} assigns to the workers, and measures the end-to-end latencies of
+ * queries and chunks. A chunk's latency spans from its assignment to its completion, including the time that it waits
+ * behind other chunks at its worker. The master reports the results of the workers; the strategy reports the
+ * assignments, which only it sees.
+ */
+public class QueryMonitor {
+
+	/**
+	 * The progress of a single pending query.
+	 */
+	private static class QueryState {
+
+		private final long startNumber, endNumber;
+
+		private final int weight;
+
+		private final boolean isResumed;
+
+		private final long submissionNanos = System.nanoTime();
+
+		private long numChunks = 0, numRetries = 0;
+
+		private final Map<ActorRef, QueryReport.WorkerShare> worker2share = new LinkedHashMap<>();
+
+		QueryState(final long startNumber, final long endNumber, final int weight, final boolean isResumed) {
+			this.startNumber = startNumber;
+			this.endNumber = endNumber;
+			this.weight = weight;
+			this.isResumed = isResumed;
+		}
+
+		QueryReport.WorkerShare share(final ActorRef worker) {
+			return this.worker2share.computeIfAbsent(worker, key -> new QueryReport.WorkerShare(0, 0));
+		}
+	}
+
+	/**
+	 * A chunk that was assigned to a worker and when.
+	 */
+	private static class Assignment {
+
+		private final Worker.ValidationMessage subquery;
+
+		private final long assignmentNanos = System.nanoTime();
+
+		Assignment(final Worker.ValidationMessage subquery) {
+			this.subquery = subquery;
+		}
+	}
+
+	private final Map<Integer, QueryState> queryId2state = new LinkedHashMap<>();
+
+	// The chunks that each worker holds in the order of assignment, which is the order in which workers process them
+	private final Map<ActorRef, Deque<Assignment>> worker2assignments = new HashMap<>();
+
+	private final LatencyHistogram queryLatencies = new LatencyHistogram(), chunkLatencies = new LatencyHistogram();
+
+	// The time from the submission to the cancellation of the cancelled queries, which would distort the query latencies
+	private final LatencyHistogram cancelledQueryLatencies = new LatencyHistogram();
+
+	/**
+	 * Start following a query.
+	 *
+	 * @param queryId the ID of the query
+	 * @param startNumber first number of the range
+	 * @param endNumber last number of the range
+	 * @param weight the weight of the query
+	 */
+	public void submitted(final int queryId, final long startNumber, final long endNumber, final int weight) {
+		this.queryId2state.put(queryId, new QueryState(startNumber, endNumber, weight, false));
+	}
+
+	/**
+	 * Start following a query that is resumed from a checkpoint. The query is followed from now on over the span of
+	 * its unfinished numbers.
+	 */
+	public void resumed(final QueryCheckpoint checkpoint) {
+		long startNumber = checkpoint.getRemainingStartNumber(), endNumber = checkpoint.getRemainingEndNumber();
+		if (startNumber > endNumber) {
+			startNumber = Long.MAX_VALUE;
+			endNumber = Long.MIN_VALUE;
+		}
+		for (Worker.ValidationMessage subquery : checkpoint.getOpenSubqueries()) {
+			startNumber = Math.min(startNumber, subquery.getRangeMin());
+			endNumber = Math.max(endNumber, subquery.getRangeMax());
+		}
+		this.queryId2state.put(checkpoint.getQueryId(), new QueryState(startNumber, endNumber, checkpoint.getWeight(), true));
+	}
+
+	/**
+	 * Note that a chunk was sent to a worker.
+	 */
+	void assigned(final ActorRef worker, final Worker.ValidationMessage subquery) {
+		this.worker2assignments.computeIfAbsent(worker, key -> new ArrayDeque<>()).add(new Assignment(subquery));
+	}
+
+	/**
+	 * Account for primes that a worker reported for a query.
+	 */
+	public void reported(final ActorRef worker, final int queryId, final int numPrimes) {
+		final QueryState state = this.queryId2state.get(queryId);
+		if (state != null)
+			state.share(worker).numReportedPrimes += numPrimes;
+	}
+
+	/**
+	 * Account for a chunk that a worker has completed, i.e., its oldest chunk of the query.
+	 */
+	public void completed(final ActorRef worker, final int queryId) {
+		final Assignment assignment = this.remove(worker, subquery -> subquery.getId() == queryId);
+		if (assignment != null)
+			this.chunkLatencies.record(System.nanoTime() - assignment.assignmentNanos);
+
+		final QueryState state = this.queryId2state.get(queryId);
+		if (state != null) {
+			state.numChunks++;
+			state.share(worker).numChunks++;
+		}
+	}
+
+	/**
+	 * Account for a chunk that a worker has stopped before completing it. If the query is still pending, the chunk
+	 * counts as a retry, because its numbers are (or were) checked elsewhere.
+	 */
+	public void cancelled(final ActorRef worker, final Worker.ValidationMessage subquery) {
+		if (this.remove(worker, subquery::equals) == null)
+			return;
+		final QueryState state = this.queryId2state.get(subquery.getId());
+		if (state != null)
+			state.numRetries++;
+	}
+
+	/**
+	 * Forget about a worker that has been removed. Its chunks of pending queries count as retries.
+	 */
+	public void removed(final ActorRef worker) {
+		final Deque<Assignment> assignments = this.worker2assignments.remove(worker);
+		if (assignments == null)
+			return;
+		for (Assignment assignment : assignments) {
+			final QueryState state = this.queryId2state.get(assignment.subquery.getId());
+			if (state != null)
+				state.numRetries++;
+		}
+	}
+
+	/**
+	 * List the IDs of the queries that are followed.
+	 */
+	public List<Integer> pendingQueryIds() {
+		return new ArrayList<>(this.queryId2state.keySet());
+	}
+
+	/**
+	 * Stop following a completed query and record its latency.
+	 *
+	 * @param queryId the ID of the completed query
+	 * @return the report of the query (without the number of primes) or {@code null} if the query was not followed
+	 */
+	public QueryReport finish(final int queryId) {
+		return this.report(queryId, false, this.queryLatencies);
+	}
+
+	/**
+	 * Stop following a cancelled query and record its latency apart from the completed queries.
+	 *
+	 * @param queryId the ID of the cancelled query
+	 * @return the report of the query (without the number of primes) or {@code null} if the query was not followed
+	 */
+	public QueryReport cancel(final int queryId) {
+		return this.report(queryId, true, this.cancelledQueryLatencies);
+	}
+
+	private QueryReport report(final int queryId, final boolean isCancelled, final LatencyHistogram latencies) {
+		final QueryState state = this.queryId2state.remove(queryId);
+		if (state == null)
+			return null;
+		final long wallNanos = System.nanoTime() - state.submissionNanos;
+		latencies.record(wallNanos);
+		return new QueryReport(queryId, state.startNumber, state.endNumber, state.weight, QueryReport.UNCOUNTED, wallNanos,
+				state.numChunks, state.numRetries, state.isResumed, isCancelled, state.worker2share);
+	}
+
+	public LatencyHistogram getQueryLatencies() {
+		return this.queryLatencies;
+	}
+
+	public LatencyHistogram getChunkLatencies() {
+		return this.chunkLatencies;
+	}
+
+	public LatencyHistogram getCancelledQueryLatencies() {
+		return this.cancelledQueryLatencies;
+	}
+
+	/**
+	 * Render the latency histograms in the Prometheus text exposition format.
+	 */
+	public String toPrometheus() {
+		return this.queryLatencies.toPrometheus("prime_query_latency_seconds", "End-to-end latency of the completed range queries.")
+				+ this.chunkLatencies.toPrometheus("prime_chunk_latency_seconds", "Latency of the completed chunks from assignment to completion.")
+				+ this.cancelledQueryLatencies.toPrometheus("prime_cancelled_query_latency_seconds", "Time from submission to cancellation of the cancelled range queries.");
+	}
+
+	/**
+	 * Remove the oldest chunk of a worker that matches the given condition.
+	 */
+	private Assignment remove(final ActorRef worker, final Predicate<Worker.ValidationMessage> condition) {
+		final Deque<Assignment> assignments = this.worker2assignments.get(worker);
+		if (assignments == null)
+			return null;
+		for (Iterator<Assignment> iterator = assignments.iterator(); iterator.hasNext(); ) {
+			final Assignment assignment = iterator.next();
+			if (condition.test(assignment.subquery)) {
+				iterator.remove();
+				return assignment;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,180 @@
+package de.hpi.akka_tutorial.remote.actors.scheduling;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import akka.actor.ActorRef;
+
+/**
+ * Describes a completed or cancelled range query: how long it took, how its work was split into chunks, i.e.,
+ * subqueries, and which workers processed them. The {@link QueryMonitor} creates the report, and the
+ * {@link de.hpi.akka_tutorial.remote.actors.Listener} adds the number of primes in the range before it publishes the
+ * report to the event stream of its actor system. Every query ends with exactly one report.
+ */
+public class QueryReport implements Serializable {
+
+	private static final long serialVersionUID = 6418279903356276617L;
+
+	// The number of primes of a report that the listener has not counted yet
+	public static final long UNCOUNTED = -1;
+
+	/**
+	 * Describes the part of a query that a single worker processed.
+	 */
+	public static class WorkerShare implements Serializable {
+
+		private static final long serialVersionUID = -4630712871183437390L;
+
+		// Updated by the QueryMonitor while the query is pending
+		long numChunks, numReportedPrimes;
+
+		WorkerShare(final long numChunks, final long numReportedPrimes) {
+			this.numChunks = numChunks;
+			this.numReportedPrimes = numReportedPrimes;
+		}
+
+		/**
+		 * For serialization/deserialization only.
+		 */
+		@SuppressWarnings("unused")
+		private WorkerShare() {
+		}
+
+		public long getNumChunks() {
+			return this.numChunks;
+		}
+
+		public long getNumReportedPrimes() {
+			return this.numReportedPrimes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%,d chunks, %,d primes", this.numChunks, this.numReportedPrimes);
+		}
+	}
+
+	private int queryId;
+
+	private long startNumber, endNumber;
+
+	private int weight;
+
+	private long numPrimes;
+
+	private long wallNanos;
+
+	private long numChunks, numRetries;
+
+	private boolean isResumed, isCancelled;
+
+	private Map<ActorRef, WorkerShare> worker2share;
+
+	/**
+	 * Construct a new {@link QueryReport} object.
+	 *
+	 * @param queryId the ID of the query
+	 * @param startNumber first number of the query's range (or of its unfinished part upon a resume)
+	 * @param endNumber last number of the query's range (or of its unfinished part upon a resume)
+	 * @param weight the weight of the query
+	 * @param numPrimes the number of primes in the range or {@link #UNCOUNTED}
+	 * @param wallNanos the wall-clock time from the submission (or resume) of the query to its completion
+	 * @param numChunks the number of completed chunks
+	 * @param numRetries the number of chunks that did not complete on their worker, e.g., because the worker failed
+	 *                   or lost the race against a speculative copy, so that their numbers were checked elsewhere
+	 * @param isResumed whether the query was resumed from the journal of a previous run
+	 * @param isCancelled whether the query was cancelled, so that its range was not checked completely
+	 * @param worker2share the chunks and primes that each worker contributed
+	 */
+	public QueryReport(final int queryId, final long startNumber, final long endNumber, final int weight, final long numPrimes,
+			final long wallNanos, final long numChunks, final long numRetries, final boolean isResumed, final boolean isCancelled,
+			final Map<ActorRef, WorkerShare> worker2share) {
+		this.queryId = queryId;
+		this.startNumber = startNumber;
+		this.endNumber = endNumber;
+		this.weight = weight;
+		this.numPrimes = numPrimes;
+		this.wallNanos = wallNanos;
+		this.numChunks = numChunks;
+		this.numRetries = numRetries;
+		this.isResumed = isResumed;
+		this.isCancelled = isCancelled;
+		this.worker2share = new LinkedHashMap<>(worker2share);
+	}
+
+	/**
+	 * For serialization/deserialization only.
+	 */
+	@SuppressWarnings("unused")
+	private QueryReport() {
+	}
+
+	/**
+	 * Create a copy of this report with the given number of primes.
+	 */
+	public QueryReport withNumPrimes(final long numPrimes) {
+		return new QueryReport(this.queryId, this.startNumber, this.endNumber, this.weight, numPrimes, this.wallNanos,
+				this.numChunks, this.numRetries, this.isResumed, this.isCancelled, this.worker2share);
+	}
+
+	public int getQueryId() {
+		return this.queryId;
+	}
+
+	public long getStartNumber() {
+		return this.startNumber;
+	}
+
+	public long getEndNumber() {
+		return this.endNumber;
+	}
+
+	public int getWeight() {
+		return this.weight;
+	}
+
+	public long getNumPrimes() {
+		return this.numPrimes;
+	}
+
+	public long getWallNanos() {
+		return this.wallNanos;
+	}
+
+	public long getNumChunks() {
+		return this.numChunks;
+	}
+
+	public long getNumRetries() {
+		return this.numRetries;
+	}
+
+	public boolean isResumed() {
+		return this.isResumed;
+	}
+
+	/**
+	 * @return whether the query was cancelled; its number of primes then counts only the primes discovered so far
+	 */
+	public boolean isCancelled() {
+		return this.isCancelled;
+	}
+
+	public Map<ActorRef, WorkerShare> getWorkerShares() {
+		return Collections.unmodifiableMap(this.worker2share);
+	}
+
+	@Override
+	public String toString() {
+		StringJoiner shares = new StringJoiner("; ");
+		for (Map.Entry<ActorRef, WorkerShare> entry : this.worker2share.entrySet())
+			shares.add(entry.getKey().path() + ": " + entry.getValue());
+		return String.format("Query %d [%,d..%,d, weight %d%s%s]: %s primes in %,.1f ms, %,d chunks, %,d retries; workers: %s", this.queryId,
+				this.startNumber, this.endNumber, this.weight, this.isResumed ? ", resumed" : "", this.isCancelled ? ", cancelled" : "",
+				this.numPrimes == UNCOUNTED ? "uncounted" : String.format("%,d", this.numPrimes), this.wallNanos / 1e6,
+				this.numChunks, this.numRetries, shares);
+	}
+}
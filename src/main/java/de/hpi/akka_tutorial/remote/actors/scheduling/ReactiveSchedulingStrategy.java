@@ -1,16 +1,23 @@
 package de.hpi.akka_tutorial.remote.actors.scheduling;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import akka.actor.ActorRef;
 import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.remote.actors.engines.CostModel;
 
 public class ReactiveSchedulingStrategy implements SchedulingStrategy {
 
@@ -19,89 +26,146 @@ public class ReactiveSchedulingStrategy implements SchedulingStrategy {
 	 */
 	public static class Factory implements SchedulingStrategy.Factory {
 
+		// The target wall-clock time of each subquery
+		private final long targetSubqueryMillis;
+
+		// The maximum number of subqueries that each worker holds at once
+		private final int maxSubqueriesInFlight;
+
+		public Factory() {
+			this(DEFAULT_TARGET_SUBQUERY_MILLIS, DEFAULT_MAX_SUBQUERIES_IN_FLIGHT);
+		}
+
+		public Factory(final long targetSubqueryMillis, final int maxSubqueriesInFlight) {
+			this.targetSubqueryMillis = targetSubqueryMillis;
+			this.maxSubqueriesInFlight = maxSubqueriesInFlight;
+		}
+
 		@Override
-		public ReactiveSchedulingStrategy create(ActorRef master) {
-			return new ReactiveSchedulingStrategy(master);
+		public ReactiveSchedulingStrategy create(ActorRef master, QueryMonitor queryMonitor) {
+			return new ReactiveSchedulingStrategy(master, queryMonitor, this.targetSubqueryMillis, this.maxSubqueriesInFlight);
 		}
 	}
 
+	// By default, subqueries should take this long, which amortizes the messaging overhead and keeps the cost of retries low
+	public static final long DEFAULT_TARGET_SUBQUERY_MILLIS = 500;
+
+	// By default, each worker has one subquery queued behind the one it is processing, which hides the round-trip to the master
+	public static final int DEFAULT_MAX_SUBQUERIES_IN_FLIGHT = 2;
+
+	// A subquery is a straggler if it runs this many times longer than the median subquery of the cluster
+	private static final double STRAGGLER_FACTOR = 3;
+
+	// The median is only meaningful after a few subqueries have been completed
+	private static final int MIN_SUBQUERIES_FOR_MEDIAN = 8;
+
 	/**
 	 * This class supervises the state of a range query for primes.
 	 */
 	private class QueryTracker {
 
-		// Give each worker at most this many numbers at once to check.
-		private final int MAX_SUBQUERY_RANGE_SIZE = 100_000;
-
 		// The range of values that was not yet scheduled to workers.
 		private long remainingRangeStartNumber, remainingRangeEndNumber;
 
 		// This is the ID of the query that is being tracked.
 		private final int id;
 
-		// Keeps track of the currently posed subqueries and which actor is processing it.
-		private final Map<ActorRef, Worker.ValidationMessage> runningSubqueries = new HashMap<>();
+		// The share of the workers that this query gets relative to the other pending queries.
+		private final int weight;
+
+		// The service that this query has received so far in subqueries per weight, i.e., its virtual time in the weighted fair queue.
+		private double virtualTime;
+
+		// Keeps track of the currently posed subqueries; the workers that hold them are tracked by the strategy.
+		private final Set<Worker.ValidationMessage> runningSubqueries = new HashSet<>();
 
 		// Keeps track of failed subqueries, so as to reschedule them to some worker.
 		private final Queue<Worker.ValidationMessage> failedSubqueries = new LinkedList<>();
 
-		QueryTracker(final int id, final long startNumber, final long endNumber) {
+		QueryTracker(final int id, final long startNumber, final long endNumber, final int weight) {
 			this.id = id;
 			this.remainingRangeStartNumber = startNumber;
 			this.remainingRangeEndNumber = endNumber;
+			this.weight = weight;
 		}
 
 		/**
 		 * Assign a subquery of the tracked query to the worker. If a subquery was available, a {@link Worker.ValidationMessage} is send to the worker with master as sender.
 		 *
-		 * @return {@code true}, if work was assigned and {@code false} otherwise
+		 * @return the assigned subquery or {@code null} if no work was assigned
 		 */
-		boolean assignWork(ActorRef worker, ActorRef master) {
+		Worker.ValidationMessage assignWork(ActorRef worker, ActorRef master) {
 
 			// Select a failed subquery if any
 			Worker.ValidationMessage subquery = this.failedSubqueries.poll();
 			
-			// Create a new subquery if no failed subquery was selected
+			// Create a new subquery if no failed subquery was selected; its size depends on the worker's throughput
 			if (subquery == null) {
-				long subqueryRangeSize = Math.min(this.remainingRangeEndNumber - this.remainingRangeStartNumber + 1, MAX_SUBQUERY_RANGE_SIZE);
+				long subqueryRangeSize = Math.min(this.remainingRangeEndNumber - this.remainingRangeStartNumber + 1,
+						ReactiveSchedulingStrategy.this.subquerySizer.sizeFor(worker, this.remainingRangeStartNumber));
 				if (subqueryRangeSize > 0) {
 					subquery = new Worker.ValidationMessage(this.id, this.remainingRangeStartNumber, this.remainingRangeStartNumber + subqueryRangeSize - 1);
 					this.remainingRangeStartNumber += subqueryRangeSize;
 				}
 			}
 			
-			// Return false if no work was assigned
+			// Return null if no work was assigned
 			if (subquery == null) {
-				return false;
+				return null;
 			}
 			
 			// Assign and send the subquery to the worker
 			worker.tell(subquery, master);
-			this.runningSubqueries.put(worker, subquery);
+			this.runningSubqueries.add(subquery);
+			ReactiveSchedulingStrategy.this.subquerySizer.assigned(worker, subquery);
+			ReactiveSchedulingStrategy.this.queryMonitor.assigned(worker, subquery);
 			
-			return true;
+			return subquery;
 		}
 		
 		/**
 		 * Handle the failure of a subquery. That is, prepare to re-schedule the failed subquery.
 		 *
-		 * @param worker the actor that just failed
+		 * @param subquery the subquery whose worker just failed
 		 */
-		void workFailed(ActorRef worker) {
-			Worker.ValidationMessage failedTask = this.runningSubqueries.remove(worker);
-			if (failedTask != null) {
-				this.failedSubqueries.add(failedTask);
+		void workFailed(Worker.ValidationMessage subquery) {
+			if (this.runningSubqueries.remove(subquery)) {
+				this.failedSubqueries.add(subquery);
+			}
+		}
+
+		/**
+		 * Handle a subquery that was stopped before its end. That is, prepare to re-schedule its unchecked rest.
+		 *
+		 * @param subquery the stopped subquery
+		 * @param lastCheckedNumber the last number of the subquery that has been checked
+		 */
+		void workStopped(Worker.ValidationMessage subquery, long lastCheckedNumber) {
+			if (this.runningSubqueries.remove(subquery) && lastCheckedNumber < subquery.getRangeMax()) {
+				this.failedSubqueries.add(new Worker.ValidationMessage(this.id, lastCheckedNumber + 1, subquery.getRangeMax()));
 			}
 		}
 
 		/**
 		 * Handle the completion of a subquery.
 		 *
-		 * @param worker the actor that just completed
+		 * @param subquery the subquery that was just completed
+		 * @return {@code false} if the subquery had already been completed by a speculative copy
 		 */
-		void workCompleted(ActorRef worker) {
-			Worker.ValidationMessage completedTask = this.runningSubqueries.remove(worker);
-			assert completedTask != null;
+		boolean workCompleted(Worker.ValidationMessage subquery) {
+			return this.runningSubqueries.remove(subquery);
+		}
+
+		/**
+		 * Capture the progress of this query: Everything below the remaining range has been completed except for the
+		 * running and failed subqueries.
+		 *
+		 * @return the checkpoint of this query
+		 */
+		QueryCheckpoint checkpoint() {
+			List<Worker.ValidationMessage> openSubqueries = new ArrayList<>(this.runningSubqueries);
+			openSubqueries.addAll(this.failedSubqueries);
+			return new QueryCheckpoint(this.id, openSubqueries, this.remainingRangeStartNumber, this.remainingRangeEndNumber, this.weight);
 		}
 
 		/**
@@ -117,30 +181,91 @@ public class ReactiveSchedulingStrategy implements SchedulingStrategy {
 	}
 
 
-	// A mapping of pending range queries to the query tracker that watches the progress of each range query; the queries are kept in their insertion order
+	// A mapping of pending range queries to the query tracker that watches the progress of each range query; the queries are kept in their insertion order, which breaks ties in the fair queue
 	private final LinkedHashMap<Integer, QueryTracker> queryId2tracker = new LinkedHashMap<>();
 
-	// A mapping of known works to their current task
-	private final Map<ActorRef, QueryTracker> worker2tracker = new HashMap<>();
+	// A mapping of known workers to the subqueries that they hold in the order of assignment; workers process their subqueries in this order
+	private final Map<ActorRef, Deque<Worker.ValidationMessage>> worker2subqueries = new LinkedHashMap<>();
+
+	// The maximum number of subqueries that each worker holds at once, i.e., the number of credits per worker
+	private final int maxSubqueriesInFlight;
 
 	// A reference to the actor in whose name we send messages
 	private final ActorRef master;
 
-	public ReactiveSchedulingStrategy(ActorRef master) {
+	// Follows the subqueries that we assign on behalf of the master
+	private final QueryMonitor queryMonitor;
+
+	// Estimates the cost of ranges from the calibrated cost models of the workers
+	private final CostAwarePartitioner partitioner = new CostAwarePartitioner();
+
+	// Measures the throughput of the workers and sizes their subqueries accordingly
+	private final SubquerySizer subquerySizer;
+
+	public ReactiveSchedulingStrategy(ActorRef master, QueryMonitor queryMonitor) {
+		this(master, queryMonitor, DEFAULT_TARGET_SUBQUERY_MILLIS, DEFAULT_MAX_SUBQUERIES_IN_FLIGHT);
+	}
+
+	public ReactiveSchedulingStrategy(ActorRef master, QueryMonitor queryMonitor, long targetSubqueryMillis, int maxSubqueriesInFlight) {
 		this.master = master;
+		this.queryMonitor = queryMonitor;
+		this.subquerySizer = new SubquerySizer(TimeUnit.MILLISECONDS.toNanos(targetSubqueryMillis), this.partitioner);
+		this.maxSubqueriesInFlight = maxSubqueriesInFlight;
 	}
 
 	@Override
-	public void schedule(final int taskId, final long startNumber, final long endNumber) {
+	public void schedule(final int taskId, final long startNumber, final long endNumber, final int weight) {
 
-		// Create a new tracker for the query
-		QueryTracker tracker = new QueryTracker(taskId, startNumber, endNumber);
-		this.queryId2tracker.put(tracker.id, tracker);
+		// Create a new tracker for the query; empty ranges are complete right away
+		QueryTracker tracker = new QueryTracker(taskId, startNumber, endNumber, weight);
+		if (tracker.isComplete())
+			return;
+		this.enqueue(tracker);
 
 		// Assign existing, possible free, workers to the new query
 		this.assignSubqueries();
 	}
 
+	@Override
+	public void resume(final QueryCheckpoint checkpoint) {
+
+		// Create a tracker that starts at the watermark of the checkpoint and re-schedules its open subqueries first
+		QueryTracker tracker = new QueryTracker(checkpoint.getQueryId(), checkpoint.getRemainingStartNumber(), checkpoint.getRemainingEndNumber(),
+				checkpoint.getWeight());
+		tracker.failedSubqueries.addAll(checkpoint.getOpenSubqueries());
+		if (tracker.isComplete())
+			return;
+		this.enqueue(tracker);
+
+		// Assign existing, possible free, workers to the resumed query
+		this.assignSubqueries();
+	}
+
+	/**
+	 * Add a query to the weighted fair queue. The query starts at the smallest virtual time of the pending queries, so
+	 * that it neither has to catch up with the service that older queries received nor can claim all workers for itself
+	 * to make up for the time before its arrival.
+	 */
+	private void enqueue(final QueryTracker tracker) {
+		tracker.virtualTime = this.queryId2tracker.values().stream()
+				.mapToDouble(queryTracker -> queryTracker.virtualTime)
+				.min()
+				.orElse(0);
+		this.queryId2tracker.put(tracker.id, tracker);
+	}
+
+	@Override
+	public List<QueryCheckpoint> checkpoint() {
+		return this.queryId2tracker.values().stream()
+				.map(QueryTracker::checkpoint)
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public boolean isPending(final int taskId) {
+		return this.queryId2tracker.containsKey(taskId);
+	}
+
 	@Override
 	public boolean hasTasksInProgress() {
 		return !this.queryId2tracker.isEmpty();
@@ -149,28 +274,80 @@ public class ReactiveSchedulingStrategy implements SchedulingStrategy {
 	@Override
 	public void finished(final int taskId, final ActorRef worker) {
 		
-		// Find the query being processed
+		// Find the completed subquery: It is the worker's oldest subquery of that query
+		Deque<Worker.ValidationMessage> subqueries = this.worker2subqueries.get(worker);
+		Worker.ValidationMessage subquery = null;
+		if (subqueries != null) {
+			Iterator<Worker.ValidationMessage> subqueryIterator = subqueries.iterator();
+			while (subquery == null && subqueryIterator.hasNext()) {
+				Worker.ValidationMessage candidate = subqueryIterator.next();
+				if (candidate.getId() == taskId) {
+					subquery = candidate;
+					subqueryIterator.remove();
+				}
+			}
+		}
+		if (subquery == null)
+			return;
+
+		// Return the worker's credit; the query might have been cancelled in the meantime
+		this.subquerySizer.completed(worker);
 		QueryTracker queryTracker = this.queryId2tracker.get(taskId);
+		if (queryTracker != null && queryTracker.workCompleted(subquery)) {
 
-		// Mark the worker as free
-		queryTracker.workCompleted(worker);
-		this.worker2tracker.put(worker, null);
+			// The first result of a speculatively executed subquery wins; stop the other copies
+			for (ActorRef holder : this.holders(subquery))
+				holder.tell(new Worker.CancelMessage(subquery.getId(), subquery.getRangeMin(), subquery.getRangeMax()), this.master);
 
-		// Check if the query is complete
-		if (queryTracker.isComplete()) {
-			// Remove the query tracker
-			this.queryId2tracker.remove(queryTracker.id);
-		} else {
-			// Re-assign the now free worker
-			this.assignSubqueries();
+			// Check if the query is complete and remove its tracker if so
+			if (queryTracker.isComplete())
+				this.queryId2tracker.remove(queryTracker.id);
+		}
+
+		// Re-assign the credit of the worker
+		this.assignSubqueries();
+	}
+
+	@Override
+	public boolean cancel(final int taskId) {
+
+		// Forget the query, so that none of its subqueries is assigned or re-scheduled anymore
+		if (this.queryId2tracker.remove(taskId) == null)
+			return false;
+
+		// Ask the workers that hold subqueries of the query to stop them; they keep their credits until they acknowledge
+		for (Map.Entry<ActorRef, Deque<Worker.ValidationMessage>> entry : this.worker2subqueries.entrySet())
+			if (entry.getValue().stream().anyMatch(subquery -> subquery.getId() == taskId))
+				entry.getKey().tell(new Worker.CancelMessage(taskId), this.master);
+		return true;
+	}
+
+	@Override
+	public void cancelled(final Worker.ValidationMessage subquery, final long lastCheckedNumber, final ActorRef worker) {
+
+		// Return the worker's credit
+		Deque<Worker.ValidationMessage> subqueries = this.worker2subqueries.get(worker);
+		if (subqueries == null || !subqueries.remove(subquery))
+			return;
+		this.subquerySizer.cancelled(worker, subquery);
+
+		// If the query is still pending, the subquery was preempted and its unchecked rest must be re-scheduled
+		QueryTracker queryTracker = this.queryId2tracker.get(subquery.getId());
+		if (queryTracker != null) {
+			queryTracker.workStopped(subquery, lastCheckedNumber);
+			if (queryTracker.isComplete())
+				this.queryId2tracker.remove(queryTracker.id);
 		}
+
+		// Re-assign the credit of the worker
+		this.assignSubqueries();
 	}
 
 	@Override
 	public void addWorker(final ActorRef worker) {
 
 		// Add the new worker
-		this.worker2tracker.put(worker, null);
+		this.worker2subqueries.put(worker, new ArrayDeque<>());
 
 		// Assign possibly open subqueries to the new worker
 		this.assignSubqueries();
@@ -180,51 +357,126 @@ public class ReactiveSchedulingStrategy implements SchedulingStrategy {
 	public void removeWorker(final ActorRef worker) {
 
 		// Remove the worker from the list of workers
-		QueryTracker processedTracker = this.worker2tracker.remove(worker);
-
-		// If the worker was processing some subquery, then we need to re-schedule this subquery
-		if (processedTracker != null) {
-			processedTracker.workFailed(worker);
+		Deque<Worker.ValidationMessage> subqueries = this.worker2subqueries.remove(worker);
+		this.subquerySizer.removed(worker);
+		this.partitioner.removed(worker);
+
+		// If the worker held some subqueries, be it running or queued, then we need to re-schedule all of them unless another worker runs a copy
+		if (subqueries != null && !subqueries.isEmpty()) {
+			for (Worker.ValidationMessage subquery : subqueries) {
+				QueryTracker queryTracker = this.queryId2tracker.get(subquery.getId());
+				if (queryTracker != null && this.holders(subquery).isEmpty())
+					queryTracker.workFailed(subquery);
+			}
 
-			// We might have some free workers that could process the re-scheduled subquery
+			// We might have some free workers that could process the re-scheduled subqueries
 			this.assignSubqueries();
 		}
 	}
 
-	private void assignSubqueries() {
+	@Override
+	public void detectStragglers() {
+
+		// Only idle workers execute subqueries speculatively, so that regular subqueries are never delayed
+		final double medianNanos = this.subquerySizer.medianSubqueryNanos(MIN_SUBQUERIES_FOR_MEDIAN);
+		if (Double.isNaN(medianNanos))
+			return;
+		final Deque<ActorRef> idleWorkers = this.worker2subqueries.entrySet().stream()
+				.filter(entry -> entry.getValue().isEmpty())
+				.map(Map.Entry::getKey)
+				.collect(Collectors.toCollection(ArrayDeque::new));
+
+		// Copy all subqueries of a worker whose current subquery runs far longer than the median, because the subqueries queued behind it are stuck, too
+		for (Map.Entry<ActorRef, Deque<Worker.ValidationMessage>> entry : this.worker2subqueries.entrySet()) {
+			if (idleWorkers.isEmpty())
+				return;
+			if (this.subquerySizer.runningNanos(entry.getKey()) <= STRAGGLER_FACTOR * medianNanos)
+				continue;
+
+			for (Worker.ValidationMessage subquery : new ArrayList<>(entry.getValue())) {
+				QueryTracker queryTracker = this.queryId2tracker.get(subquery.getId());
+				if (queryTracker == null || !queryTracker.runningSubqueries.contains(subquery) || this.holders(subquery).size() > 1)
+					continue;
+				if (idleWorkers.isEmpty())
+					return;
 
-		// Collect all currently idle workers
-		Collection<ActorRef> idleWorkers = this.worker2tracker.entrySet().stream()
-				.filter(e -> e.getValue() == null)
+				// Send a copy of the subquery to an idle worker; the listener drops the primes that both copies report
+				ActorRef idleWorker = idleWorkers.poll();
+				idleWorker.tell(subquery, this.master);
+				this.worker2subqueries.get(idleWorker).add(subquery);
+				this.subquerySizer.assigned(idleWorker, subquery);
+				this.queryMonitor.assigned(idleWorker, subquery);
+			}
+		}
+	}
+
+	/**
+	 * Find all workers that hold (a copy of) the given subquery.
+	 */
+	private List<ActorRef> holders(final Worker.ValidationMessage subquery) {
+		return this.worker2subqueries.entrySet().stream()
+				.filter(entry -> entry.getValue().contains(subquery))
 				.map(Map.Entry::getKey)
 				.collect(Collectors.toList());
+	}
+
+	private void assignSubqueries() {
 		
 		// Return if no query is present
 		if (this.queryId2tracker.isEmpty())
 			return;
 		
-		// Assign idle workers to pending subqueries
-		Iterator<QueryTracker> queryTrackerIterator = this.queryId2tracker.values().iterator();
-		QueryTracker queryTracker = queryTrackerIterator.next();
-		for (ActorRef idleWorker : idleWorkers) {
-			
-			// Find a query tracker that can assign a subquery to this idle worker
-			while (!queryTracker.assignWork(idleWorker, this.master)) {
-				// Check if there is any (further) on-going query
-				if (!queryTrackerIterator.hasNext()) 
-					return;
+		// Hand out the credits of the workers in rounds, so that all workers get their next subquery before any worker gets a further one
+		for (int numSubqueriesInFlight = 1; numSubqueriesInFlight <= this.maxSubqueriesInFlight; numSubqueriesInFlight++) {
+			for (Map.Entry<ActorRef, Deque<Worker.ValidationMessage>> entry : this.worker2subqueries.entrySet()) {
+				if (entry.getValue().size() >= numSubqueriesInFlight)
+					continue;
 				
-				// Select the (next) query tracker
-				queryTracker = queryTrackerIterator.next();
+				// Find a query tracker that can assign a subquery to this worker
+				Worker.ValidationMessage subquery = this.assignWork(entry.getKey());
+				if (subquery == null)
+					return;
+
+				// Keep track of the assignment
+				entry.getValue().add(subquery);
 			}
+		}
+	}
 
-			// Assign the subquery to the worker and keep track of the assignment
-			this.worker2tracker.put(idleWorker, queryTracker);
+	/**
+	 * Assign a subquery to the worker by weighted fair queuing: Among the queries with unassigned work, serve the one
+	 * with the smallest virtual time, i.e., the least service relative to its weight, and charge the subquery to its
+	 * virtual time. As subqueries are sized to take about the same time, each subquery counts as one unit of service.
+	 * Ties go to the oldest query.
+	 *
+	 * @return the assigned subquery or {@code null} if there is no unassigned work
+	 */
+	private Worker.ValidationMessage assignWork(ActorRef worker) {
+		List<QueryTracker> queryTrackers = new ArrayList<>(this.queryId2tracker.values());
+		queryTrackers.sort(Comparator.comparingDouble(queryTracker -> queryTracker.virtualTime));
+		for (QueryTracker queryTracker : queryTrackers) {
+			Worker.ValidationMessage subquery = queryTracker.assignWork(worker, this.master);
+			if (subquery != null) {
+				queryTracker.virtualTime += 1.0 / queryTracker.weight;
+				return subquery;
+			}
 		}
+		return null;
+	}
+
+	@Override
+	public void calibrated(final ActorRef worker, final CostModel costModel) {
+		if (this.worker2subqueries.containsKey(worker))
+			this.partitioner.calibrated(worker, costModel);
 	}
 
 	@Override
 	public int countWorkers() {
-		return this.worker2tracker.keySet().size();
+		return this.worker2subqueries.keySet().size();
+	}
+
+	@Override
+	public List<WorkerMetrics> workerMetrics() {
+		return this.subquerySizer.metrics();
 	}
 }
@@ -1,12 +1,19 @@
 package de.hpi.akka_tutorial.remote.actors.scheduling;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import akka.actor.ActorRef;
+import akka.routing.ActorRefRoutee;
+import akka.routing.Broadcast;
 import akka.routing.RoundRobinRoutingLogic;
+import akka.routing.Routee;
 import akka.routing.Router;
 import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.remote.actors.engines.CostModel;
 
 public class RoundRobinSchedulingStrategy implements SchedulingStrategy {
 
@@ -16,8 +23,8 @@ public class RoundRobinSchedulingStrategy implements SchedulingStrategy {
 	public static class Factory implements SchedulingStrategy.Factory {
 
 		@Override
-		public SchedulingStrategy create(ActorRef master) {
-			return new RoundRobinSchedulingStrategy(master);
+		public SchedulingStrategy create(ActorRef master, QueryMonitor queryMonitor) {
+			return new RoundRobinSchedulingStrategy(master, queryMonitor);
 		}
 	}
 
@@ -29,54 +36,138 @@ public class RoundRobinSchedulingStrategy implements SchedulingStrategy {
 	
 	// A map of pending responses for unfinished tasks
 	private Map<Integer, Integer> taskId2numberPendingResponses = new HashMap<>();
+
+	// The ranges of the unfinished tasks; responses do not tell which chunk of a task has finished, so a checkpoint can only cover whole tasks
+	private Map<Integer, long[]> taskId2range = new HashMap<>();
+
+	// The weights of the unfinished tasks; all tasks are scheduled right away, so we only keep them for the checkpoints
+	private Map<Integer, Integer> taskId2weight = new HashMap<>();
 	
 	// A reference to the actor in whose name we send messages
 	private final ActorRef master;
 
-	public RoundRobinSchedulingStrategy(ActorRef master) {
+	// Follows the subqueries that we assign on behalf of the master
+	private final QueryMonitor queryMonitor;
+
+	// Splits the ranges by the estimated cost of their numbers
+	private final CostAwarePartitioner partitioner = new CostAwarePartitioner();
+
+	public RoundRobinSchedulingStrategy(ActorRef master, QueryMonitor queryMonitor) {
 		this.master = master;
+		this.queryMonitor = queryMonitor;
 	}
 	
 	@Override
-	public void schedule(final int taskId, final long startNumber, final long endNumber) {
+	public void schedule(final int taskId, final long startNumber, final long endNumber, final int weight) {
 		
-		// Break the work up into numberOfWorkers chunks of numbers
-		final long numberOfNumbers = endNumber - startNumber + 1;
-		final long segmentLength = numberOfNumbers / this.numberOfWorkers;
+		// Empty ranges are complete right away
+		if (startNumber > endNumber)
+			return;
+
+		// Break the work up into numberOfWorkers chunks of numbers with equal estimated cost
+		final long[] endNumbers = this.partitioner.split(startNumber, endNumber, this.numberOfWorkers);
+		long currentStartNumber = startNumber;
 
 		for (int i = 0; i < this.numberOfWorkers; i++) {
 			
-			// Compute the start and end numbers for this worker
-			long currentStartNumber = startNumber + (i * segmentLength);
-			long currentEndNumber = currentStartNumber + segmentLength - 1;
-
-			// Handle any remainder if this is the last worker
-			if (i == this.numberOfWorkers - 1)
-				currentEndNumber = endNumber;
-
-			// Send a new message to the router for this subset of numbers
-			this.workerRouter.route(new Worker.ValidationMessage(taskId, currentStartNumber, currentEndNumber), this.master);
+			// Send a new message to the next worker for this subset of numbers; the chunks cover the whole range, even if some are empty
+			this.route(new Worker.ValidationMessage(taskId, currentStartNumber, endNumbers[i]));
+			currentStartNumber = endNumbers[i] + 1;
 		}
 		
 		// Store the task with numberOfWorkers pending responses
 		this.taskId2numberPendingResponses.put(taskId, this.numberOfWorkers);
+		this.taskId2range.put(taskId, new long[] {startNumber, endNumber});
+		this.taskId2weight.put(taskId, weight);
+	}
+
+	@Override
+	public void resume(final QueryCheckpoint checkpoint) {
+
+		// Without knowledge of the chunks, we simply schedule the whole unfinished range again
+		long startNumber = checkpoint.getRemainingStartNumber(), endNumber = checkpoint.getRemainingEndNumber();
+		for (Worker.ValidationMessage subquery : checkpoint.getOpenSubqueries()) {
+			startNumber = Math.min(startNumber, subquery.getRangeMin());
+			endNumber = Math.max(endNumber, subquery.getRangeMax());
+		}
+		if (startNumber <= endNumber)
+			this.schedule(checkpoint.getQueryId(), startNumber, endNumber, checkpoint.getWeight());
+	}
+
+	@Override
+	public List<QueryCheckpoint> checkpoint() {
+		List<QueryCheckpoint> checkpoints = new ArrayList<>();
+		for (Map.Entry<Integer, long[]> entry : this.taskId2range.entrySet())
+			checkpoints.add(new QueryCheckpoint(entry.getKey(), Collections.emptyList(), entry.getValue()[0], entry.getValue()[1],
+					this.taskId2weight.get(entry.getKey())));
+		return checkpoints;
 	}
 
 	@Override
 	public void finished(final int taskId, final ActorRef worker) {
 		
+		// Ignore responses for cancelled tasks
+		final Integer pendingResponses = this.taskId2numberPendingResponses.get(taskId);
+		if (pendingResponses == null)
+			return;
+
 		// Decrement the number of pending responses for this task
-		final int newPendingResponses = this.taskId2numberPendingResponses.get(taskId) - 1;
+		final int newPendingResponses = pendingResponses - 1;
 		
 		if (newPendingResponses == 0) {
 			// Task is completed
 			this.taskId2numberPendingResponses.remove(taskId);
+			this.taskId2range.remove(taskId);
+			this.taskId2weight.remove(taskId);
 		} else {
 			// Task is still pending
 			this.taskId2numberPendingResponses.put(taskId, newPendingResponses);
 		}
 	}
 
+	@Override
+	public boolean cancel(final int taskId) {
+
+		// Forget the task and ask all workers to stop its chunks, because we do not know which worker holds which chunk
+		if (this.taskId2numberPendingResponses.remove(taskId) == null)
+			return false;
+		this.taskId2range.remove(taskId);
+		this.taskId2weight.remove(taskId);
+		this.workerRouter.route(new Broadcast(new Worker.CancelMessage(taskId)), this.master);
+		return true;
+	}
+
+	@Override
+	public void cancelled(final Worker.ValidationMessage subquery, final long lastCheckedNumber, final ActorRef worker) {
+
+		// If the task is still pending, the chunk was preempted: Send its unchecked rest to the next worker as a replacement
+		if (this.taskId2numberPendingResponses.containsKey(subquery.getId()) && lastCheckedNumber < subquery.getRangeMax())
+			this.route(new Worker.ValidationMessage(subquery.getId(), lastCheckedNumber + 1, subquery.getRangeMax()));
+		else if (this.taskId2numberPendingResponses.containsKey(subquery.getId()))
+			this.finished(subquery.getId(), worker);
+	}
+
+	/**
+	 * Send a subquery to the next worker in round robin order. We select the worker ourselves instead of letting the
+	 * router do so, because the query monitor needs to know which worker holds the subquery.
+	 */
+	private void route(final Worker.ValidationMessage subquery) {
+		final Routee routee = this.workerRouter.logic().select(subquery, this.workerRouter.routees());
+		routee.send(subquery, this.master);
+		if (routee instanceof ActorRefRoutee)
+			this.queryMonitor.assigned(((ActorRefRoutee) routee).ref(), subquery);
+	}
+
+	@Override
+	public void detectStragglers() {
+		// We do not measure the workers
+	}
+
+	@Override
+	public boolean isPending(final int taskId) {
+		return this.taskId2numberPendingResponses.containsKey(taskId);
+	}
+
 	@Override
 	public boolean hasTasksInProgress() {
 		return !this.taskId2numberPendingResponses.isEmpty();
@@ -100,10 +191,22 @@ public class RoundRobinSchedulingStrategy implements SchedulingStrategy {
 		
 		// Remove the worker from the router
 		this.workerRouter = this.workerRouter.removeRoutee(worker);
+		this.partitioner.removed(worker);
+	}
+
+	@Override
+	public void calibrated(final ActorRef worker, final CostModel costModel) {
+		this.partitioner.calibrated(worker, costModel);
 	}
 
 	@Override
 	public int countWorkers() {
 		return this.numberOfWorkers;
 	}
+
+	@Override
+	public List<WorkerMetrics> workerMetrics() {
+		// We do not measure the workers
+		return Collections.emptyList();
+	}
 }
@@ -1,7 +1,10 @@
 package de.hpi.akka_tutorial.remote.actors.scheduling;
 
+import java.util.List;
+
 import akka.actor.ActorRef;
 import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.remote.actors.engines.CostModel;
 
 public interface SchedulingStrategy {
 
@@ -14,9 +17,10 @@ public interface SchedulingStrategy {
 		 * Create a new {@link SchedulingStrategy}.
 		 *
 		 * @param master that will employ the new instance
+		 * @param queryMonitor the monitor of the master that the new instance should notify of each subquery it assigns
 		 * @return the new {@link SchedulingStrategy}
 		 */
-		SchedulingStrategy create(ActorRef master);
+		SchedulingStrategy create(ActorRef master, QueryMonitor queryMonitor);
 
 	}
 
@@ -26,8 +30,24 @@ public interface SchedulingStrategy {
 	 * @param taskId the id of the task that is to be split and scheduled
 	 * @param startNumber first number of the range
 	 * @param endNumber last number of the range
+	 * @param weight the share of the workers that the task should get relative to the other pending tasks, if the
+	 *               strategy shares the workers among tasks
+	 */
+	void schedule(final int taskId, final long startNumber, final long endNumber, final int weight);
+
+	/**
+	 * Resume a query from a checkpoint, i.e., schedule only the parts of its range that were not yet finished.
+	 *
+	 * @param checkpoint the progress of the query as captured by {@link #checkpoint()}
+	 */
+	void resume(final QueryCheckpoint checkpoint);
+
+	/**
+	 * Capture the progress of all pending queries, so that they can be resumed later on.
+	 *
+	 * @return a checkpoint for each pending query
 	 */
-	void schedule(final int taskId, final long startNumber, final long endNumber);
+	List<QueryCheckpoint> checkpoint();
 
 	/**
 	 * Notify the completion of a worker's task.
@@ -37,6 +57,39 @@ public interface SchedulingStrategy {
 	 */
 	void finished(final int taskId, final ActorRef worker);
 
+	/**
+	 * Cancel a task: Drop its unassigned numbers and ask the workers to stop its subqueries. The workers acknowledge
+	 * each stopped subquery, which is passed on to {@link #cancelled(Worker.ValidationMessage, long, ActorRef)}.
+	 *
+	 * @param taskId the id of the task to cancel
+	 * @return {@code true} if the task was pending
+	 */
+	boolean cancel(final int taskId);
+
+	/**
+	 * Notify that a worker has stopped a subquery before completing it, e.g., because its task was cancelled. If the
+	 * task is still pending, the unchecked rest of the subquery must be scheduled again.
+	 *
+	 * @param subquery the stopped subquery
+	 * @param lastCheckedNumber the last number of the subquery that the worker has checked and reported the primes for
+	 * @param worker the worker that stopped the subquery
+	 */
+	void cancelled(final Worker.ValidationMessage subquery, final long lastCheckedNumber, final ActorRef worker);
+
+	/**
+	 * Check the running subqueries for stragglers, i.e., subqueries that take much longer than usual, and react to
+	 * them, e.g., by executing them speculatively on idle workers. The master calls this method regularly.
+	 */
+	void detectStragglers();
+
+	/**
+	 * Check if a task is still pending, i.e., it has been scheduled or resumed but neither completed nor cancelled.
+	 *
+	 * @param taskId the id of the task
+	 * @return {@code true} if the task is pending
+	 */
+	boolean isPending(final int taskId);
+
 	/**
 	 * Check if there are still any pending tasks.
 	 *
@@ -58,8 +111,23 @@ public interface SchedulingStrategy {
 	 */
 	void removeWorker(final ActorRef worker);
 
+	/**
+	 * Register the calibrated cost model of a {@link Worker} actor, so that ranges can be partitioned by their cost.
+	 *
+	 * @param worker the worker that calibrated the model
+	 * @param costModel the cost model of the worker's prime engine on its machine
+	 */
+	void calibrated(final ActorRef worker, final CostModel costModel);
+
 	/**
 	 * Count the number of active {@link Worker} actors.
 	 */
 	int countWorkers();
+
+	/**
+	 * Report how the subqueries of each {@link Worker} were sized and how fast the worker processed them.
+	 *
+	 * @return the metrics of the measured workers
+	 */
+	List<WorkerMetrics> workerMetrics();
 }
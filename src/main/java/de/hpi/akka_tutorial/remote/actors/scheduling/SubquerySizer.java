@@ -0,0 +1,255 @@
+package de.hpi.akka_tutorial.remote.actors.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import akka.actor.ActorRef;
+import de.hpi.akka_tutorial.remote.actors.Worker;
+
+/**
+ * Sizes subqueries so that each of them takes a target wall-clock time. To this end, it measures the throughput of
+ * each worker separately for each magnitude of numbers, because the cost of checking a number grows with its size.
+ * A magnitude comprises all numbers of the same bit length. For magnitudes that a worker has not processed yet, the
+ * sizes are derived from the calibrated cost models of the {@link CostAwarePartitioner}, corrected by how far the
+ * model's predictions for the worker were off so far.
+ * <p>
+ * Workers may hold several subqueries at once, which they process one after another. Hence, a subquery is timed from
+ * its assignment or from the completion of the worker's previous subquery, whatever happened later.
+ */
+class SubquerySizer {
+
+	// The size of the first subqueries, when no throughput is known yet
+	static final long INITIAL_SUBQUERY_SIZE = 10_000;
+
+	static final long MIN_SUBQUERY_SIZE = 1_000, MAX_SUBQUERY_SIZE = 1L << 30;
+
+	// The weight of a new measurement in the smoothed throughputs
+	private static final double SMOOTHING_FACTOR = 0.5;
+
+	// The number of recently completed subqueries of all workers whose durations are kept
+	private static final int NUM_RECENT_SUBQUERIES = 64;
+
+	/**
+	 * The measurements of a single worker.
+	 */
+	private static class WorkerState {
+
+		// The smoothed throughput in numbers per nanosecond for each magnitude; 0 if unknown
+		private final double[] throughputs = new double[Long.SIZE];
+
+		// The subqueries that the worker holds in the order of assignment and when they were assigned
+		private final Deque<Worker.ValidationMessage> subqueries = new ArrayDeque<>();
+
+		private final Deque<Long> assignmentNanos = new ArrayDeque<>();
+
+		private final Deque<Double> predictedNanos = new ArrayDeque<>();
+
+		// The smoothed ratio of actual to predicted subquery times; 1 if unknown
+		private double predictionRatio = 1;
+
+		private double lastPredictedNanos = Double.NaN;
+
+		private long lastCompletionNanos = Long.MIN_VALUE;
+
+		private long numCompletedSubqueries = 0, lastSubquerySize = 0, lastSubqueryNanos = 0;
+
+		private int lastMagnitude = 0;
+	}
+
+	// The target wall-clock time of each subquery
+	private final long targetNanos;
+
+	private final Map<ActorRef, WorkerState> worker2state = new HashMap<>();
+
+	// The durations of the recently completed subqueries of all workers, oldest first
+	private final Deque<Long> recentSubqueryNanos = new ArrayDeque<>();
+
+	// Predicts subquery times from the calibrated cost models of the workers
+	private final CostAwarePartitioner partitioner;
+
+	SubquerySizer(final long targetNanos, final CostAwarePartitioner partitioner) {
+		this.targetNanos = targetNanos;
+		this.partitioner = partitioner;
+	}
+
+	/**
+	 * Determine how many numbers a subquery for the given worker should contain.
+	 *
+	 * @param worker the worker that should process the subquery
+	 * @param startNumber the first number of the subquery
+	 * @return the number of numbers
+	 */
+	long sizeFor(final ActorRef worker, final long startNumber) {
+		final int magnitude = magnitude(startNumber);
+		final WorkerState workerState = this.worker2state.get(worker);
+
+		// Prefer the worker's own measurements for this magnitude, then the cost models
+		if (workerState == null || workerState.throughputs[magnitude] == 0) {
+			final long maxEndNumber = startNumber > Long.MAX_VALUE - MAX_SUBQUERY_SIZE ? Long.MAX_VALUE : startNumber + MAX_SUBQUERY_SIZE - 1;
+			final double correctedTargetNanos = this.targetNanos / (workerState == null ? 1 : workerState.predictionRatio);
+			final long endNumber = this.partitioner.findEndNumber(worker, startNumber, maxEndNumber, correctedTargetNanos);
+			if (endNumber >= 0)
+				return Math.max(MIN_SUBQUERY_SIZE, endNumber - startNumber + 1);
+		}
+
+		// Fall back to extrapolating the worker's measurements and then to the fastest estimate of any other worker
+		double throughput = estimateThroughput(workerState, magnitude);
+		if (throughput == 0) {
+			for (WorkerState state : this.worker2state.values())
+				throughput = Math.max(throughput, estimateThroughput(state, magnitude));
+		}
+		if (throughput == 0)
+			return INITIAL_SUBQUERY_SIZE;
+
+		final double size = throughput * this.targetNanos;
+		return (long) Math.max(MIN_SUBQUERY_SIZE, Math.min(MAX_SUBQUERY_SIZE, size));
+	}
+
+	/**
+	 * Estimate the throughput of a worker for the given magnitude. If the worker has not processed numbers of that
+	 * magnitude yet, we extrapolate from the closest magnitude that it did process: We pessimistically assume that the
+	 * cost per number grows with the square root of the numbers (as with trial division) and does not shrink for
+	 * smaller numbers. The first subquery in a new magnitude then corrects the estimate.
+	 */
+	private static double estimateThroughput(final WorkerState state, final int magnitude) {
+		if (state == null)
+			return 0;
+		if (state.throughputs[magnitude] > 0)
+			return state.throughputs[magnitude];
+		for (int distance = 1; distance < Long.SIZE; distance++) {
+			if (magnitude - distance >= 0 && state.throughputs[magnitude - distance] > 0)
+				return state.throughputs[magnitude - distance] / Math.pow(Math.sqrt(2), distance);
+			if (magnitude + distance < Long.SIZE && state.throughputs[magnitude + distance] > 0)
+				return state.throughputs[magnitude + distance];
+		}
+		return 0;
+	}
+
+	/**
+	 * Start measuring a subquery that was assigned to a worker.
+	 */
+	void assigned(final ActorRef worker, final Worker.ValidationMessage subquery) {
+		final WorkerState state = this.worker2state.computeIfAbsent(worker, key -> new WorkerState());
+		state.subqueries.add(subquery);
+		state.assignmentNanos.add(System.nanoTime());
+		state.predictedNanos.add(this.partitioner.estimateNanos(worker, subquery.getRangeMin(), subquery.getRangeMax()));
+	}
+
+	/**
+	 * Measure the throughput of the oldest subquery of the worker, which it has just completed.
+	 */
+	void completed(final ActorRef worker) {
+		final WorkerState state = this.worker2state.get(worker);
+		if (state == null || state.subqueries.isEmpty())
+			return;
+
+		final Worker.ValidationMessage subquery = state.subqueries.poll();
+		final long nowNanos = System.nanoTime();
+		final long startNanos = Math.max(state.assignmentNanos.poll(), state.lastCompletionNanos);
+		final double predictedNanos = state.predictedNanos.poll();
+		state.lastCompletionNanos = nowNanos;
+
+		final long nanos = Math.max(1, nowNanos - startNanos);
+		final long size = subquery.getRangeMax() - subquery.getRangeMin() + 1;
+		final int magnitude = magnitude(subquery.getRangeMin());
+		final double throughput = (double) size / nanos;
+		state.throughputs[magnitude] = state.throughputs[magnitude] == 0 ? throughput
+				: SMOOTHING_FACTOR * throughput + (1 - SMOOTHING_FACTOR) * state.throughputs[magnitude];
+
+		if (!Double.isNaN(predictedNanos) && predictedNanos > 0)
+			state.predictionRatio = SMOOTHING_FACTOR * (nanos / predictedNanos) + (1 - SMOOTHING_FACTOR) * state.predictionRatio;
+		state.lastPredictedNanos = predictedNanos;
+
+		this.recentSubqueryNanos.add(nanos);
+		if (this.recentSubqueryNanos.size() > NUM_RECENT_SUBQUERIES)
+			this.recentSubqueryNanos.poll();
+
+		state.numCompletedSubqueries++;
+		state.lastSubquerySize = size;
+		state.lastSubqueryNanos = nanos;
+		state.lastMagnitude = magnitude;
+	}
+
+	/**
+	 * Stop measuring a subquery that the worker did not complete. If the worker was processing it, the worker's next
+	 * subquery starts now.
+	 */
+	void cancelled(final ActorRef worker, final Worker.ValidationMessage subquery) {
+		final WorkerState state = this.worker2state.get(worker);
+		if (state == null)
+			return;
+
+		final Iterator<Worker.ValidationMessage> subqueryIterator = state.subqueries.iterator();
+		final Iterator<Long> assignmentNanosIterator = state.assignmentNanos.iterator();
+		final Iterator<Double> predictedNanosIterator = state.predictedNanos.iterator();
+		boolean isRunning = true;
+		while (subqueryIterator.hasNext()) {
+			final Worker.ValidationMessage candidate = subqueryIterator.next();
+			assignmentNanosIterator.next();
+			predictedNanosIterator.next();
+			if (candidate.equals(subquery)) {
+				subqueryIterator.remove();
+				assignmentNanosIterator.remove();
+				predictedNanosIterator.remove();
+				if (isRunning)
+					state.lastCompletionNanos = System.nanoTime();
+				return;
+			}
+			isRunning = false;
+		}
+	}
+
+	/**
+	 * Determine for how long the worker has been processing its oldest subquery.
+	 *
+	 * @return the elapsed time in nanoseconds or {@code -1} if the worker holds no subquery
+	 */
+	long runningNanos(final ActorRef worker) {
+		final WorkerState state = this.worker2state.get(worker);
+		if (state == null || state.subqueries.isEmpty())
+			return -1;
+		return System.nanoTime() - Math.max(state.assignmentNanos.peek(), state.lastCompletionNanos);
+	}
+
+	/**
+	 * Determine the median duration of the recently completed subqueries of all workers.
+	 *
+	 * @param minNumSubqueries the number of completed subqueries that is needed for a meaningful median
+	 * @return the median in nanoseconds or {@link Double#NaN} if too few subqueries were completed
+	 */
+	double medianSubqueryNanos(final int minNumSubqueries) {
+		if (this.recentSubqueryNanos.size() < Math.max(1, minNumSubqueries))
+			return Double.NaN;
+		final long[] nanos = this.recentSubqueryNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+		return nanos.length % 2 == 1 ? nanos[nanos.length / 2] : (nanos[nanos.length / 2 - 1] + nanos[nanos.length / 2]) / 2.0;
+	}
+
+	/**
+	 * Forget about a worker that has been removed.
+	 */
+	void removed(final ActorRef worker) {
+		this.worker2state.remove(worker);
+	}
+
+	/**
+	 * Report the sizes and throughputs of all measured workers.
+	 */
+	List<WorkerMetrics> metrics() {
+		final List<WorkerMetrics> metrics = new ArrayList<>();
+		for (Map.Entry<ActorRef, WorkerState> entry : this.worker2state.entrySet()) {
+			final WorkerState state = entry.getValue();
+			metrics.add(new WorkerMetrics(entry.getKey(), state.numCompletedSubqueries, state.lastSubquerySize,
+					state.lastSubqueryNanos, state.lastPredictedNanos, state.throughputs[state.lastMagnitude] * 1e9));
+		}
+		return metrics;
+	}
+
+	private static int magnitude(final long number) {
+		return Math.max(0, Long.SIZE - 1 - Long.numberOfLeadingZeros(number));
+	}
+}
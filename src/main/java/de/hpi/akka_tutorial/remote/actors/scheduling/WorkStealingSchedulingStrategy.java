@@ -0,0 +1,387 @@
+package de.hpi.akka_tutorial.remote.actors.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import akka.actor.ActorRef;
+import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.remote.actors.engines.CostModel;
+
+/**
+ * Initially splits each query among the workers into parts of equal estimated cost (see {@link CostAwarePartitioner}),
+ * but lets each worker own a deque of its remaining subranges.
+ * Workers process their deque from the head in chunks that are sized by their measured throughput. Once a worker runs
+ * out of work, it steals the upper half of the tail subrange of the busiest worker, i.e., the worker with the most
+ * remaining numbers. Thereby, workers that drew expensive high ranges or that are slower than their peers are relieved.
+ */
+public class WorkStealingSchedulingStrategy implements SchedulingStrategy {
+
+	/**
+	 * {@link SchedulingStrategy.Factory} implementation for the {@link WorkStealingSchedulingStrategy}.
+	 */
+	public static class Factory implements SchedulingStrategy.Factory {
+
+		// The target wall-clock time of each subquery
+		private final long targetSubqueryMillis;
+
+		public Factory() {
+			this(ReactiveSchedulingStrategy.DEFAULT_TARGET_SUBQUERY_MILLIS);
+		}
+
+		public Factory(final long targetSubqueryMillis) {
+			this.targetSubqueryMillis = targetSubqueryMillis;
+		}
+
+		@Override
+		public WorkStealingSchedulingStrategy create(ActorRef master, QueryMonitor queryMonitor) {
+			return new WorkStealingSchedulingStrategy(master, queryMonitor, this.targetSubqueryMillis);
+		}
+	}
+
+	// Subranges with fewer numbers are not split any further when stolen
+	private static final long MIN_STEAL_SIZE = 2 * SubquerySizer.MIN_SUBQUERY_SIZE;
+
+	/**
+	 * A contiguous range of numbers of a query that has not been assigned to a worker yet.
+	 */
+	private static class Subrange {
+
+		private final int queryId;
+
+		private long startNumber, endNumber;
+
+		Subrange(final int queryId, final long startNumber, final long endNumber) {
+			this.queryId = queryId;
+			this.startNumber = startNumber;
+			this.endNumber = endNumber;
+		}
+
+		long size() {
+			return this.endNumber - this.startNumber + 1;
+		}
+	}
+
+	/**
+	 * The work that a single worker owns.
+	 */
+	private static class WorkerState {
+
+		// The subranges that the worker will process, front to back
+		private final Deque<Subrange> subranges = new ArrayDeque<>();
+
+		// The number of numbers in the subranges
+		private long numOwnedNumbers = 0;
+
+		// The subquery that the worker is currently processing, if any
+		private Worker.ValidationMessage runningSubquery;
+	}
+
+	// The workers and their work; kept in insertion order, so that the initial split is deterministic
+	private final Map<ActorRef, WorkerState> worker2state = new LinkedHashMap<>();
+
+	// Subranges that no worker owns, e.g., because their owner has terminated; idle workers take these before stealing
+	private final Deque<Subrange> orphanedSubranges = new ArrayDeque<>();
+
+	// The number of numbers of each pending query that have not been completed yet
+	private final Map<Integer, Long> queryId2numUnfinishedNumbers = new LinkedHashMap<>();
+
+	// The weights of the pending queries; the workers process the queries in their order, so we only keep them for the checkpoints
+	private final Map<Integer, Integer> queryId2weight = new LinkedHashMap<>();
+
+	// A reference to the actor in whose name we send messages
+	private final ActorRef master;
+
+	// Follows the subqueries that we assign on behalf of the master
+	private final QueryMonitor queryMonitor;
+
+	// Estimates the cost of ranges from the calibrated cost models of the workers
+	private final CostAwarePartitioner partitioner = new CostAwarePartitioner();
+
+	// Measures the throughput of the workers and sizes their subqueries accordingly
+	private final SubquerySizer subquerySizer;
+
+	public WorkStealingSchedulingStrategy(ActorRef master, QueryMonitor queryMonitor) {
+		this(master, queryMonitor, ReactiveSchedulingStrategy.DEFAULT_TARGET_SUBQUERY_MILLIS);
+	}
+
+	public WorkStealingSchedulingStrategy(ActorRef master, QueryMonitor queryMonitor, long targetSubqueryMillis) {
+		this.master = master;
+		this.queryMonitor = queryMonitor;
+		this.subquerySizer = new SubquerySizer(TimeUnit.MILLISECONDS.toNanos(targetSubqueryMillis), this.partitioner);
+	}
+
+	@Override
+	public void schedule(final int taskId, final long startNumber, final long endNumber, final int weight) {
+		if (startNumber > endNumber)
+			return;
+		this.queryId2numUnfinishedNumbers.put(taskId, endNumber - startNumber + 1);
+		this.queryId2weight.put(taskId, weight);
+
+		// Split the range among the workers by estimated cost; without workers, the range waits for the first one
+		if (this.worker2state.isEmpty()) {
+			this.orphanedSubranges.add(new Subrange(taskId, startNumber, endNumber));
+		} else {
+			final long[] endNumbers = this.partitioner.split(startNumber, endNumber, this.worker2state.size());
+			long currentStartNumber = startNumber;
+			int i = 0;
+			for (WorkerState state : this.worker2state.values()) {
+				final long currentEndNumber = endNumbers[i++];
+				if (currentStartNumber <= currentEndNumber)
+					this.own(state, new Subrange(taskId, currentStartNumber, currentEndNumber));
+				currentStartNumber = currentEndNumber + 1;
+			}
+		}
+
+		this.assignSubqueries();
+	}
+
+	@Override
+	public void resume(final QueryCheckpoint checkpoint) {
+
+		// Hand out the unfinished parts of the query as orphaned subranges
+		long numUnfinishedNumbers = 0;
+		for (Worker.ValidationMessage subquery : checkpoint.getOpenSubqueries()) {
+			this.orphanedSubranges.add(new Subrange(checkpoint.getQueryId(), subquery.getRangeMin(), subquery.getRangeMax()));
+			numUnfinishedNumbers += subquery.getRangeMax() - subquery.getRangeMin() + 1;
+		}
+		if (checkpoint.getRemainingStartNumber() <= checkpoint.getRemainingEndNumber()) {
+			this.orphanedSubranges.add(new Subrange(checkpoint.getQueryId(), checkpoint.getRemainingStartNumber(), checkpoint.getRemainingEndNumber()));
+			numUnfinishedNumbers += checkpoint.getRemainingEndNumber() - checkpoint.getRemainingStartNumber() + 1;
+		}
+		if (numUnfinishedNumbers == 0)
+			return;
+		this.queryId2numUnfinishedNumbers.put(checkpoint.getQueryId(), numUnfinishedNumbers);
+		this.queryId2weight.put(checkpoint.getQueryId(), checkpoint.getWeight());
+
+		this.assignSubqueries();
+	}
+
+	@Override
+	public List<QueryCheckpoint> checkpoint() {
+
+		// Collect all unfinished subranges of each query; the whole range of a query is covered by them
+		final Map<Integer, List<Worker.ValidationMessage>> queryId2openSubqueries = new LinkedHashMap<>();
+		for (Integer queryId : this.queryId2numUnfinishedNumbers.keySet())
+			queryId2openSubqueries.put(queryId, new ArrayList<>());
+		for (WorkerState state : this.worker2state.values()) {
+			if (state.runningSubquery != null && queryId2openSubqueries.containsKey(state.runningSubquery.getId()))
+				queryId2openSubqueries.get(state.runningSubquery.getId()).add(state.runningSubquery);
+			for (Subrange subrange : state.subranges)
+				queryId2openSubqueries.get(subrange.queryId).add(new Worker.ValidationMessage(subrange.queryId, subrange.startNumber, subrange.endNumber));
+		}
+		for (Subrange subrange : this.orphanedSubranges)
+			queryId2openSubqueries.get(subrange.queryId).add(new Worker.ValidationMessage(subrange.queryId, subrange.startNumber, subrange.endNumber));
+
+		final List<QueryCheckpoint> checkpoints = new ArrayList<>();
+		for (Map.Entry<Integer, List<Worker.ValidationMessage>> entry : queryId2openSubqueries.entrySet())
+			checkpoints.add(new QueryCheckpoint(entry.getKey(), entry.getValue(), 0, -1, this.queryId2weight.get(entry.getKey())));
+		return checkpoints;
+	}
+
+	@Override
+	public void finished(final int taskId, final ActorRef worker) {
+		final WorkerState state = this.worker2state.get(worker);
+		if (state == null || state.runningSubquery == null || state.runningSubquery.getId() != taskId)
+			return;
+
+		// Account for the completed numbers
+		final Worker.ValidationMessage subquery = state.runningSubquery;
+		state.runningSubquery = null;
+		this.subquerySizer.completed(worker);
+		this.completed(taskId, subquery.getRangeMax() - subquery.getRangeMin() + 1);
+
+		this.assignSubqueries();
+	}
+
+	@Override
+	public boolean cancel(final int taskId) {
+		if (this.queryId2numUnfinishedNumbers.remove(taskId) == null)
+			return false;
+		this.queryId2weight.remove(taskId);
+
+		// Drop the subranges of the query that have not been assigned yet
+		this.orphanedSubranges.removeIf(subrange -> subrange.queryId == taskId);
+		for (Map.Entry<ActorRef, WorkerState> entry : this.worker2state.entrySet()) {
+			final WorkerState state = entry.getValue();
+			for (Iterator<Subrange> subrangeIterator = state.subranges.iterator(); subrangeIterator.hasNext(); ) {
+				final Subrange subrange = subrangeIterator.next();
+				if (subrange.queryId == taskId) {
+					subrangeIterator.remove();
+					state.numOwnedNumbers -= subrange.size();
+				}
+			}
+
+			// Ask the worker to stop its running subquery of the query; it stays busy until it acknowledges
+			if (state.runningSubquery != null && state.runningSubquery.getId() == taskId)
+				entry.getKey().tell(new Worker.CancelMessage(taskId), this.master);
+		}
+		return true;
+	}
+
+	@Override
+	public void cancelled(final Worker.ValidationMessage subquery, final long lastCheckedNumber, final ActorRef worker) {
+		final WorkerState state = this.worker2state.get(worker);
+		if (state == null || !subquery.equals(state.runningSubquery))
+			return;
+		state.runningSubquery = null;
+		this.subquerySizer.cancelled(worker, subquery);
+
+		// If the query is still pending, the subquery was preempted: Account for its checked numbers and let the worker keep the rest
+		if (this.queryId2numUnfinishedNumbers.containsKey(subquery.getId())) {
+			this.completed(subquery.getId(), lastCheckedNumber - subquery.getRangeMin() + 1);
+			if (lastCheckedNumber < subquery.getRangeMax()) {
+				state.subranges.addFirst(new Subrange(subquery.getId(), lastCheckedNumber + 1, subquery.getRangeMax()));
+				state.numOwnedNumbers += subquery.getRangeMax() - lastCheckedNumber;
+			}
+		}
+
+		this.assignSubqueries();
+	}
+
+	/**
+	 * Account for completed numbers of a query and remove the query once all of its numbers are done.
+	 */
+	private void completed(final int queryId, final long numCompletedNumbers) {
+		final Long numUnfinishedNumbers = this.queryId2numUnfinishedNumbers.get(queryId);
+		if (numUnfinishedNumbers == null)
+			return;
+		if (numUnfinishedNumbers - numCompletedNumbers == 0) {
+			this.queryId2numUnfinishedNumbers.remove(queryId);
+			this.queryId2weight.remove(queryId);
+		}
+		else
+			this.queryId2numUnfinishedNumbers.put(queryId, numUnfinishedNumbers - numCompletedNumbers);
+	}
+
+	@Override
+	public void detectStragglers() {
+		// Stragglers are relieved by stealing from their subranges
+	}
+
+	@Override
+	public boolean isPending(final int taskId) {
+		return this.queryId2numUnfinishedNumbers.containsKey(taskId);
+	}
+
+	@Override
+	public boolean hasTasksInProgress() {
+		return !this.queryId2numUnfinishedNumbers.isEmpty();
+	}
+
+	@Override
+	public void addWorker(final ActorRef worker) {
+
+		// The new worker starts without work and will take orphaned subranges or steal
+		this.worker2state.put(worker, new WorkerState());
+		this.assignSubqueries();
+	}
+
+	@Override
+	public void removeWorker(final ActorRef worker) {
+		final WorkerState state = this.worker2state.remove(worker);
+		this.subquerySizer.removed(worker);
+		this.partitioner.removed(worker);
+		if (state == null)
+			return;
+
+		// Orphan the running subquery (unless its query was cancelled) and all subranges of the worker, so that the other workers can take them over
+		if (state.runningSubquery != null && this.queryId2numUnfinishedNumbers.containsKey(state.runningSubquery.getId()))
+			this.orphanedSubranges.addFirst(new Subrange(state.runningSubquery.getId(), state.runningSubquery.getRangeMin(), state.runningSubquery.getRangeMax()));
+		this.orphanedSubranges.addAll(state.subranges);
+
+		this.assignSubqueries();
+	}
+
+	@Override
+	public void calibrated(final ActorRef worker, final CostModel costModel) {
+		if (this.worker2state.containsKey(worker))
+			this.partitioner.calibrated(worker, costModel);
+	}
+
+	@Override
+	public int countWorkers() {
+		return this.worker2state.size();
+	}
+
+	@Override
+	public List<WorkerMetrics> workerMetrics() {
+		return this.subquerySizer.metrics();
+	}
+
+	/**
+	 * Send a subquery to every worker that is not busy, letting it take orphaned subranges or steal if necessary.
+	 */
+	private void assignSubqueries() {
+		for (Map.Entry<ActorRef, WorkerState> entry : this.worker2state.entrySet()) {
+			final ActorRef worker = entry.getKey();
+			final WorkerState state = entry.getValue();
+			if (state.runningSubquery != null)
+				continue;
+
+			// Make sure that the worker owns some work
+			if (state.subranges.isEmpty() && !this.orphanedSubranges.isEmpty())
+				this.own(state, this.orphanedSubranges.poll());
+			if (state.subranges.isEmpty() && !this.steal(state))
+				continue;
+
+			// Cut a subquery from the front of the worker's first subrange
+			final Subrange subrange = state.subranges.peekFirst();
+			final long subquerySize = Math.min(subrange.size(), this.subquerySizer.sizeFor(worker, subrange.startNumber));
+			final Worker.ValidationMessage subquery = new Worker.ValidationMessage(subrange.queryId, subrange.startNumber, subrange.startNumber + subquerySize - 1);
+			subrange.startNumber += subquerySize;
+			state.numOwnedNumbers -= subquerySize;
+			if (subrange.startNumber > subrange.endNumber)
+				state.subranges.pollFirst();
+
+			// Send the subquery to the worker
+			worker.tell(subquery, this.master);
+			state.runningSubquery = subquery;
+			this.subquerySizer.assigned(worker, subquery);
+			this.queryMonitor.assigned(worker, subquery);
+		}
+	}
+
+	/**
+	 * Let the thief take over the upper half (by estimated cost) of the tail subrange of the worker with the most
+	 * remaining numbers.
+	 *
+	 * @return whether anything was stolen
+	 */
+	private boolean steal(final WorkerState thief) {
+
+		// Find the busiest worker
+		WorkerState victim = null;
+		for (WorkerState state : this.worker2state.values())
+			if (state != thief && (victim == null || state.numOwnedNumbers > victim.numOwnedNumbers))
+				victim = state;
+		if (victim == null || victim.subranges.isEmpty())
+			return false;
+
+		// Split the tail subrange unless it is too small to be worth splitting; then take it completely if the victim has further work
+		final Subrange tail = victim.subranges.peekLast();
+		final Subrange loot;
+		if (tail.size() >= MIN_STEAL_SIZE) {
+			final long splitNumber = Math.max(tail.startNumber + 1, this.partitioner.split(tail.startNumber, tail.endNumber, 2)[0] + 1);
+			loot = new Subrange(tail.queryId, splitNumber, tail.endNumber);
+			tail.endNumber = splitNumber - 1;
+		} else if (victim.subranges.size() > 1 || victim.runningSubquery == null) {
+			loot = victim.subranges.pollLast();
+		} else {
+			return false;
+		}
+		victim.numOwnedNumbers -= loot.size();
+		this.own(thief, loot);
+		return true;
+	}
+
+	private void own(final WorkerState state, final Subrange subrange) {
+		state.subranges.add(subrange);
+		state.numOwnedNumbers += subrange.size();
+	}
+}
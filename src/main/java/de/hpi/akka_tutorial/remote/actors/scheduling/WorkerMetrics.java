@@ -0,0 +1,67 @@
+package de.hpi.akka_tutorial.remote.actors.scheduling;
+
+import akka.actor.ActorRef;
+
+/**
+ * Describes how a {@link SchedulingStrategy} sized the subqueries of a worker and how fast the worker processed them.
+ */
+public class WorkerMetrics {
+
+	private final ActorRef worker;
+
+	private final long numCompletedSubqueries, lastSubquerySize, lastSubqueryNanos;
+
+	private final double lastPredictedNanos;
+
+	private final double numbersPerSecond;
+
+	/**
+	 * Construct a new {@link WorkerMetrics} object.
+	 *
+	 * @param worker the described worker
+	 * @param numCompletedSubqueries the number of subqueries that the worker completed
+	 * @param lastSubquerySize the number of numbers in the last completed subquery
+	 * @param lastSubqueryNanos the wall-clock time of the last completed subquery
+	 * @param lastPredictedNanos the time that the cost model predicted for the last completed subquery or {@link Double#NaN}
+	 * @param numbersPerSecond the smoothed throughput of the worker for numbers of the magnitude of its last subquery
+	 */
+	public WorkerMetrics(final ActorRef worker, final long numCompletedSubqueries, final long lastSubquerySize, final long lastSubqueryNanos,
+			final double lastPredictedNanos, final double numbersPerSecond) {
+		this.worker = worker;
+		this.numCompletedSubqueries = numCompletedSubqueries;
+		this.lastSubquerySize = lastSubquerySize;
+		this.lastSubqueryNanos = lastSubqueryNanos;
+		this.lastPredictedNanos = lastPredictedNanos;
+		this.numbersPerSecond = numbersPerSecond;
+	}
+
+	public ActorRef getWorker() {
+		return this.worker;
+	}
+
+	public long getNumCompletedSubqueries() {
+		return this.numCompletedSubqueries;
+	}
+
+	public long getLastSubquerySize() {
+		return this.lastSubquerySize;
+	}
+
+	public long getLastSubqueryNanos() {
+		return this.lastSubqueryNanos;
+	}
+
+	public double getLastPredictedNanos() {
+		return this.lastPredictedNanos;
+	}
+
+	public double getNumbersPerSecond() {
+		return this.numbersPerSecond;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %,d subqueries, last of %,d numbers in %,.1f ms (predicted %,.1f ms), %,.0f numbers/s", this.worker.path(),
+				this.numCompletedSubqueries, this.lastSubquerySize, this.lastSubqueryNanos / 1e6, this.lastPredictedNanos / 1e6, this.numbersPerSecond);
+	}
+}
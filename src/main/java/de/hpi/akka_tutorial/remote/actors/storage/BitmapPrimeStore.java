@@ -0,0 +1,264 @@
+package de.hpi.akka_tutorial.remote.actors.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongPredicate;
+
+/**
+ * A {@link PrimeStore} that represents the odd numbers as a compressed bitmap in the style of roaring bitmaps: The
+ * number space is cut into blocks of 2^16 odd numbers. Each non-empty block has a container that stores the offsets of
+ * its primes either as a sorted array (for sparse blocks) or as a bitmap with one bit per odd number (for dense
+ * blocks). Hence, a block never takes more than 8 KiB, i.e., the store needs at most one bit per odd number or two
+ * bytes per prime, whatever is smaller.
+ */
+public class BitmapPrimeStore implements PrimeStore {
+
+	/**
+	 * {@link PrimeStore.Factory} implementation for the {@link BitmapPrimeStore}.
+	 */
+	public static class Factory implements PrimeStore.Factory {
+
+		@Override
+		public BitmapPrimeStore create() {
+			return new BitmapPrimeStore();
+		}
+	}
+
+	// Each block covers 2^17 numbers, i.e., 2^16 odd numbers
+	private static final int BLOCK_BITS = 17;
+
+	// Array containers are converted to bitmap containers beyond this size, at which both take 8 KiB
+	private static final int MAX_ARRAY_CONTAINER_SIZE = 4096;
+
+	/**
+	 * Stores the 16 bit offsets of the primes within a block.
+	 */
+	private interface Container {
+
+		/**
+		 * @return the container that contains the offset afterwards (possibly a new one), or {@code null} if the offset
+		 * was already contained
+		 */
+		Container add(final char offset);
+
+		boolean contains(final char offset);
+
+		/**
+		 * @return the number of contained offsets between the given offsets (inclusive)
+		 */
+		int count(final char fromOffset, final char toOffset);
+
+		/**
+		 * @return {@code false} if the visitor asked to stop
+		 */
+		boolean forEach(final char fromOffset, final long blockStart, final LongPredicate visitor);
+	}
+
+	/**
+	 * A {@link Container} for sparse blocks that keeps the offsets in a sorted array.
+	 */
+	private static class ArrayContainer implements Container {
+
+		private char[] offsets = new char[16];
+
+		private int size = 0;
+
+		@Override
+		public Container add(final char offset) {
+
+			// Primes usually arrive in ascending order, so check the end of the array first
+			int position;
+			if (this.size == 0 || this.offsets[this.size - 1] < offset) {
+				position = this.size;
+			} else {
+				position = Arrays.binarySearch(this.offsets, 0, this.size, offset);
+				if (position >= 0)
+					return null;
+				position = -position - 1;
+			}
+
+			// Switch to a bitmap once the array is as large as the bitmap would be
+			if (this.size >= MAX_ARRAY_CONTAINER_SIZE) {
+				final BitmapContainer bitmap = new BitmapContainer();
+				for (int i = 0; i < this.size; i++)
+					bitmap.add(this.offsets[i]);
+				bitmap.add(offset);
+				return bitmap;
+			}
+
+			if (this.size == this.offsets.length)
+				this.offsets = Arrays.copyOf(this.offsets, Math.min(2 * this.offsets.length, MAX_ARRAY_CONTAINER_SIZE));
+			System.arraycopy(this.offsets, position, this.offsets, position + 1, this.size - position);
+			this.offsets[position] = offset;
+			this.size++;
+			return this;
+		}
+
+		@Override
+		public boolean contains(final char offset) {
+			return Arrays.binarySearch(this.offsets, 0, this.size, offset) >= 0;
+		}
+
+		@Override
+		public int count(final char fromOffset, final char toOffset) {
+			int fromPosition = Arrays.binarySearch(this.offsets, 0, this.size, fromOffset);
+			if (fromPosition < 0)
+				fromPosition = -fromPosition - 1;
+			int toPosition = Arrays.binarySearch(this.offsets, 0, this.size, toOffset);
+			toPosition = toPosition < 0 ? -toPosition - 1 : toPosition + 1;
+			return Math.max(0, toPosition - fromPosition);
+		}
+
+		@Override
+		public boolean forEach(final char fromOffset, final long blockStart, final LongPredicate visitor) {
+			int position = Arrays.binarySearch(this.offsets, 0, this.size, fromOffset);
+			if (position < 0)
+				position = -position - 1;
+			for (int i = position; i < this.size; i++)
+				if (!visitor.test(blockStart + 2L * this.offsets[i] + 1))
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * A {@link Container} for dense blocks that keeps one bit per odd number.
+	 */
+	private static class BitmapContainer implements Container {
+
+		private final long[] words = new long[(1 << (BLOCK_BITS - 1)) / Long.SIZE];
+
+		@Override
+		public Container add(final char offset) {
+			final long mask = 1L << offset;
+			if ((this.words[offset >>> 6] & mask) != 0)
+				return null;
+			this.words[offset >>> 6] |= mask;
+			return this;
+		}
+
+		@Override
+		public boolean contains(final char offset) {
+			return (this.words[offset >>> 6] & (1L << offset)) != 0;
+		}
+
+		@Override
+		public int count(final char fromOffset, final char toOffset) {
+			int count = 0;
+			for (int word = fromOffset >>> 6; word <= toOffset >>> 6; word++) {
+				long bits = this.words[word];
+				if (word == fromOffset >>> 6)
+					bits &= -1L << fromOffset;
+				if (word == toOffset >>> 6)
+					bits &= -1L >>> (Long.SIZE - 1 - (toOffset & (Long.SIZE - 1)));
+				count += Long.bitCount(bits);
+			}
+			return count;
+		}
+
+		@Override
+		public boolean forEach(final char fromOffset, final long blockStart, final LongPredicate visitor) {
+			for (int word = fromOffset >>> 6; word < this.words.length; word++) {
+				long bits = this.words[word];
+				if (word == fromOffset >>> 6)
+					bits &= -1L << fromOffset;
+				while (bits != 0) {
+					final int offset = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+					if (!visitor.test(blockStart + 2L * offset + 1))
+						return false;
+					bits &= bits - 1;
+				}
+			}
+			return true;
+		}
+	}
+
+	// The containers of the non-empty blocks by their block index
+	private final TreeMap<Long, Container> blocks = new TreeMap<>();
+
+	// The only even prime is not represented in the blocks
+	private boolean containsTwo = false;
+
+	private long size = 0;
+
+	@Override
+	public boolean add(final long prime) {
+		if (prime == 2) {
+			if (this.containsTwo)
+				return false;
+			this.containsTwo = true;
+			this.size++;
+			return true;
+		}
+		if (prime < 2 || (prime & 1) == 0)
+			throw new IllegalArgumentException(String.format("%d is not an odd prime.", prime));
+
+		final Long block = prime >>> BLOCK_BITS;
+		final Container container = this.blocks.get(block);
+		final Container newContainer = (container == null ? new ArrayContainer() : container).add(offset(prime));
+		if (newContainer == null)
+			return false;
+		if (newContainer != container)
+			this.blocks.put(block, newContainer);
+		this.size++;
+		return true;
+	}
+
+	@Override
+	public boolean contains(final long number) {
+		if (number == 2)
+			return this.containsTwo;
+		if (number < 2 || (number & 1) == 0)
+			return false;
+		final Container container = this.blocks.get(number >>> BLOCK_BITS);
+		return container != null && container.contains(offset(number));
+	}
+
+	@Override
+	public long size() {
+		return this.size;
+	}
+
+	@Override
+	public long count(final long from, final long to) {
+		long count = from <= 2 && to >= 2 && this.containsTwo ? 1 : 0;
+
+		// Count the odd numbers between the first and the last odd number of the range, block by block
+		if (to < 3)
+			return count;
+		final long start = Math.max(from, 3) | 1, end = (to & 1) == 0 ? to - 1 : to;
+		if (start > end)
+			return count;
+		final long startBlock = start >>> BLOCK_BITS, endBlock = end >>> BLOCK_BITS;
+		for (Map.Entry<Long, Container> entry : this.blocks.subMap(startBlock, true, endBlock, true).entrySet()) {
+			final long block = entry.getKey();
+			final char fromOffset = block == startBlock ? offset(start) : 0;
+			final char toOffset = block == endBlock ? offset(end) : (char) ((1 << (BLOCK_BITS - 1)) - 1);
+			count += entry.getValue().count(fromOffset, toOffset);
+		}
+		return count;
+	}
+
+	@Override
+	public void forEach(final long from, final LongPredicate visitor) {
+		if (from <= 2 && this.containsTwo && !visitor.test(2))
+			return;
+
+		final long start = Math.max(from, 3);
+		final long startBlock = start >>> BLOCK_BITS;
+		for (Map.Entry<Long, Container> entry : this.blocks.tailMap(startBlock, true).entrySet()) {
+			final long block = entry.getKey();
+			final char fromOffset = block == startBlock ? offset(start + 1 - (start & 1)) : 0;
+			if (!entry.getValue().forEach(fromOffset, block << BLOCK_BITS, visitor))
+				return;
+		}
+	}
+
+	/**
+	 * Calculate the offset of an odd number within its block.
+	 */
+	private static char offset(final long oddNumber) {
+		return (char) ((oddNumber & ((1L << BLOCK_BITS) - 1)) >>> 1);
+	}
+}
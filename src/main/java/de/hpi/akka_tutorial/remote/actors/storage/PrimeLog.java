@@ -0,0 +1,227 @@
+package de.hpi.akka_tutorial.remote.actors.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import de.hpi.akka_tutorial.util.DeltaEncoding;
+
+/**
+ * An append-only log of discovered primes on disk. The log consists of segment files of fixed size that are written
+ * through a {@link MappedByteBuffer}. Each record holds the delta-encoded primes of one batch together with the ID of
+ * their query and a checksum, so that a torn record at the end of the log is detected and dropped on recovery.
+ * <p>
+ * Segment layout: {@code MAGIC, VERSION, record*, 0}. Record layout: {@code payloadLength, crc32(payload), payload}
+ * with {@code payload = varint(queryId), deltaEncoding(primes)}.
+ */
+public class PrimeLog implements Closeable {
+
+	/**
+	 * Receives the records of a log upon recovery.
+	 */
+	public interface RecordVisitor {
+
+		/**
+		 * Visit a record.
+		 *
+		 * @param queryId the ID of the query that discovered the primes
+		 * @param primes  the primes of the record in ascending order
+		 */
+		void visit(int queryId, long[] primes);
+	}
+
+	// The size of each segment file
+	private static final int SEGMENT_SIZE = 64 << 20;
+
+	private static final int MAGIC = 0x50524D4C; // "PRML"
+
+	private static final int VERSION = 1;
+
+	private static final int SEGMENT_HEADER_SIZE = 8, RECORD_HEADER_SIZE = 8;
+
+	// Force the written records to disk after this many bytes
+	private static final int SYNC_BATCH_SIZE = 1 << 20;
+
+	private static final String SEGMENT_PREFIX = "primes-", SEGMENT_SUFFIX = ".log";
+
+	// The directory of the segment files
+	private final Path directory;
+
+	// The segment that is currently written to, its index, and the number of written but not yet synced bytes
+	private MappedByteBuffer segment;
+
+	private int segmentIndex = -1;
+
+	private int numUnsyncedBytes = 0;
+
+	private final CRC32 crc = new CRC32();
+
+	private PrimeLog(final Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Open the log in the given directory, replay all of its records, and prepare it for appending further records.
+	 *
+	 * @param directory the directory of the log; it is created if necessary
+	 * @param visitor   receives the records of the log
+	 * @return the opened log
+	 * @throws IOException if the log cannot be read or prepared for writing
+	 */
+	public static PrimeLog open(final Path directory, final RecordVisitor visitor) throws IOException {
+		Files.createDirectories(directory);
+		final PrimeLog log = new PrimeLog(directory);
+
+		// Replay all existing segments and continue writing at the end of the last one
+		for (int segmentIndex : log.listSegments()) {
+			log.openSegment(segmentIndex);
+			log.replaySegment(visitor);
+		}
+		if (log.segment == null)
+			log.openSegment(0);
+		return log;
+	}
+
+	/**
+	 * Append a batch of primes to the log. The batch is not necessarily durable before the next {@link #sync()}.
+	 *
+	 * @param queryId the ID of the query that discovered the primes
+	 * @param primes  the primes in ascending order
+	 * @throws IOException if a new segment cannot be created
+	 */
+	public void append(final int queryId, final long[] primes) throws IOException {
+		final int payloadLength = DeltaEncoding.varLongLength(queryId) + DeltaEncoding.encodedLength(primes, 0, primes.length);
+		final int recordLength = RECORD_HEADER_SIZE + payloadLength;
+		if (recordLength + 4 > SEGMENT_SIZE - SEGMENT_HEADER_SIZE)
+			throw new IllegalArgumentException(String.format("Batch of %d primes does not fit into a segment.", primes.length));
+
+		// Roll over to a new segment if the record (and the end marker) does not fit
+		if (this.segment.remaining() < recordLength + 4) {
+			this.sync();
+			this.openSegment(this.segmentIndex + 1);
+		}
+
+		// Write the payload behind the header, then the header, and mark the new end of the log
+		final int recordStart = this.segment.position();
+		seek(this.segment, recordStart + RECORD_HEADER_SIZE);
+		DeltaEncoding.writeVarLong(queryId, this.segment);
+		DeltaEncoding.encode(primes, 0, primes.length, this.segment);
+		this.segment.putInt(recordStart + 4, this.checksum(recordStart + RECORD_HEADER_SIZE, payloadLength));
+		this.segment.putInt(recordStart, payloadLength);
+		this.segment.putInt(this.segment.position(), 0);
+
+		this.numUnsyncedBytes += recordLength;
+		if (this.numUnsyncedBytes >= SYNC_BATCH_SIZE)
+			this.sync();
+	}
+
+	/**
+	 * Force all appended records to disk.
+	 */
+	public void sync() {
+		if (this.numUnsyncedBytes > 0) {
+			this.segment.force();
+			this.numUnsyncedBytes = 0;
+		}
+	}
+
+	@Override
+	public void close() {
+		this.sync();
+		this.segment = null;
+	}
+
+	/**
+	 * Replay the records of the current segment from its beginning and position it behind the last valid record.
+	 */
+	private void replaySegment(final RecordVisitor visitor) {
+		final MappedByteBuffer segment = this.segment;
+		seek(segment, SEGMENT_HEADER_SIZE);
+		while (segment.remaining() >= RECORD_HEADER_SIZE) {
+			final int recordStart = segment.position();
+			final int payloadLength = segment.getInt(recordStart);
+			if (payloadLength <= 0 || payloadLength > segment.limit() - recordStart - RECORD_HEADER_SIZE)
+				break;
+			if (segment.getInt(recordStart + 4) != this.checksum(recordStart + RECORD_HEADER_SIZE, payloadLength))
+				break;
+
+			seek(segment, recordStart + RECORD_HEADER_SIZE);
+			final int queryId = (int) DeltaEncoding.readVarLong(segment);
+			visitor.visit(queryId, DeltaEncoding.decode(segment));
+			seek(segment, recordStart + RECORD_HEADER_SIZE + payloadLength);
+		}
+
+		// Cut off anything behind the last valid record
+		if (segment.remaining() >= 4)
+			segment.putInt(segment.position(), 0);
+	}
+
+	/**
+	 * Map the segment with the given index (creating it if necessary) and make it the current segment.
+	 */
+	private void openSegment(final int index) throws IOException {
+		final Path path = this.directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+		final boolean isNew = !Files.exists(path);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			this.segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+		}
+		this.segmentIndex = index;
+
+		if (isNew) {
+			this.segment.putInt(MAGIC).putInt(VERSION).putInt(this.segment.position(), 0);
+			this.segment.force();
+		} else if (this.segment.getInt(0) != MAGIC || this.segment.getInt(4) != VERSION) {
+			throw new IOException(String.format("%s is not a prime log segment.", path));
+		} else {
+			seek(this.segment, SEGMENT_HEADER_SIZE);
+		}
+	}
+
+	/**
+	 * List the indexes of the existing segments in ascending order.
+	 */
+	private List<Integer> listSegments() throws IOException {
+		final List<Integer> indexes = new ArrayList<>();
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : paths) {
+				final String name = path.getFileName().toString();
+				try {
+					indexes.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// Not one of our segments
+				}
+			}
+		}
+		Collections.sort(indexes);
+		return indexes;
+	}
+
+	/**
+	 * Set the position of a buffer. The buffer is typed as {@link Buffer}, so that the bytecode also runs on Java 8
+	 * when compiled with a newer JDK, which has covariant overrides of this method in its subclasses. For the same
+	 * reason, {@link #checksum(int, int)} duplicates the segment as a plain {@link ByteBuffer}.
+	 */
+	private static void seek(final Buffer buffer, final int position) {
+		buffer.position(position);
+	}
+
+	private int checksum(final int offset, final int length) {
+		final ByteBuffer payload = ((ByteBuffer) this.segment).duplicate();
+		((Buffer) payload).limit(offset + length);
+		seek(payload, offset);
+		this.crc.reset();
+		this.crc.update(payload);
+		return (int) this.crc.getValue();
+	}
+}
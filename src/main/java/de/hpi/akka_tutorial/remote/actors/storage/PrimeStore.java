@@ -0,0 +1,65 @@
+package de.hpi.akka_tutorial.remote.actors.storage;
+
+import java.util.function.LongPredicate;
+
+import de.hpi.akka_tutorial.remote.actors.Listener;
+
+/**
+ * A prime store keeps the primes that a {@link Listener} has collected.
+ */
+public interface PrimeStore {
+
+	/**
+	 * A factory for a {@link PrimeStore}.
+	 */
+	interface Factory {
+
+		/**
+		 * Create a new, empty {@link PrimeStore}.
+		 *
+		 * @return the new {@link PrimeStore}
+		 */
+		PrimeStore create();
+
+	}
+
+	/**
+	 * Add a prime to the store.
+	 *
+	 * @param prime the prime to add
+	 * @return {@code true} if the prime was not contained in the store before
+	 */
+	boolean add(final long prime);
+
+	/**
+	 * Check whether a number is contained in the store.
+	 *
+	 * @param number the number to check
+	 * @return {@code true} if the number is contained
+	 */
+	boolean contains(final long number);
+
+	/**
+	 * Count the primes in the store.
+	 *
+	 * @return the number of primes
+	 */
+	long size();
+
+	/**
+	 * Count the primes in the store that lie in a range.
+	 *
+	 * @param from the smallest number of the range (inclusive)
+	 * @param to   the largest number of the range (inclusive)
+	 * @return the number of primes in the range
+	 */
+	long count(final long from, final long to);
+
+	/**
+	 * Visit the primes in the store in ascending order.
+	 *
+	 * @param from    the smallest prime to visit (inclusive)
+	 * @param visitor receives the primes and returns whether to continue with the next prime
+	 */
+	void forEach(final long from, final LongPredicate visitor);
+}
@@ -0,0 +1,178 @@
+package de.hpi.akka_tutorial.remote.api;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import akka.util.ByteString;
+
+/**
+ * A minimal HTTP/1.x request as far as the {@link QueryConnection} needs it: the method, the path, the parameters of
+ * the query string and of a form-encoded body, and whether the connection should be kept alive afterwards.
+ */
+public class HttpRequest {
+
+	// The largest request line plus headers that we accept
+	public static final int MAX_HEAD_SIZE = 8192;
+
+	// The largest body that we accept
+	public static final int MAX_BODY_SIZE = 65536;
+
+	private static final String HEAD_END = "\r\n\r\n";
+
+	private final String method, path;
+
+	private final Map<String, String> parameters;
+
+	private final boolean isKeepAlive;
+
+	// The number of bytes of the request, including its body
+	private final int size;
+
+	private HttpRequest(final String method, final String path, final Map<String, String> parameters, final boolean isKeepAlive,
+			final int size) {
+		this.method = method;
+		this.path = path;
+		this.parameters = parameters;
+		this.isKeepAlive = isKeepAlive;
+		this.size = size;
+	}
+
+	/**
+	 * Parse the first request in a buffer of received bytes.
+	 *
+	 * @param buffer the received bytes that have not been parsed yet
+	 * @return the request or {@code null} if the buffer does not hold a complete request yet
+	 * @throws IllegalArgumentException if the buffer does not start with a valid request
+	 */
+	public static HttpRequest parse(final ByteString buffer) {
+
+		// Find the end of the head, looking only at the bytes that may belong to it
+		final String text = buffer.take(MAX_HEAD_SIZE + HEAD_END.length()).decodeString("ISO-8859-1");
+		final int headEnd = text.indexOf(HEAD_END);
+		if (headEnd < 0) {
+			if (text.length() > MAX_HEAD_SIZE)
+				throw new IllegalArgumentException("The request head is too large.");
+			return null;
+		}
+
+		// Parse the request line
+		final String[] lines = text.substring(0, headEnd).split("\r\n");
+		final String[] requestLine = lines[0].split(" ");
+		if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1."))
+			throw new IllegalArgumentException("Invalid request line: " + lines[0]);
+		final String method = requestLine[0], target = requestLine[1];
+		boolean isKeepAlive = !requestLine[2].equals("HTTP/1.0");
+
+		// Parse the headers that concern us
+		int contentLength = 0;
+		for (int i = 1; i < lines.length; i++) {
+			final int colon = lines[i].indexOf(':');
+			if (colon < 0)
+				throw new IllegalArgumentException("Invalid header: " + lines[i]);
+			final String name = lines[i].substring(0, colon).trim().toLowerCase(), value = lines[i].substring(colon + 1).trim();
+			switch (name) {
+				case "content-length":
+					try {
+						contentLength = Integer.parseInt(value);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid content length: " + value);
+					}
+					if (contentLength < 0 || contentLength > MAX_BODY_SIZE)
+						throw new IllegalArgumentException("Invalid content length: " + value);
+					break;
+				case "transfer-encoding":
+					throw new IllegalArgumentException("Request bodies must have a content length.");
+				case "connection":
+					if (value.equalsIgnoreCase("close"))
+						isKeepAlive = false;
+					else if (value.equalsIgnoreCase("keep-alive"))
+						isKeepAlive = true;
+					break;
+				default:
+			}
+		}
+
+		// Wait for the rest of the body
+		final int bodyStart = headEnd + HEAD_END.length();
+		if (buffer.size() < bodyStart + contentLength)
+			return null;
+
+		// Collect the parameters of the query string and of the body
+		final Map<String, String> parameters = new HashMap<>();
+		final int questionMark = target.indexOf('?');
+		final String path = questionMark < 0 ? target : target.substring(0, questionMark);
+		if (questionMark >= 0)
+			parseParameters(target.substring(questionMark + 1), parameters);
+		if (contentLength > 0)
+			parseParameters(buffer.slice(bodyStart, bodyStart + contentLength).utf8String(), parameters);
+
+		return new HttpRequest(method, path, parameters, isKeepAlive, bodyStart + contentLength);
+	}
+
+	private static void parseParameters(final String form, final Map<String, String> parameters) {
+		for (String pair : form.split("&")) {
+			if (pair.isEmpty())
+				continue;
+			final int equals = pair.indexOf('=');
+			try {
+				if (equals < 0)
+					parameters.put(URLDecoder.decode(pair, "UTF-8"), "");
+				else
+					parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+	}
+
+	public String getMethod() {
+		return this.method;
+	}
+
+	public String getPath() {
+		return this.path;
+	}
+
+	public boolean isKeepAlive() {
+		return this.isKeepAlive;
+	}
+
+	public int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Get a parameter as a number.
+	 *
+	 * @param name the name of the parameter
+	 * @param defaultValue the value if the parameter is missing or {@code null} if it is required
+	 * @return the value of the parameter
+	 * @throws IllegalArgumentException if the parameter is required but missing or if it is no number
+	 */
+	public long getLong(final String name, final Long defaultValue) {
+		final String value = this.parameters.get(name);
+		if (value == null) {
+			if (defaultValue == null)
+				throw new IllegalArgumentException("Missing parameter: " + name);
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Invalid number for %s: %s", name, value));
+		}
+	}
+
+	/**
+	 * Get a parameter as a flag, which is set if it is present and not "false" or "0".
+	 *
+	 * @param name the name of the parameter
+	 * @return whether the flag is set
+	 */
+	public boolean getFlag(final String name) {
+		final String value = this.parameters.get(name);
+		return value != null && !value.equalsIgnoreCase("false") && !value.equals("0");
+	}
+}
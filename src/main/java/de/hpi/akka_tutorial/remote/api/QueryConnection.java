@@ -0,0 +1,460 @@
+package de.hpi.akka_tutorial.remote.api;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.io.Tcp;
+import akka.io.TcpMessage;
+import akka.util.ByteString;
+import de.hpi.akka_tutorial.remote.actors.Listener;
+import de.hpi.akka_tutorial.remote.actors.Master;
+import de.hpi.akka_tutorial.remote.actors.engines.MillerRabinPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
+
+/**
+ * The query connection serves the HTTP requests of a single client of the {@link QueryServer}:
+ * <ul>
+ * <li>{@code POST /queries?start=<min>&end=<max>[&weight=<weight>]} poses a query and answers with its ID. With
+ * {@code &stream=true}, it answers with the ID in the {@code X-Query-Id} header instead and streams the primes of the
+ * query as lines of text as they arrive, i.e., unordered, followed by a final "#" line with their count.</li>
+ * <li>{@code GET /queries/<ID>} tells whether a query has completed or been cancelled and how many primes its range
+ * holds (or held at the cancellation).</li>
+ * <li>{@code DELETE /queries/<ID>} cancels a pending query. It answers with 404 for unknown queries and with 409 for
+ * queries that are not pending anymore.</li>
+ * <li>{@code GET /count?from=<min>&to=<max>} counts the discovered primes in a range.</li>
+ * <li>{@code GET /max} answers with the largest discovered prime.</li>
+ * <li>{@code GET /is-prime?n=<number>} tests a number and tells whether it has been discovered.</li>
+ * </ul>
+ * Apart from the prime streams, all responses are JSON objects. Clients may pipeline their requests, and the responses
+ * follow in the order of the requests. The connection stops reading while too many of its responses are pending or
+ * unwritten, and it disconnects clients that do not keep up with their prime streams.
+ */
+public class QueryConnection extends AbstractLoggingActor {
+
+	// The number of pipelined requests that may be pending before we stop reading
+	private static final int MAX_PENDING_EXCHANGES = 128;
+
+	// The number of unwritten bytes above which we stop reading
+	private static final int HIGH_WATERMARK = 1 << 20;
+
+	// The number of unwritten bytes above which we give up on the client
+	private static final int MAX_UNWRITTEN_BYTES = 64 << 20;
+
+	/**
+	 * Create the {@link Props} necessary to instantiate new {@link QueryConnection} actors.
+	 *
+	 * @param connection the TCP connection to the client
+	 * @param master the master to pose the queries to
+	 * @param listener the listener to look the primes up at
+	 * @param server the server to look the completed queries up at
+	 * @return the {@link Props}
+	 */
+	public static Props props(final ActorRef connection, final ActorRef master, final ActorRef listener, final ActorRef server) {
+		return Props.create(QueryConnection.class, () -> new QueryConnection(connection, master, listener, server));
+	}
+
+	/**
+	 * Tells the {@link QueryConnection} that the TCP connection has handed its last write to the operating system.
+	 */
+	private static class AckEvent implements Tcp.Event {
+	}
+
+	/**
+	 * An HTTP request whose response has not been written yet. Responses are written in the order of the requests, so
+	 * each exchange buffers its response until all previous exchanges are complete.
+	 */
+	private static class Exchange {
+
+		private final boolean isKeepAlive;
+
+		// The bytes of the response that have not been written yet
+		private ByteString output = ByteString.empty();
+
+		private boolean isComplete = false;
+
+		// Completes the response with the reply to the request, if the response needs one
+		private Consumer<Object> replyHandler;
+
+		private Exchange(final boolean isKeepAlive) {
+			this.isKeepAlive = isKeepAlive;
+		}
+
+		private void respond(final int status, final String json) {
+			this.output = this.output.concat(render(status, "application/json", json + "\n", this.isKeepAlive));
+			this.isComplete = true;
+		}
+
+		private void startStream(final int queryId) {
+			this.output = this.output.concat(ByteString.fromString(String.format(
+					"HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nTransfer-Encoding: chunked\r\nX-Query-Id: %d\r\n%s\r\n",
+					queryId, this.isKeepAlive ? "" : "Connection: close\r\n")));
+		}
+
+		private void streamChunk(final String text) {
+			final ByteString data = ByteString.fromString(text);
+			this.output = this.output.concat(ByteString.fromString(Integer.toHexString(data.size()) + "\r\n")).concat(data)
+					.concat(ByteString.fromString("\r\n"));
+		}
+
+		private void endStream(final String text) {
+			this.streamChunk(text);
+			this.output = this.output.concat(ByteString.fromString("0\r\n\r\n"));
+			this.isComplete = true;
+		}
+	}
+
+	// The TCP connection to the client
+	private final ActorRef connection;
+
+	// The master to pose the queries to
+	private final ActorRef master;
+
+	// The listener to look the primes up at
+	private final ActorRef listener;
+
+	// The server to look the completed queries up at
+	private final ActorRef server;
+
+	// The received bytes that have not been parsed yet
+	private ByteString input = ByteString.empty();
+
+	// Whether the client will not send any further requests that we should serve
+	private boolean isInputComplete = false;
+
+	// The exchanges whose responses have not been written completely in the order of their requests
+	private final Deque<Exchange> exchanges = new ArrayDeque<>();
+
+	// The exchanges that await replies by the actors that they await them from; every actor replies in order
+	private final Map<ActorRef, Deque<Exchange>> awaitedReplies = new HashMap<>();
+
+	// The exchanges that stream the primes of queries by the IDs of the queries
+	private final Map<Integer, Exchange> streams = new HashMap<>();
+
+	// The bytes that have not been handed to the connection yet
+	private ByteString unwritten = ByteString.empty();
+
+	private boolean isWriting = false, isReadingSuspended = false, isClosing = false;
+
+	/**
+	 * Construct a new {@link QueryConnection} object.
+	 *
+	 * @param connection the TCP connection to the client
+	 * @param master the master to pose the queries to
+	 * @param listener the listener to look the primes up at
+	 * @param server the server to look the completed queries up at
+	 */
+	public QueryConnection(final ActorRef connection, final ActorRef master, final ActorRef listener, final ActorRef server) {
+		this.connection = connection;
+		this.master = master;
+		this.listener = listener;
+		this.server = server;
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(Tcp.Received.class, this::handle)
+				.match(AckEvent.class, this::handle)
+				.match(Tcp.ConnectionClosed.class, message -> this.getContext().stop(this.getSelf()))
+				.match(Tcp.CommandFailed.class, this::handle)
+				.match(Listener.PrimesMessage.class, this::handle)
+				.match(QueryReport.class, this::handle)
+				.match(Listener.QueryCancelledMessage.class, this::handle)
+				.match(Master.QueryScheduledMessage.class, this::handleReply)
+				.match(Master.CancellationMessage.class, this::handleReply)
+				.match(Status.Failure.class, this::handleReply)
+				.match(Listener.CountMessage.class, this::handleReply)
+				.match(Listener.MaxMessage.class, this::handleReply)
+				.match(Listener.ContainsMessage.class, this::handleReply)
+				.match(QueryServer.StatusMessage.class, this::handleReply)
+				.matchAny(object -> this.log().info(this.getClass().getName() + " received unknown message: " + object.toString()))
+				.build();
+	}
+
+	private void handle(Tcp.Received message) {
+		if (this.isInputComplete)
+			return;
+		this.input = this.input.concat(message.data());
+		this.process();
+	}
+
+	private void handle(AckEvent message) {
+		this.isWriting = false;
+		if (!this.unwritten.isEmpty())
+			this.writeUnwritten();
+		else if (this.isClosing)
+			this.connection.tell(TcpMessage.close(), this.getSelf());
+		this.process();
+	}
+
+	private void handle(Tcp.CommandFailed message) {
+		this.log().warning("Giving up on the client, because {} failed.", message.cmd());
+		this.getContext().stop(this.getSelf());
+	}
+
+	private void handleReply(Object reply) {
+		final Deque<Exchange> awaitingExchanges = this.awaitedReplies.get(this.getSender());
+		final Exchange exchange = awaitingExchanges == null ? null : awaitingExchanges.poll();
+		if (exchange == null) {
+			this.log().warning("Received an unexpected reply: {}", reply);
+			return;
+		}
+		exchange.replyHandler.accept(reply);
+		this.process();
+	}
+
+	private void handle(Listener.PrimesMessage message) {
+		final Exchange exchange = this.streams.get(message.getQueryId());
+		if (exchange == null)
+			return;
+
+		final StringBuilder text = new StringBuilder(message.getPrimes().length * 12);
+		for (long prime : message.getPrimes())
+			text.append(prime).append('\n');
+		exchange.streamChunk(text.toString());
+		if (exchange.output.size() > MAX_UNWRITTEN_BYTES) {
+			this.abort();
+			return;
+		}
+		this.process();
+	}
+
+	private void handle(QueryReport report) {
+		final Exchange exchange = this.streams.remove(report.getQueryId());
+		if (exchange == null)
+			return;
+		exchange.endStream(String.format("# %d primes in %d..%d\n", report.getNumPrimes(), report.getStartNumber(), report.getEndNumber()));
+		this.process();
+	}
+
+	private void handle(Listener.QueryCancelledMessage message) {
+		final Exchange exchange = this.streams.remove(message.getQueryId());
+		if (exchange == null)
+			return;
+		exchange.endStream("# cancelled\n");
+		this.process();
+	}
+
+	/**
+	 * Serve the received requests as far as the pending exchanges allow and write the responses that are due.
+	 */
+	private void process() {
+		boolean isProgressing = true;
+		while (isProgressing) {
+			isProgressing = false;
+			while (!this.isInputComplete && this.exchanges.size() < MAX_PENDING_EXCHANGES) {
+				final HttpRequest request;
+				try {
+					request = HttpRequest.parse(this.input);
+				} catch (IllegalArgumentException e) {
+
+					// We cannot tell where the next request would start, so this is the last one
+					final Exchange exchange = new Exchange(false);
+					exchange.respond(400, error(e.getMessage()));
+					this.exchanges.add(exchange);
+					this.isInputComplete = true;
+					this.input = ByteString.empty();
+					break;
+				}
+				if (request == null)
+					break;
+
+				this.input = this.input.drop(request.getSize());
+				this.isInputComplete = !request.isKeepAlive();
+				this.serve(request);
+				isProgressing = true;
+			}
+			this.flush();
+		}
+
+		// Hold back further requests while the client does not take its responses
+		final boolean isOverloaded = this.exchanges.size() >= MAX_PENDING_EXCHANGES || this.unwritten.size() > HIGH_WATERMARK;
+		if (isOverloaded && !this.isReadingSuspended)
+			this.connection.tell(TcpMessage.suspendReading(), this.getSelf());
+		else if (!isOverloaded && this.isReadingSuspended)
+			this.connection.tell(TcpMessage.resumeReading(), this.getSelf());
+		this.isReadingSuspended = isOverloaded;
+	}
+
+	private void serve(final HttpRequest request) {
+		final Exchange exchange = new Exchange(request.isKeepAlive());
+		this.exchanges.add(exchange);
+
+		final String method = request.getMethod(), path = request.getPath();
+		try {
+			if (path.equals("/queries")) {
+				if (isAllowed(exchange, method, "POST"))
+					this.submit(request, exchange);
+			} else if (path.startsWith("/queries/")) {
+				final int queryId = parseQueryId(path.substring("/queries/".length()));
+				if (method.equals("DELETE")) {
+					this.request(this.master, new Master.CancelQueryMessage(queryId), exchange, reply -> {
+						final Master.CancellationMessage cancellation = (Master.CancellationMessage) reply;
+						if (cancellation.isCancelled())
+							exchange.respond(200, String.format("{\"queryId\":%d,\"cancelled\":true}", queryId));
+						else if (cancellation.isKnown())
+							exchange.respond(409, error(String.format("Query %d is not pending anymore.", queryId)));
+						else
+							exchange.respond(404, error("Unknown query: " + queryId));
+					});
+				} else if (isAllowed(exchange, method, "GET")) {
+					this.request(this.server, new QueryServer.StatusQueryMessage(queryId), exchange, reply -> {
+						final QueryReport report = ((QueryServer.StatusMessage) reply).getReport();
+						exchange.respond(200, report == null ? String.format("{\"queryId\":%d,\"completed\":false,\"cancelled\":false}", queryId)
+								: String.format("{\"queryId\":%d,\"completed\":%b,\"cancelled\":%b,\"start\":%d,\"end\":%d,\"weight\":%d,\"primes\":%d,\"wallMillis\":%.3f}",
+										queryId, !report.isCancelled(), report.isCancelled(), report.getStartNumber(), report.getEndNumber(),
+										report.getWeight(), report.getNumPrimes(), report.getWallNanos() / 1e6));
+					});
+				}
+			} else if (path.equals("/count")) {
+				if (isAllowed(exchange, method, "GET")) {
+					final long from = Math.max(0, request.getLong("from", null)), to = request.getLong("to", null);
+					this.request(this.listener, new Listener.CountQueryMessage(from, to), exchange, reply -> exchange.respond(200,
+							String.format("{\"from\":%d,\"to\":%d,\"count\":%d}", from, to, ((Listener.CountMessage) reply).getCount())));
+				}
+			} else if (path.equals("/max")) {
+				if (isAllowed(exchange, method, "GET"))
+					this.request(this.listener, new Listener.MaxQueryMessage(), exchange, reply -> exchange.respond(200,
+							String.format("{\"max\":%d}", ((Listener.MaxMessage) reply).getMax())));
+			} else if (path.equals("/is-prime")) {
+				if (isAllowed(exchange, method, "GET")) {
+					final long number = request.getLong("n", null);
+
+					// Only primes can have been discovered
+					if (!MillerRabinPrimeEngine.isPrime(number))
+						exchange.respond(200, String.format("{\"n\":%d,\"prime\":false,\"discovered\":false}", number));
+					else
+						this.request(this.listener, new Listener.ContainsQueryMessage(number), exchange, reply -> exchange.respond(200,
+								String.format("{\"n\":%d,\"prime\":true,\"discovered\":%b}", number, ((Listener.ContainsMessage) reply).contains())));
+				}
+			} else {
+				exchange.respond(404, error("Unknown path: " + path));
+			}
+		} catch (IllegalArgumentException e) {
+			exchange.respond(400, error(e.getMessage()));
+		}
+	}
+
+	private void submit(final HttpRequest request, final Exchange exchange) {
+		final long startNumber = request.getLong("start", null), endNumber = request.getLong("end", null);
+		final long weight = request.getLong("weight", (long) Master.RangeMessage.DEFAULT_WEIGHT);
+		if (weight < 1 || weight > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The weight must be a positive int.");
+		final boolean isStreaming = request.getFlag("stream");
+
+		this.request(this.master, new Master.RangeMessage(startNumber, endNumber, (int) weight, isStreaming), exchange, reply -> {
+			if (reply instanceof Status.Failure) {
+				exchange.respond(503, error(((Status.Failure) reply).cause().getMessage()));
+				return;
+			}
+			final int queryId = ((Master.QueryScheduledMessage) reply).getQueryId();
+			if (isStreaming) {
+				exchange.startStream(queryId);
+				this.streams.put(queryId, exchange);
+			} else
+				exchange.respond(202, String.format("{\"queryId\":%d}", queryId));
+		});
+	}
+
+	/**
+	 * Send a message to an actor and let an exchange await its reply.
+	 */
+	private void request(final ActorRef actor, final Object message, final Exchange exchange, final Consumer<Object> replyHandler) {
+		exchange.replyHandler = replyHandler;
+		this.awaitedReplies.computeIfAbsent(actor, key -> new ArrayDeque<>()).add(exchange);
+		actor.tell(message, this.getSelf());
+	}
+
+	/**
+	 * Write the responses of the exchanges as far as their predecessors are complete.
+	 */
+	private void flush() {
+		Exchange head;
+		while ((head = this.exchanges.peek()) != null) {
+			if (!head.output.isEmpty()) {
+				this.write(head.output);
+				head.output = ByteString.empty();
+			}
+			if (!head.isComplete)
+				break;
+			this.exchanges.poll();
+
+			// Close the connection after the last response
+			if (!head.isKeepAlive) {
+				this.isClosing = true;
+				if (!this.isWriting)
+					this.connection.tell(TcpMessage.close(), this.getSelf());
+				break;
+			}
+		}
+	}
+
+	private void write(final ByteString bytes) {
+		this.unwritten = this.unwritten.concat(bytes);
+		if (this.unwritten.size() > MAX_UNWRITTEN_BYTES)
+			this.abort();
+		else if (!this.isWriting)
+			this.writeUnwritten();
+	}
+
+	/**
+	 * Hand all unwritten bytes to the connection, which acknowledges them once the operating system took them.
+	 */
+	private void writeUnwritten() {
+		this.connection.tell(TcpMessage.write(this.unwritten, new AckEvent()), this.getSelf());
+		this.unwritten = ByteString.empty();
+		this.isWriting = true;
+	}
+
+	private void abort() {
+		this.log().warning("Disconnecting a client that does not keep up with its responses.");
+		this.connection.tell(TcpMessage.abort(), this.getSelf());
+		this.exchanges.clear();
+		this.streams.clear();
+		this.unwritten = ByteString.empty();
+		this.isInputComplete = true;
+	}
+
+	private static boolean isAllowed(final Exchange exchange, final String method, final String allowedMethod) {
+		if (method.equals(allowedMethod))
+			return true;
+		exchange.respond(405, error(String.format("Use %s.", allowedMethod)));
+		return false;
+	}
+
+	private static int parseQueryId(final String queryId) {
+		try {
+			return Integer.parseInt(queryId);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid query ID: " + queryId);
+		}
+	}
+
+	private static String error(final String message) {
+		return String.format("{\"error\":\"%s\"}", message.replace("\\", "\\\\").replace("\"", "\\\""));
+	}
+
+	private static ByteString render(final int status, final String contentType, final String body, final boolean isKeepAlive) {
+		final String reason;
+		switch (status) {
+			case 200: reason = "OK"; break;
+			case 202: reason = "Accepted"; break;
+			case 400: reason = "Bad Request"; break;
+			case 404: reason = "Not Found"; break;
+			case 405: reason = "Method Not Allowed"; break;
+			case 409: reason = "Conflict"; break;
+			case 503: reason = "Service Unavailable"; break;
+			default: reason = "Unknown";
+		}
+		final ByteString content = ByteString.fromString(body);
+		return ByteString.fromString(String.format("HTTP/1.1 %d %s\r\nContent-Type: %s\r\nContent-Length: %d\r\n%s\r\n",
+				status, reason, contentType, content.size(), isKeepAlive ? "" : "Connection: close\r\n")).concat(content);
+	}
+}
@@ -0,0 +1,182 @@
+package de.hpi.akka_tutorial.remote.api;
+
+import static akka.actor.SupervisorStrategy.escalate;
+import static akka.actor.SupervisorStrategy.stop;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.OneForOneStrategy;
+import akka.actor.Props;
+import akka.actor.SupervisorStrategy;
+import akka.io.Tcp;
+import akka.io.TcpMessage;
+import akka.japi.pf.DeciderBuilder;
+import de.hpi.akka_tutorial.remote.actors.Listener;
+import de.hpi.akka_tutorial.remote.actors.Master;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
+
+/**
+ * The query server serves a small HTTP API on a local port, so that any number of client processes can share the
+ * {@link Master} and the {@link Listener} of this actor system. It accepts the connections without blocking via Akka IO
+ * and hands each of them to a {@link QueryConnection}. Besides, it remembers the reports of recently completed and
+ * cancelled queries for status lookups.
+ */
+public class QueryServer extends AbstractLoggingActor {
+
+	public static final String DEFAULT_NAME = "query-server";
+
+	// The number of pending connections that the operating system may queue
+	private static final int BACKLOG = 1024;
+
+	// The number of completed or cancelled queries whose reports are kept for status lookups
+	private static final int MAX_REPORTS = 100_000;
+
+	/**
+	 * Create the {@link Props} necessary to instantiate new {@link QueryServer} actors.
+	 *
+	 * @param host the host to bind to
+	 * @param port the port to bind to
+	 * @param master the master to pose the queries to
+	 * @param listener the listener to look the primes up at
+	 * @return the {@link Props}
+	 */
+	public static Props props(final String host, final int port, final ActorRef master, final ActorRef listener) {
+		return Props.create(QueryServer.class, () -> new QueryServer(host, port, master, listener));
+	}
+
+	/**
+	 * Asks the {@link QueryServer} to reply with a {@link StatusMessage} for a query.
+	 */
+	public static class StatusQueryMessage {
+
+		private final int queryId;
+
+		/**
+		 * Construct a new {@link StatusQueryMessage} object.
+		 *
+		 * @param queryId the ID of the query of interest
+		 */
+		public StatusQueryMessage(final int queryId) {
+			this.queryId = queryId;
+		}
+	}
+
+	/**
+	 * The answer of the {@link QueryServer} to a {@link StatusQueryMessage}.
+	 */
+	public static class StatusMessage {
+
+		private final int queryId;
+
+		private final QueryReport report;
+
+		private StatusMessage(final int queryId, final QueryReport report) {
+			this.queryId = queryId;
+			this.report = report;
+		}
+
+		public int getQueryId() {
+			return this.queryId;
+		}
+
+		/**
+		 * @return the report of the completed or cancelled query or {@code null} if it is pending, unknown, or long gone
+		 */
+		public QueryReport getReport() {
+			return this.report;
+		}
+	}
+
+	// The supervisor strategy for the connections: A failed connection cannot be recovered, so its client has to reconnect
+	private static SupervisorStrategy strategy =
+			new OneForOneStrategy(DeciderBuilder
+					.match(Exception.class, e -> stop())
+					.matchAny(o -> escalate())
+					.build());
+
+	private final InetSocketAddress address;
+
+	// The master to pose the queries to
+	private final ActorRef master;
+
+	// The listener to look the primes up at
+	private final ActorRef listener;
+
+	// The reports of the most recently completed or cancelled queries by their IDs
+	private final Map<Integer, QueryReport> reports = new LinkedHashMap<Integer, QueryReport>() {
+
+		private static final long serialVersionUID = 8470151529452367701L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Integer, QueryReport> eldest) {
+			return this.size() > MAX_REPORTS;
+		}
+	};
+
+	/**
+	 * Construct a new {@link QueryServer} object.
+	 *
+	 * @param host the host to bind to
+	 * @param port the port to bind to
+	 * @param master the master to pose the queries to
+	 * @param listener the listener to look the primes up at
+	 */
+	public QueryServer(final String host, final int port, final ActorRef master, final ActorRef listener) {
+		this.address = new InetSocketAddress(host, port);
+		this.master = master;
+		this.listener = listener;
+	}
+
+	@Override
+	public void preStart() throws Exception {
+		super.preStart();
+
+		// Follow the completed and cancelled queries
+		this.getContext().getSystem().eventStream().subscribe(this.getSelf(), QueryReport.class);
+
+		Tcp.get(this.getContext().getSystem()).manager().tell(TcpMessage.bind(this.getSelf(), this.address, BACKLOG), this.getSelf());
+	}
+
+	@Override
+	public SupervisorStrategy supervisorStrategy() {
+		return QueryServer.strategy;
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(Tcp.Bound.class, this::handle)
+				.match(Tcp.CommandFailed.class, this::handle)
+				.match(Tcp.Connected.class, this::handle)
+				.match(QueryReport.class, this::handle)
+				.match(StatusQueryMessage.class, this::handle)
+				.matchAny(object -> this.log().info(this.getClass().getName() + " received unknown message: " + object.toString()))
+				.build();
+	}
+
+	private void handle(Tcp.Bound message) {
+		this.log().info("Serving the query API at http://{}:{}/", message.localAddress().getHostString(), message.localAddress().getPort());
+	}
+
+	private void handle(Tcp.CommandFailed message) {
+		this.log().error("Could not serve the query API at {}: {}", this.address, message.cmd());
+		this.getContext().stop(this.getSelf());
+	}
+
+	private void handle(Tcp.Connected message) {
+		final ActorRef handler = this.getContext().actorOf(QueryConnection.props(this.getSender(), this.master, this.listener, this.getSelf()));
+		this.getSender().tell(TcpMessage.register(handler), this.getSelf());
+	}
+
+	private void handle(QueryReport report) {
+		this.reports.put(report.getQueryId(), report);
+	}
+
+	private void handle(StatusQueryMessage message) {
+		this.getSender().tell(new StatusMessage(message.queryId, this.reports.get(message.queryId)), this.getSelf());
+	}
+}
@@ -0,0 +1,124 @@
+package de.hpi.akka_tutorial.remote.instrumentation;
+
+import java.util.concurrent.TimeUnit;
+
+import de.hpi.akka_tutorial.util.LatencyHistogram;
+
+/**
+ * Measures how a single actor processes its messages. The actor records every message, while JMX and the metrics dump
+ * read the measurements from other threads; both sides synchronize on the instance, which is uncontended in the
+ * common case. Rates and utilizations refer to the last completed window of {@value #WINDOW_MILLIS} ms, so that they
+ * reflect the current load rather than the average over the actor's lifetime.
+ */
+public class ActorMetrics implements ActorMetricsMBean {
+
+	// The length of the windows over which the message rate and the utilization are measured
+	static final long WINDOW_MILLIS = 1000;
+
+	private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLIS);
+
+	private final String path;
+
+	private final LatencyHistogram handlerLatencies = new LatencyHistogram();
+
+	// The mailbox of the actor, if it is instrumented
+	private volatile InstrumentedMailbox.Queue mailbox;
+
+	private long windowStartNanos = System.nanoTime(), windowMessages = 0, windowBusyNanos = 0;
+
+	private double lastMessagesPerSecond = 0, lastUtilization = 0;
+
+	ActorMetrics(final String path) {
+		this.path = path;
+	}
+
+	void setMailbox(final InstrumentedMailbox.Queue mailbox) {
+		this.mailbox = mailbox;
+	}
+
+	/**
+	 * Record that the actor has processed a message.
+	 *
+	 * @param startNanos when the actor entered its message handler
+	 * @param endNanos when the actor left its message handler
+	 */
+	synchronized void processed(final long startNanos, final long endNanos) {
+		this.handlerLatencies.record(endNanos - startNanos);
+		this.windowMessages++;
+		this.windowBusyNanos += endNanos - startNanos;
+		this.closeWindow(endNanos);
+	}
+
+	/**
+	 * Complete the current window if it is over. Windows without any messages are completed by readers.
+	 */
+	private void closeWindow(final long nowNanos) {
+		final long windowNanos = nowNanos - this.windowStartNanos;
+		if (windowNanos < WINDOW_NANOS)
+			return;
+
+		// If no message arrived for a whole window, the last rate is outdated
+		final boolean isIdle = windowNanos >= 2 * WINDOW_NANOS && this.windowMessages == 0;
+		this.lastMessagesPerSecond = isIdle ? 0 : this.windowMessages * 1e9 / windowNanos;
+		this.lastUtilization = isIdle ? 0 : Math.min(1, (double) this.windowBusyNanos / windowNanos);
+		this.windowStartNanos = nowNanos;
+		this.windowMessages = 0;
+		this.windowBusyNanos = 0;
+	}
+
+	@Override
+	public String getPath() {
+		return this.path;
+	}
+
+	@Override
+	public synchronized long getMessages() {
+		return this.handlerLatencies.count();
+	}
+
+	@Override
+	public synchronized double getMessagesPerSecond() {
+		this.closeWindow(System.nanoTime());
+		return this.lastMessagesPerSecond;
+	}
+
+	@Override
+	public synchronized double getHandlerP50Micros() {
+		return this.handlerLatencies.percentile(0.5) / 1e3;
+	}
+
+	@Override
+	public synchronized double getHandlerP99Micros() {
+		return this.handlerLatencies.percentile(0.99) / 1e3;
+	}
+
+	@Override
+	public synchronized double getHandlerMaxMicros() {
+		return this.handlerLatencies.max() / 1e3;
+	}
+
+	@Override
+	public synchronized double getUtilization() {
+		this.closeWindow(System.nanoTime());
+		return this.lastUtilization;
+	}
+
+	@Override
+	public int getMailboxDepth() {
+		final InstrumentedMailbox.Queue mailbox = this.mailbox;
+		return mailbox == null ? -1 : mailbox.numberOfMessages();
+	}
+
+	@Override
+	public int getMaxMailboxDepth() {
+		final InstrumentedMailbox.Queue mailbox = this.mailbox;
+		return mailbox == null ? -1 : mailbox.maxNumberOfMessages();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %,d messages, %,.1f msg/s, handler p50 %,.1f us, p99 %,.1f us, max %,.1f us, utilization %.1f%%, mailbox %d (max %d)",
+				this.path, this.getMessages(), this.getMessagesPerSecond(), this.getHandlerP50Micros(), this.getHandlerP99Micros(),
+				this.getHandlerMaxMicros(), 100 * this.getUtilization(), this.getMailboxDepth(), this.getMaxMailboxDepth());
+	}
+}
@@ -0,0 +1,53 @@
+package de.hpi.akka_tutorial.remote.instrumentation;
+
+/**
+ * The JMX view of the {@link ActorMetrics} of a single actor.
+ */
+public interface ActorMetricsMBean {
+
+	/**
+	 * @return the path of the actor
+	 */
+	String getPath();
+
+	/**
+	 * @return the number of messages that the actor has processed
+	 */
+	long getMessages();
+
+	/**
+	 * @return the number of messages that the actor processed per second in the last completed measurement window
+	 */
+	double getMessagesPerSecond();
+
+	/**
+	 * @return the median time that the actor spent in its message handler in microseconds
+	 */
+	double getHandlerP50Micros();
+
+	/**
+	 * @return the 99th percentile of the time that the actor spent in its message handler in microseconds
+	 */
+	double getHandlerP99Micros();
+
+	/**
+	 * @return the longest time that the actor spent in its message handler in microseconds
+	 */
+	double getHandlerMaxMicros();
+
+	/**
+	 * @return the fraction of the last completed measurement window that the actor spent in its message handler
+	 */
+	double getUtilization();
+
+	/**
+	 * @return the number of messages in the actor's mailbox or {@code -1} if its mailbox is not instrumented
+	 */
+	int getMailboxDepth();
+
+	/**
+	 * @return the largest number of messages that were in the actor's mailbox at once or {@code -1} if its mailbox is
+	 * not instrumented
+	 */
+	int getMaxMailboxDepth();
+}
@@ -0,0 +1,154 @@
+package de.hpi.akka_tutorial.remote.instrumentation;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import akka.actor.ActorRef;
+
+/**
+ * The registry of all measurements in this JVM. Instrumented actors (see {@link InstrumentedActor}) register their
+ * {@link ActorMetrics} here, and our serializers report the size of every message that they serialize. All metrics are
+ * exposed as MBeans in the {@value #JMX_DOMAIN} domain of the platform MBean server and can be dumped to a file.
+ */
+public final class Instrumentation {
+
+	// The JMX domain of our MBeans
+	public static final String JMX_DOMAIN = "de.hpi.akka_tutorial";
+
+	private static final ConcurrentMap<ActorRef, ActorMetrics> actor2metrics = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<Class<?>, SerializationMetrics> type2metrics = new ConcurrentHashMap<>();
+
+	private Instrumentation() {
+	}
+
+	/**
+	 * Start measuring an actor and expose its metrics via JMX.
+	 *
+	 * @param actor the actor to measure
+	 * @return the metrics that the actor should record its messages in
+	 */
+	static ActorMetrics register(final ActorRef actor) {
+		final ActorMetrics metrics = actor2metrics.computeIfAbsent(actor, Instrumentation::createMetrics);
+		registerMBean(metrics, actorObjectName(actor));
+		return metrics;
+	}
+
+	/**
+	 * Stop measuring an actor that has stopped.
+	 */
+	static void unregister(final ActorRef actor) {
+		if (actor2metrics.remove(actor) != null)
+			unregisterMBean(actorObjectName(actor));
+	}
+
+	/**
+	 * Attach the mailbox of an actor to its metrics. Akka creates the mailbox before the actor itself, so this may
+	 * create the metrics.
+	 */
+	static void mailboxCreated(final ActorRef owner, final InstrumentedMailbox.Queue mailbox) {
+		actor2metrics.computeIfAbsent(owner, Instrumentation::createMetrics).setMailbox(mailbox);
+	}
+
+	/**
+	 * Detach the mailbox of an actor from its metrics, unless the actor has been unregistered already.
+	 */
+	static void mailboxRemoved(final ActorRef owner) {
+		final ActorMetrics metrics = actor2metrics.get(owner);
+		if (metrics != null)
+			metrics.setMailbox(null);
+	}
+
+	/**
+	 * Account for a serialized message.
+	 *
+	 * @param messageType the class of the message
+	 * @param numBytes the size of the serialized message
+	 */
+	public static void serialized(final Class<?> messageType, final int numBytes) {
+		SerializationMetrics metrics = type2metrics.get(messageType);
+		if (metrics == null) {
+			metrics = type2metrics.computeIfAbsent(messageType, type -> new SerializationMetrics(type.getName()));
+			registerMBean(metrics, objectName("Serialization", messageType.getName()));
+		}
+		metrics.serialized(numBytes);
+	}
+
+	/**
+	 * Render all metrics as human-readable text, one actor or message type per line.
+	 */
+	public static String dump() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("Metrics at ").append(Instant.now()).append('\n');
+		builder.append("Actors:\n");
+		actor2metrics.values().stream()
+				.sorted(Comparator.comparing(ActorMetrics::getPath))
+				.forEach(metrics -> builder.append("  ").append(metrics).append('\n'));
+		builder.append("Serialized messages:\n");
+		type2metrics.values().stream()
+				.sorted(Comparator.comparing(SerializationMetrics::getMessageType))
+				.forEach(metrics -> builder.append("  ").append(metrics).append('\n'));
+		return builder.toString();
+	}
+
+	/**
+	 * Write all metrics to a file. The file is replaced atomically, so that readers never see a partial dump.
+	 *
+	 * @param file the file to write
+	 */
+	public static void dump(final Path file) throws IOException {
+		final Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temporaryFile, dump().getBytes(StandardCharsets.UTF_8));
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static ActorMetrics createMetrics(final ActorRef actor) {
+		return new ActorMetrics(actor.path().toString());
+	}
+
+	/**
+	 * Name the MBean of an actor by its path and UID, because several actor systems in the same JVM may have the same
+	 * name, e.g., in-process slaves.
+	 */
+	private static ObjectName actorObjectName(final ActorRef actor) {
+		return objectName("Actor", actor.path() + "#" + actor.path().uid());
+	}
+
+	private static ObjectName objectName(final String type, final String name) {
+		try {
+			return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+		} catch (JMException e) {
+			throw new IllegalArgumentException(String.format("Invalid MBean name: %s", name), e);
+		}
+	}
+
+	private static void registerMBean(final Object mBean, final ObjectName name) {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (!server.isRegistered(name))
+				server.registerMBean(mBean, name);
+		} catch (JMException e) {
+			// Another thread has registered the MBean in the meantime
+		}
+	}
+
+	private static void unregisterMBean(final ObjectName name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			// The MBean was never registered
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package de.hpi.akka_tutorial.remote.instrumentation;
+
+import akka.actor.AbstractLoggingActor;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+/**
+ * An actor that measures how many messages it processes and how long its message handler takes (see
+ * {@link ActorMetrics}). Subclasses should use the {@link InstrumentedMailbox}, so that the depth of their mailbox is
+ * measured as well. The measurements survive restarts, because they belong to the actor's reference rather than to
+ * its instance.
+ */
+public abstract class InstrumentedActor extends AbstractLoggingActor {
+
+	// The measurements of this actor
+	private final ActorMetrics metrics = Instrumentation.register(this.getSelf());
+
+	@Override
+	public void aroundReceive(final PartialFunction<Object, BoxedUnit> receive, final Object message) {
+		final long startNanos = System.nanoTime();
+		try {
+			super.aroundReceive(receive, message);
+		} finally {
+			this.metrics.processed(startNanos, System.nanoTime());
+		}
+	}
+
+	@Override
+	public void aroundPostStop() {
+		try {
+			super.aroundPostStop();
+		} finally {
+			Instrumentation.unregister(this.getSelf());
+		}
+	}
+}
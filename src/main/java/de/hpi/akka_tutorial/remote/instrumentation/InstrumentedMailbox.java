@@ -0,0 +1,90 @@
+package de.hpi.akka_tutorial.remote.instrumentation;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import scala.Option;
+
+/**
+ * An unbounded mailbox that counts its messages, so that the depth of the mailbox can be read in constant time. (The
+ * default mailbox would have to walk its queue.) Actors use it via {@link akka.actor.Props#withMailbox(String)} with
+ * the {@link #NAME} that {@code dispatchers.conf} defines, or via a dispatcher that names it as its mailbox type.
+ */
+public class InstrumentedMailbox implements MailboxType, ProducesMessageQueue<InstrumentedMailbox.Queue> {
+
+	// The name of the mailbox configuration
+	public static final String NAME = "instrumented-mailbox";
+
+	/**
+	 * The message queue of a single actor.
+	 */
+	public static class Queue implements MessageQueue, UnboundedMessageQueueSemantics {
+
+		private final ConcurrentLinkedQueue<Envelope> envelopes = new ConcurrentLinkedQueue<>();
+
+		private final AtomicInteger numberOfMessages = new AtomicInteger();
+
+		// A high-water mark; concurrent senders may race on it, which can only make it lag behind slightly
+		private volatile int maxNumberOfMessages = 0;
+
+		@Override
+		public void enqueue(final ActorRef receiver, final Envelope handle) {
+			this.envelopes.offer(handle);
+			final int depth = this.numberOfMessages.incrementAndGet();
+			if (depth > this.maxNumberOfMessages)
+				this.maxNumberOfMessages = depth;
+		}
+
+		@Override
+		public Envelope dequeue() {
+			final Envelope envelope = this.envelopes.poll();
+			if (envelope != null)
+				this.numberOfMessages.decrementAndGet();
+			return envelope;
+		}
+
+		@Override
+		public int numberOfMessages() {
+			return Math.max(0, this.numberOfMessages.get());
+		}
+
+		int maxNumberOfMessages() {
+			return this.maxNumberOfMessages;
+		}
+
+		@Override
+		public boolean hasMessages() {
+			return !this.envelopes.isEmpty();
+		}
+
+		@Override
+		public void cleanUp(final ActorRef owner, final MessageQueue deadLetters) {
+			Instrumentation.mailboxRemoved(owner);
+			for (Envelope envelope = this.dequeue(); envelope != null; envelope = this.dequeue())
+				deadLetters.enqueue(owner, envelope);
+		}
+	}
+
+	/**
+	 * Akka instantiates mailbox types reflectively with this constructor.
+	 */
+	public InstrumentedMailbox(final ActorSystem.Settings settings, final Config config) {
+	}
+
+	@Override
+	public MessageQueue create(final Option<ActorRef> owner, final Option<ActorSystem> system) {
+		final Queue queue = new Queue();
+		if (owner.isDefined())
+			Instrumentation.mailboxCreated(owner.get(), queue);
+		return queue;
+	}
+}
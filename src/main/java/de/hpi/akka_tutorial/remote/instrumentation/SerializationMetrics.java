@@ -0,0 +1,45 @@
+package de.hpi.akka_tutorial.remote.instrumentation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the messages of a single type that our serializers have serialized and their bytes. Serializers run on the
+ * threads of the remoting, so the counters are adders that concurrent threads can update without contention.
+ */
+public class SerializationMetrics implements SerializationMetricsMBean {
+
+	private final String messageType;
+
+	private final LongAdder messages = new LongAdder(), bytes = new LongAdder();
+
+	SerializationMetrics(final String messageType) {
+		this.messageType = messageType;
+	}
+
+	void serialized(final int numBytes) {
+		this.messages.increment();
+		this.bytes.add(numBytes);
+	}
+
+	@Override
+	public String getMessageType() {
+		return this.messageType;
+	}
+
+	@Override
+	public long getMessages() {
+		return this.messages.sum();
+	}
+
+	@Override
+	public long getBytes() {
+		return this.bytes.sum();
+	}
+
+	@Override
+	public String toString() {
+		final long messages = this.getMessages(), bytes = this.getBytes();
+		return String.format("%s: %,d messages, %,d bytes (%,.1f bytes/message)", this.messageType, messages, bytes,
+				messages == 0 ? 0.0 : (double) bytes / messages);
+	}
+}
@@ -0,0 +1,22 @@
+package de.hpi.akka_tutorial.remote.instrumentation;
+
+/**
+ * The JMX view of the {@link SerializationMetrics} of a single message type.
+ */
+public interface SerializationMetricsMBean {
+
+	/**
+	 * @return the name of the message type
+	 */
+	String getMessageType();
+
+	/**
+	 * @return the number of serialized messages of the type
+	 */
+	long getMessages();
+
+	/**
+	 * @return the total size of the serialized messages of the type in bytes
+	 */
+	long getBytes();
+}
@@ -0,0 +1,94 @@
+package de.hpi.akka_tutorial.remote.serialization;
+
+import java.io.NotSerializableException;
+import java.nio.ByteBuffer;
+
+import akka.serialization.JSerializer;
+import de.hpi.akka_tutorial.remote.actors.Listener;
+import de.hpi.akka_tutorial.remote.actors.Master;
+import de.hpi.akka_tutorial.remote.instrumentation.Instrumentation;
+import de.hpi.akka_tutorial.util.DeltaEncoding;
+
+/**
+ * Serializes {@link Master.PrimesMessage}s, {@link Listener.PrimesMessage}s, and {@link Listener.PrimesPageMessage}s
+ * compactly by delta-encoding their primes (see {@link DeltaEncoding}). The first byte of each serialized message
+ * denotes its type.
+ */
+public class PrimesMessageSerializer extends JSerializer {
+
+	// The identifier of this serializer; values 0 to 40 are reserved by Akka
+	public static final int IDENTIFIER = 7877;
+
+	private static final byte MASTER_PRIMES_MESSAGE = 1, LISTENER_PRIMES_MESSAGE = 2, LISTENER_PRIMES_PAGE_MESSAGE = 3;
+
+	@Override
+	public int identifier() {
+		return IDENTIFIER;
+	}
+
+	@Override
+	public boolean includeManifest() {
+		return false;
+	}
+
+	@Override
+	public byte[] toBinary(Object o) {
+		final byte[] bytes = this.encode(o);
+		Instrumentation.serialized(o.getClass(), bytes.length);
+		return bytes;
+	}
+
+	private byte[] encode(Object o) {
+		if (o instanceof Master.PrimesMessage) {
+			final Master.PrimesMessage message = (Master.PrimesMessage) o;
+			final long[] primes = message.getPrimes();
+			final ByteBuffer buffer = ByteBuffer.allocate(1 + DeltaEncoding.varLongLength(message.getRequestId()) + 1
+					+ DeltaEncoding.encodedLength(primes, 0, primes.length));
+			buffer.put(MASTER_PRIMES_MESSAGE);
+			DeltaEncoding.writeVarLong(message.getRequestId(), buffer);
+			buffer.put((byte) (message.isComplete() ? 1 : 0));
+			DeltaEncoding.encode(primes, 0, primes.length, buffer);
+			return buffer.array();
+		}
+		if (o instanceof Listener.PrimesMessage) {
+			final Listener.PrimesMessage message = (Listener.PrimesMessage) o;
+			final long[] primes = message.getPrimes();
+			final ByteBuffer buffer = ByteBuffer.allocate(1 + DeltaEncoding.varLongLength(message.getQueryId())
+					+ DeltaEncoding.encodedLength(primes, 0, primes.length));
+			buffer.put(LISTENER_PRIMES_MESSAGE);
+			DeltaEncoding.writeVarLong(message.getQueryId(), buffer);
+			DeltaEncoding.encode(primes, 0, primes.length, buffer);
+			return buffer.array();
+		}
+		if (o instanceof Listener.PrimesPageMessage) {
+			final Listener.PrimesPageMessage message = (Listener.PrimesPageMessage) o;
+			final long[] primes = message.getPrimes();
+			final ByteBuffer buffer = ByteBuffer.allocate(1 + 1 + DeltaEncoding.encodedLength(primes, 0, primes.length));
+			buffer.put(LISTENER_PRIMES_PAGE_MESSAGE);
+			buffer.put((byte) (message.hasMore() ? 1 : 0));
+			DeltaEncoding.encode(primes, 0, primes.length, buffer);
+			return buffer.array();
+		}
+		throw new IllegalArgumentException(String.format("Cannot serialize %s.", o.getClass()));
+	}
+
+	@Override
+	public Object fromBinaryJava(byte[] bytes, Class<?> manifest) {
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		final byte type = buffer.get();
+		switch (type) {
+			case MASTER_PRIMES_MESSAGE:
+				final int requestId = (int) DeltaEncoding.readVarLong(buffer);
+				final boolean isComplete = buffer.get() != 0;
+				return new Master.PrimesMessage(requestId, DeltaEncoding.decode(buffer), isComplete);
+			case LISTENER_PRIMES_MESSAGE:
+				final int queryId = (int) DeltaEncoding.readVarLong(buffer);
+				return new Listener.PrimesMessage(queryId, DeltaEncoding.decode(buffer));
+			case LISTENER_PRIMES_PAGE_MESSAGE:
+				final boolean hasMore = buffer.get() != 0;
+				return new Listener.PrimesPageMessage(DeltaEncoding.decode(buffer), hasMore);
+			default:
+				throw new IllegalArgumentException(new NotSerializableException(String.format("Unknown message type: %d", type)));
+		}
+	}
+}
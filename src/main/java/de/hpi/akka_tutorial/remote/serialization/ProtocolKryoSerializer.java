@@ -0,0 +1,189 @@
+package de.hpi.akka_tutorial.remote.serialization;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import akka.actor.ActorRef;
+import akka.actor.Address;
+import akka.actor.ExtendedActorSystem;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.twitter.chill.KryoInstantiator;
+import com.twitter.chill.akka.ActorRefSerializer;
+import com.twitter.chill.akka.AkkaSerializer;
+import de.hpi.akka_tutorial.remote.actors.Listener;
+import de.hpi.akka_tutorial.remote.actors.Master;
+import de.hpi.akka_tutorial.remote.actors.Reaper;
+import de.hpi.akka_tutorial.remote.actors.Shepherd;
+import de.hpi.akka_tutorial.remote.actors.Slave;
+import de.hpi.akka_tutorial.remote.actors.Worker;
+import de.hpi.akka_tutorial.remote.actors.engines.AdaptivePrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.CostModel;
+import de.hpi.akka_tutorial.remote.actors.engines.MillerRabinPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.ParallelPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.SegmentedSievePrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.engines.TrialDivisionPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
+import de.hpi.akka_tutorial.remote.instrumentation.Instrumentation;
+import de.hpi.akka_tutorial.remote.messages.ShutdownMessage;
+import scala.Option;
+
+/**
+ * Serializes the messages of our protocol with Kryo. All protocol classes are registered with fixed IDs up front, so
+ * that no class names go over the wire. As a consequence, both ends of a connection must agree on
+ * {@link #PROTOCOL_CLASSES}: New classes must only ever be appended to that list.
+ * <p>
+ * Unlike chill's default {@link AkkaSerializer}, this serializer does not register the Scala collections, because our
+ * protocol does not use them and their registration needs reflective access to {@code java.util} internals.
+ */
+public class ProtocolKryoSerializer extends AkkaSerializer {
+
+	// The identifier of this serializer; values 0 to 40 are reserved by Akka
+	public static final int IDENTIFIER = 7878;
+
+	// The Kryo ID of the first protocol class; lower IDs are taken by Kryo and chill's default registrations
+	private static final int FIRST_CLASS_ID = 1000;
+
+	/**
+	 * The classes that this serializer is responsible for. The ID of each class is {@link #FIRST_CLASS_ID} plus its
+	 * index in this list. Every class in this list also needs a serialization binding in {@code serialization.conf}
+	 * unless it is only serialized as part of another message.
+	 */
+	public static final List<Class<?>> PROTOCOL_CLASSES = Collections.unmodifiableList(Arrays.asList(
+			Master.RangeMessage.class,
+			Master.RemoteSystemMessage.class,
+			Worker.ValidationMessage.class,
+			Listener.LogPrimesMessage.class,
+			Listener.LogMaxMessage.class,
+			Shepherd.SubscriptionMessage.class,
+			Slave.AddressMessage.class,
+			Slave.AcknowledgementMessage.class,
+			Reaper.WatchMeMessage.class,
+			ShutdownMessage.class,
+			TrialDivisionPrimeEngine.Factory.class,
+			SegmentedSievePrimeEngine.Factory.class,
+			MillerRabinPrimeEngine.Factory.class,
+			AdaptivePrimeEngine.Factory.class,
+			Address.class,
+			Listener.LogStatisticsMessage.class,
+			Listener.RangeQueryMessage.class,
+			Master.LogMetricsMessage.class,
+			Master.CalibrationMessage.class,
+			CostModel.class,
+			long[].class,
+			double[].class,
+			ParallelPrimeEngine.Factory.class,
+			Master.CancelQueryMessage.class,
+			Master.CancelledMessage.class,
+			Worker.CancelMessage.class,
+			Master.LogLatenciesMessage.class,
+			Master.QueryScheduledMessage.class,
+			Listener.SubscribeMessage.class,
+			Listener.QueryCancelledMessage.class,
+			Listener.CountQueryMessage.class,
+			Listener.CountMessage.class,
+			Listener.MaxQueryMessage.class,
+			Listener.MaxMessage.class,
+			Listener.ContainsQueryMessage.class,
+			Listener.ContainsMessage.class,
+			Master.CancellationMessage.class,
+			QueryReport.class,
+			QueryReport.WorkerShare.class,
+			LinkedHashMap.class,
+			Listener.QueryCompletedMessage.class
+	));
+
+	// The Kryo ID of the first actor reference class; the actor references precede the protocol classes
+	private static final int FIRST_ACTOR_REF_CLASS_ID = 900;
+
+	/**
+	 * The {@link ActorRef} implementations that protocol messages may carry, which are serialized as their paths like
+	 * chill's default {@link AkkaSerializer} does. Kryo looks registrations up by the concrete class, so registering
+	 * {@link ActorRef} itself does not suffice. The ID of each class is {@link #FIRST_ACTOR_REF_CLASS_ID} plus its index
+	 * in this list, which must only ever be appended to as well. The implementations are Akka internals, hence the names.
+	 */
+	private static final List<String> ACTOR_REF_CLASS_NAMES = Collections.unmodifiableList(Arrays.asList(
+			"akka.actor.ActorRef",
+			"akka.actor.LocalActorRef",
+			"akka.actor.RepointableActorRef",
+			"akka.remote.RemoteActorRef",
+			"akka.actor.EmptyLocalActorRef",
+			"akka.actor.DeadLetterActorRef",
+			"akka.pattern.PromiseActorRef",
+			"akka.routing.RoutedActorRef",
+			"akka.actor.FunctionRef",
+			"akka.remote.RemoteActorRefProvider$RemoteDeadLetterActorRef"
+	));
+
+	// The actor system to resolve deserialized actor references in
+	private final ExtendedActorSystem system;
+
+	public ProtocolKryoSerializer(final ExtendedActorSystem system) {
+		super(system);
+		this.system = system;
+	}
+
+	@Override
+	public int identifier() {
+		return IDENTIFIER;
+	}
+
+	@Override
+	public byte[] toBinary(final Object o) {
+		final byte[] bytes = super.toBinary(o);
+		Instrumentation.serialized(o.getClass(), bytes.length);
+		return bytes;
+	}
+
+	@Override
+	public KryoInstantiator kryoInstantiator() {
+		return new KryoInstantiator()
+				.withRegistrar(kryo -> {
+
+					// The Kryo instances are created lazily, i.e., only after the constructor has set the actor system
+					final ActorRefSerializer actorRefSerializer = new ActorRefSerializer(this.system);
+					for (int i = 0; i < ACTOR_REF_CLASS_NAMES.size(); i++) {
+						try {
+							kryo.register(Class.forName(ACTOR_REF_CLASS_NAMES.get(i)), actorRefSerializer, FIRST_ACTOR_REF_CLASS_ID + i);
+						} catch (ClassNotFoundException e) {
+							throw new IllegalStateException("Unknown actor reference class: " + ACTOR_REF_CLASS_NAMES.get(i), e);
+						}
+					}
+					for (int i = 0; i < PROTOCOL_CLASSES.size(); i++) {
+						final Class<?> protocolClass = PROTOCOL_CLASSES.get(i);
+						if (protocolClass == Address.class)
+							kryo.register(Address.class, new AddressSerializer(), FIRST_CLASS_ID + i);
+						else
+							kryo.register(protocolClass, FIRST_CLASS_ID + i);
+					}
+				})
+				.setRegistrationRequired(true);
+	}
+
+	/**
+	 * Serializes {@link Address}es without their Scala {@link Option}s.
+	 */
+	private static class AddressSerializer extends Serializer<Address> {
+
+		@Override
+		public void write(Kryo kryo, Output output, Address address) {
+			output.writeString(address.protocol());
+			output.writeString(address.system());
+			output.writeString(address.host().isDefined() ? address.host().get() : null);
+			output.writeInt(address.port().isDefined() ? (Integer) address.port().get() : -1);
+		}
+
+		@Override
+		public Address read(Kryo kryo, Input input, Class<Address> type) {
+			final String protocol = input.readString();
+			final String system = input.readString();
+			final String host = input.readString();
+			final int port = input.readInt();
+			return host == null ? new Address(protocol, system) : new Address(protocol, system, host, port);
+		}
+	}
+}
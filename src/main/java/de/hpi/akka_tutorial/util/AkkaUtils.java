@@ -60,12 +60,14 @@ public class AkkaUtils {
 
 	public static Config createRemoteAkkaConfig(String host, int port) {
 		Config baseConfig = loadConfig("akka-tutorial/base.conf");
+		Config serializationConfig = loadConfig("akka-tutorial/serialization.conf");
+		Config dispatchersConfig = loadConfig("akka-tutorial/dispatchers.conf");
 		Config remoteConfig = loadConfig(
 				"akka-tutorial/remote.conf",
 				new VariableBinding("host", host),
 				new VariableBinding("port", port)
 		);
-		return remoteConfig.withFallback(baseConfig);
+		return remoteConfig.withFallback(serializationConfig).withFallback(dispatchersConfig).withFallback(baseConfig);
 	}
 
 }
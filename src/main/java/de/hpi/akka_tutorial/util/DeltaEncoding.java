@@ -0,0 +1,118 @@
+package de.hpi.akka_tutorial.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encoding of ascending sequences of numbers: The sequence is stored as its length, its first value,
+ * and the differences between consecutive values, each as a variable-length integer of 7 bits per byte. For primes,
+ * the differences are small, so that most numbers take a single byte.
+ */
+public class DeltaEncoding {
+
+	/**
+	 * Calculate the number of bytes that {@link #encode(long[], int, int, ByteBuffer)} will write.
+	 *
+	 * @param values ascending numbers
+	 * @param from   index of the first number to encode (inclusive)
+	 * @param to     index of the last number to encode (exclusive)
+	 * @return the number of bytes
+	 */
+	public static int encodedLength(final long[] values, final int from, final int to) {
+		int length = varLongLength(to - from);
+		if (from < to) {
+			length += varLongLength(zigZag(values[from]));
+			for (int i = from + 1; i < to; i++)
+				length += varLongLength(values[i] - values[i - 1]);
+		}
+		return length;
+	}
+
+	/**
+	 * Encode a range of ascending numbers into a buffer.
+	 *
+	 * @param values ascending numbers
+	 * @param from   index of the first number to encode (inclusive)
+	 * @param to     index of the last number to encode (exclusive)
+	 * @param target the buffer to write to
+	 * @throws IllegalArgumentException if the numbers are not in ascending order
+	 */
+	public static void encode(final long[] values, final int from, final int to, final ByteBuffer target) {
+		writeVarLong(to - from, target);
+		if (from == to)
+			return;
+
+		writeVarLong(zigZag(values[from]), target);
+		for (int i = from + 1; i < to; i++) {
+			final long delta = values[i] - values[i - 1];
+			if (delta < 0)
+				throw new IllegalArgumentException(String.format("Numbers are not ascending: %d > %d", values[i - 1], values[i]));
+			writeVarLong(delta, target);
+		}
+	}
+
+	/**
+	 * Decode a sequence of numbers that was written by {@link #encode(long[], int, int, ByteBuffer)}.
+	 *
+	 * @param source the buffer to read from
+	 * @return the decoded numbers
+	 */
+	public static long[] decode(final ByteBuffer source) {
+		final long[] values = new long[(int) readVarLong(source)];
+		if (values.length == 0)
+			return values;
+
+		values[0] = unZigZag(readVarLong(source));
+		for (int i = 1; i < values.length; i++)
+			values[i] = values[i - 1] + readVarLong(source);
+		return values;
+	}
+
+	/**
+	 * Write a non-negative number as a variable-length integer.
+	 *
+	 * @param value  the number
+	 * @param target the buffer to write to
+	 */
+	public static void writeVarLong(long value, final ByteBuffer target) {
+		while ((value & ~0x7FL) != 0) {
+			target.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		target.put((byte) value);
+	}
+
+	/**
+	 * Read a variable-length integer.
+	 *
+	 * @param source the buffer to read from
+	 * @return the number
+	 */
+	public static long readVarLong(final ByteBuffer source) {
+		long value = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			final byte b = source.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed variable-length integer.");
+	}
+
+	/**
+	 * Calculate the number of bytes of a variable-length integer.
+	 *
+	 * @param value the number
+	 * @return the number of bytes
+	 */
+	public static int varLongLength(final long value) {
+		return value == 0 ? 1 : (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7;
+	}
+
+	private static long zigZag(final long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(final long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,116 @@
+package de.hpi.akka_tutorial.util;
+
+/**
+ * A histogram of latencies in nanoseconds with logarithmic buckets: Each power of two is divided into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so that every recorded value is off by less than 1/{@value #SUB_BUCKETS}
+ * from its bucket's lower bound. All buckets are allocated upfront, so that recording a value never allocates.
+ * <p>
+ * Instances are not thread-safe; they are meant to be owned by a single actor.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// The values below SUB_BUCKETS have one bucket each; above, each power of two has SUB_BUCKETS buckets
+	private final long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+
+	private long count = 0, sum = 0, max = 0;
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param nanos the latency in nanoseconds; negative values are recorded as 0
+	 */
+	public void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+		this.counts[bucket(value)]++;
+		this.count++;
+		this.sum += value;
+		this.max = Math.max(this.max, value);
+	}
+
+	/**
+	 * Count the recorded latencies.
+	 */
+	public long count() {
+		return this.count;
+	}
+
+	/**
+	 * Sum up the recorded latencies.
+	 *
+	 * @return the sum in nanoseconds
+	 */
+	public long sum() {
+		return this.sum;
+	}
+
+	/**
+	 * Find the largest recorded latency.
+	 *
+	 * @return the maximum in nanoseconds or {@code 0} if nothing was recorded
+	 */
+	public long max() {
+		return this.max;
+	}
+
+	/**
+	 * Estimate a percentile of the recorded latencies.
+	 *
+	 * @param quantile the percentile as a fraction between 0 and 1, e.g., 0.99 for the 99th percentile
+	 * @return the percentile in nanoseconds, i.e., the lower bound of the bucket that contains it (but at most the
+	 * maximum), or {@code 0} if nothing was recorded
+	 */
+	public long percentile(final double quantile) {
+		if (this.count == 0)
+			return 0;
+		final long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+		long seen = 0;
+		for (int bucket = 0; bucket < this.counts.length; bucket++) {
+			seen += this.counts[bucket];
+			if (seen >= rank)
+				return Math.min(this.max, lowerBound(bucket));
+		}
+		return this.max;
+	}
+
+	/**
+	 * Render the histogram as a summary in the Prometheus text exposition format, so that it can be scraped, e.g., from
+	 * a file by the textfile collector of a node exporter.
+	 *
+	 * @param name the name of the metric
+	 * @param help a description of the metric
+	 * @return the rendered metric with one sample per line
+	 */
+	public String toPrometheus(final String name, final String help) {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		builder.append("# TYPE ").append(name).append(" summary\n");
+		for (double quantile : new double[] {0.5, 0.99})
+			builder.append(String.format("%s{quantile=\"%s\"} %.9f\n", name, quantile, this.percentile(quantile) / 1e9));
+		builder.append(String.format("%s_sum %.9f\n", name, this.sum / 1e9));
+		builder.append(String.format("%s_count %d\n", name, this.count));
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("p50 %,.1f ms, p99 %,.1f ms, max %,.1f ms (%,d samples)",
+				this.percentile(0.5) / 1e6, this.percentile(0.99) / 1e6, this.max / 1e6, this.count);
+	}
+
+	private static int bucket(final long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long lowerBound(final int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (1L << exponent) | ((long) (bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS));
+	}
+}
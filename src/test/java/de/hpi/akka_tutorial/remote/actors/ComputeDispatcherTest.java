@@ -0,0 +1,81 @@
+package de.hpi.akka_tutorial.remote.actors;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import de.hpi.akka_tutorial.remote.actors.engines.MillerRabinPrimeEngine;
+import de.hpi.akka_tutorial.remote.actors.scheduling.RoundRobinSchedulingStrategy;
+import de.hpi.akka_tutorial.remote.actors.storage.BitmapPrimeStore;
+
+/**
+ * Checks that the {@link Worker}s on the compute dispatcher do not starve the control-plane actors on the default
+ * dispatcher: While more workers than cores are busy with a long query, the {@link Listener} must keep answering
+ * promptly.
+ */
+public class ComputeDispatcherTest {
+
+	// The number of round trips to the listener that are measured
+	private static final int NUM_ROUND_TRIPS = 200;
+
+	// The 99th percentile of the round-trip times that we tolerate; an idle actor system answers within a millisecond
+	private static final long MAX_ROUND_TRIP_MILLIS = 100;
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void setUp() {
+		system = ActorSystem.create("ComputeDispatcherTest",
+				ConfigFactory.parseResources("akka-tutorial/dispatchers.conf").withFallback(ConfigFactory.load()));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	@Test
+	public void testListenerRespondsWhileWorkersSaturateComputeDispatcher() {
+		final TestKit client = new TestKit(system), probe = new TestKit(system);
+
+		// Start twice as many local workers as the compute dispatcher has threads
+		final int numWorkers = 2 * Runtime.getRuntime().availableProcessors();
+		final ActorRef listener = system.actorOf(Listener.props(new BitmapPrimeStore.Factory(), null), Listener.DEFAULT_NAME);
+		final ActorRef master = system.actorOf(Master.props(listener, new RoundRobinSchedulingStrategy.Factory(),
+				new MillerRabinPrimeEngine.Factory(), numWorkers, false, null, null), Master.DEFAULT_NAME);
+		system.actorOf(Shepherd.props(master), Shepherd.DEFAULT_NAME);
+
+		// Pose a query that keeps all workers busy for much longer than the test and wait for its first primes
+		master.tell(new Master.RangeMessage(1L << 40, (1L << 40) + 1_000_000_000_000L), client.getRef());
+		client.expectMsgClass(client.duration("10 seconds"), Master.QueryScheduledMessage.class);
+		probe.awaitCond(probe.duration("30 seconds"), probe.duration("50 millis"), "The workers did not report any primes.", () -> {
+			listener.tell(new Listener.CountQueryMessage(1L << 40, Long.MAX_VALUE), probe.getRef());
+			return probe.expectMsgClass(Listener.CountMessage.class).getCount() > 0;
+		});
+
+		// Measure the round trips to the listener while the workers keep on sending primes to it
+		final long[] roundTripNanos = new long[NUM_ROUND_TRIPS];
+		for (int i = 0; i < NUM_ROUND_TRIPS; i++) {
+			final long startNanos = System.nanoTime();
+			listener.tell(new Listener.CountQueryMessage(1L << 40, Long.MAX_VALUE), probe.getRef());
+			probe.expectMsgClass(Listener.CountMessage.class);
+			roundTripNanos[i] = System.nanoTime() - startNanos;
+		}
+
+		Arrays.sort(roundTripNanos);
+		final double p99Millis = roundTripNanos[(int) Math.ceil(0.99 * NUM_ROUND_TRIPS) - 1] / 1e6;
+		final double maxMillis = roundTripNanos[NUM_ROUND_TRIPS - 1] / 1e6;
+		assertTrue(String.format("The 99th percentile round trip took %.1f ms (max %.1f ms) with %d busy workers.", p99Millis, maxMillis, numWorkers),
+				p99Millis <= MAX_ROUND_TRIP_MILLIS);
+	}
+}
@@ -0,0 +1,58 @@
+package de.hpi.akka_tutorial.remote.actors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryMonitor;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
+import de.hpi.akka_tutorial.remote.actors.storage.BitmapPrimeStore;
+
+/**
+ * Checks that the subscribers of a query receive every prime of the query once, even if several workers report it,
+ * so that the streamed primes agree with the final {@link QueryReport}.
+ */
+public class ListenerTest {
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void setUp() {
+		system = ActorSystem.create("ListenerTest",
+				ConfigFactory.parseResources("akka-tutorial/dispatchers.conf").withFallback(ConfigFactory.load()));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	@Test
+	public void testSubscriberReceivesSpeculativeCopiesOnce() {
+		final TestKit master = new TestKit(system), subscriber = new TestKit(system);
+		final ActorRef listener = system.actorOf(Listener.props(new BitmapPrimeStore.Factory(), null));
+		listener.tell(new Listener.SubscribeMessage(1), subscriber.getRef());
+
+		// A speculative copy of a subquery reports the same primes as the original one
+		listener.tell(new Listener.PrimesMessage(1, new long[] { 2, 3, 5, 7 }), master.getRef());
+		listener.tell(new Listener.PrimesMessage(1, new long[] { 2, 3, 5, 7, 11, 13 }), master.getRef());
+		listener.tell(new Listener.PrimesMessage(1, new long[] { 2, 3, 5 }), master.getRef());
+
+		final QueryMonitor monitor = new QueryMonitor();
+		monitor.submitted(1, 1, 15, 1);
+		listener.tell(new Listener.QueryCompletedMessage(monitor.finish(1)), master.getRef());
+
+		assertArrayEquals(new long[] { 2, 3, 5, 7 }, subscriber.expectMsgClass(Listener.PrimesMessage.class).getPrimes());
+		assertArrayEquals(new long[] { 11, 13 }, subscriber.expectMsgClass(Listener.PrimesMessage.class).getPrimes());
+		assertEquals(6, subscriber.expectMsgClass(QueryReport.class).getNumPrimes());
+	}
+}
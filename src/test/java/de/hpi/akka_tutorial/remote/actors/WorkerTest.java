@@ -0,0 +1,109 @@
+package de.hpi.akka_tutorial.remote.actors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import de.hpi.akka_tutorial.remote.actors.engines.AdaptivePrimeEngine;
+
+/**
+ * Checks that a {@link Worker} proceeds correctly with the surviving subqueries when a {@link Worker.CancelMessage}
+ * stops several of its subqueries at once.
+ */
+public class WorkerTest {
+
+	// A range of large numbers that takes far longer to check than the test
+	private static final long LARGE_RANGE_MIN = 1_000_000_000_000L, LARGE_RANGE_MAX = LARGE_RANGE_MIN + 100_000_000L;
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void setUp() {
+		system = ActorSystem.create("WorkerTest",
+				ConfigFactory.parseResources("akka-tutorial/dispatchers.conf").withFallback(ConfigFactory.load()));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	@Test
+	public void testCancelRunningAndQueuedSubqueriesOfQuery() {
+		final TestKit master = new TestKit(system);
+		final ActorRef worker = system.actorOf(Worker.props(new AdaptivePrimeEngine.Factory()));
+
+		// The first two subqueries belong to the cancelled query, the third one must survive
+		final Worker.ValidationMessage running = new Worker.ValidationMessage(1, LARGE_RANGE_MIN, LARGE_RANGE_MAX);
+		final Worker.ValidationMessage queued = new Worker.ValidationMessage(1, 5_000_000, 6_000_000);
+		worker.tell(running, master.getRef());
+		worker.tell(queued, master.getRef());
+		worker.tell(new Worker.ValidationMessage(2, 100, 200), master.getRef());
+		worker.tell(new Worker.CancelMessage(1), master.getRef());
+
+		final Set<Worker.ValidationMessage> cancelledSubqueries = new HashSet<>();
+		final Set<Long> primes = new HashSet<>();
+		this.receiveUntilComplete(master, 2, cancelledSubqueries, primes);
+
+		assertEquals(2, cancelledSubqueries.size());
+		assertTrue(cancelledSubqueries.contains(running));
+		assertTrue(cancelledSubqueries.contains(queued));
+		assertEquals(21, primes.size());
+	}
+
+	@Test
+	public void testCancelAllSubqueriesThenContinueWithNewOne() {
+		final TestKit master = new TestKit(system);
+		final ActorRef worker = system.actorOf(Worker.props(new AdaptivePrimeEngine.Factory()));
+
+		// Empty the queue of the worker, so that the next subquery starts while the old slice chain may be pending
+		worker.tell(new Worker.ValidationMessage(1, LARGE_RANGE_MIN, LARGE_RANGE_MAX), master.getRef());
+		worker.tell(new Worker.ValidationMessage(1, LARGE_RANGE_MAX + 1, LARGE_RANGE_MAX + 100_000_000L), master.getRef());
+		worker.tell(new Worker.ValidationMessage(1, 5_000_000, 6_000_000), master.getRef());
+		worker.tell(new Worker.CancelMessage(1), master.getRef());
+		worker.tell(new Worker.ValidationMessage(2, 1, 1_000_000), master.getRef());
+
+		final Set<Worker.ValidationMessage> cancelledSubqueries = new HashSet<>();
+		final Set<Long> primes = new HashSet<>();
+		this.receiveUntilComplete(master, 2, cancelledSubqueries, primes);
+
+		assertEquals(3, cancelledSubqueries.size());
+		assertEquals(78_498, primes.size());
+	}
+
+	/**
+	 * Collect the primes of a query until the worker completes it, and the subqueries that the worker cancelled on the
+	 * way.
+	 */
+	private void receiveUntilComplete(final TestKit master, final int queryId, final Set<Worker.ValidationMessage> cancelledSubqueries,
+			final Set<Long> primes) {
+		while (true) {
+			final Object message = master.receiveOne(master.duration("10 seconds"));
+			if (message == null)
+				throw new AssertionError("The worker did not complete query " + queryId + ".");
+			if (message instanceof Master.CancelledMessage) {
+				cancelledSubqueries.add(((Master.CancelledMessage) message).getSubquery());
+			} else if (message instanceof Master.PrimesMessage) {
+				final Master.PrimesMessage primesMessage = (Master.PrimesMessage) message;
+				if (primesMessage.getRequestId() != queryId)
+					continue;
+				for (long prime : primesMessage.getPrimes())
+					primes.add(prime);
+				if (primesMessage.isComplete())
+					return;
+			}
+		}
+	}
+}
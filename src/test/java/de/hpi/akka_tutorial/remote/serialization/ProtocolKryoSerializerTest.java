@@ -0,0 +1,96 @@
+package de.hpi.akka_tutorial.remote.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.testkit.javadsl.TestKit;
+import de.hpi.akka_tutorial.remote.actors.Listener;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryMonitor;
+import de.hpi.akka_tutorial.remote.actors.scheduling.QueryReport;
+
+/**
+ * Checks that the {@link ProtocolKryoSerializer} handles the query reports, which the master sends to the listener and
+ * the listener to its subscribers, including the per-worker shares that they carry.
+ */
+public class ProtocolKryoSerializerTest {
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void setUp() {
+		system = ActorSystem.create("ProtocolKryoSerializerTest",
+				ConfigFactory.parseResources("akka-tutorial/serialization.conf")
+						.withFallback(ConfigFactory.parseResources("akka-tutorial/dispatchers.conf"))
+						.withFallback(ConfigFactory.load()));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	@Test
+	public void testRoundTripQueryCompletedMessage() {
+		final QueryReport report = this.createReport(false);
+		final Listener.QueryCompletedMessage copy = this.roundTrip(new Listener.QueryCompletedMessage(report));
+		this.assertReportEquals(report, copy.getReport());
+	}
+
+	@Test
+	public void testRoundTripQueryCancelledMessage() {
+		final QueryReport report = this.createReport(true);
+		final Listener.QueryCancelledMessage copy = this.roundTrip(new Listener.QueryCancelledMessage(report.getQueryId(), report));
+		assertEquals(report.getQueryId(), copy.getQueryId());
+		this.assertReportEquals(report, copy.getReport());
+	}
+
+	@Test
+	public void testRoundTripQueryReport() {
+		final QueryReport report = this.createReport(false);
+		this.assertReportEquals(report, this.roundTrip(report));
+	}
+
+	/**
+	 * Create a report of a query that two workers took part in.
+	 */
+	private QueryReport createReport(final boolean isCancelled) {
+		final TestKit worker1 = new TestKit(system), worker2 = new TestKit(system);
+		final QueryMonitor monitor = new QueryMonitor();
+		monitor.submitted(7, 100, 200, 1);
+		monitor.reported(worker1.getRef(), 7, 12);
+		monitor.completed(worker1.getRef(), 7);
+		monitor.reported(worker2.getRef(), 7, 9);
+		monitor.completed(worker2.getRef(), 7);
+		return isCancelled ? monitor.cancel(7) : monitor.finish(7);
+	}
+
+	/**
+	 * Serialize and deserialize a message with the serializer that the actor system binds to its class.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T roundTrip(final T message) {
+		final Serialization serialization = SerializationExtension.get(system);
+		final Serializer serializer = serialization.findSerializerFor(message);
+		assertTrue(message.getClass().getName() + " is not bound to the protocol serializer.", serializer instanceof ProtocolKryoSerializer);
+		return (T) serialization.deserialize(serializer.toBinary(message), serializer.identifier(), message.getClass().getName()).get();
+	}
+
+	private void assertReportEquals(final QueryReport expected, final QueryReport actual) {
+		assertEquals(expected.getQueryId(), actual.getQueryId());
+		assertEquals(expected.getNumPrimes(), actual.getNumPrimes());
+		assertEquals(expected.isCancelled(), actual.isCancelled());
+		assertEquals(expected.getWorkerShares().keySet(), actual.getWorkerShares().keySet());
+		assertEquals(expected.toString(), actual.toString());
+	}
+}